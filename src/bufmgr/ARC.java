@@ -0,0 +1,118 @@
+package bufmgr;
+
+/* Adaptive Replacement Cache (Megiddo and Modha).
+ *
+ * T1 holds pages referenced once recently, T2 pages referenced at
+ * least twice. B1 and B2 remember the pages evicted from T1 and T2.
+ * A miss that hits B1 means T1 was too small and grows the target p,
+ * a miss that hits B2 shrinks it; the victim comes from T1 while T1
+ * is larger than p. The buffer manager picks the victim before it
+ * reads the page, so unlike the paper the adaptation happens in
+ * frameLoaded and applies to the next replacement.
+ */
+public class ARC extends Replacer {
+
+	private static final int T1 = 1;
+	private static final int T2 = 2;
+	private static final int B1 = 0;
+	private static final int B2 = 1;
+
+	private static final int OUT = 0;
+
+	private final int[] state;
+	private final int[] pageOf;
+	private int t1Count;
+	private int t2Count;
+	private int target;
+	private final GhostLists ghosts;
+
+	public ARC(int numbufs) {
+		super(numbufs, 3);
+		state = new int[numbufs];
+		pageOf = new int[numbufs];
+		for(int i = 0; i < numbufs; i++)
+			pageOf[i] = INVALID_PAGEID;
+		target = 0;
+		ghosts = new GhostLists(numbufs, 2);
+	}
+
+	protected int chooseVictim() {
+		int victim = NONE;
+		if(t1Count > Math.max(target, 0) || candidates.isEmpty(T2))
+			victim = candidates.first(T1);
+		if(victim == NONE)
+			victim = candidates.first(T2);
+		if(victim == NONE)
+			victim = candidates.first(T1);
+		return victim;
+	}
+
+	public void frameEvicted(int frameNo) {
+		if(state[frameNo] == T1)
+			t1Count--;
+		else if(state[frameNo] == T2)
+			t2Count--;
+		if(state[frameNo] != OUT && pageOf[frameNo] != INVALID_PAGEID) {
+			if(ghosts.isFull()) {
+				// Keep |T1| + |B1| within the pool size when possible
+				if(ghosts.size(B1) > 0 
+						&& (t1Count + ghosts.size(B1) >= numbufs || ghosts.size(B2) == 0))
+					ghosts.dropOldest(B1);
+				else
+					ghosts.dropOldest(B2);
+			}
+			ghosts.add(state[frameNo] == T1 ? B1 : B2, pageOf[frameNo]);
+		}
+		state[frameNo] = OUT;
+		pageOf[frameNo] = INVALID_PAGEID;
+	}
+
+	protected void addCandidate(int frameNo) {
+		linkCandidate(state[frameNo] == T2 ? T2 : T1, frameNo, false);
+	}
+
+	public void frameLoaded(int frameNo, int pid) {
+		pageOf[frameNo] = pid;
+		int ghost = ghosts.find(pid);
+		if(ghost == GhostLists.NONE) {
+			state[frameNo] = T1;
+			t1Count++;
+			return;
+		}
+		int b1 = ghosts.size(B1);
+		int b2 = ghosts.size(B2);
+		if(ghosts.listOf(ghost) == B1)
+			target = Math.min(numbufs, target + Math.max(1, b2 / b1));
+		else
+			target = Math.max(0, target - Math.max(1, b1 / b2));
+		ghosts.remove(ghost);
+		state[frameNo] = T2;
+		t2Count++;
+	}
+
+	/* Read-ahead is not a reference, and does not adapt p either */
+	public void framePrefetched(int frameNo, int pid) {
+		pageOf[frameNo] = pid;
+		int ghost = ghosts.find(pid);
+		if(ghost != GhostLists.NONE)
+			ghosts.remove(ghost);
+		state[frameNo] = T1;
+		t1Count++;
+		linkCandidate(T1, frameNo, false);
+	}
+
+	public void frameHit(int frameNo) {
+		if(state[frameNo] == T1) {
+			t1Count--;
+		} else if(state[frameNo] == T2) {
+			return;
+		}
+		state[frameNo] = T2;
+		t2Count++;
+	}
+
+	public void releaseFrame(int frameNo) {
+		pageOf[frameNo] = INVALID_PAGEID;
+		super.releaseFrame(frameNo);
+	}
+}
@@ -2,18 +2,44 @@ package bufmgr;
 
 import chainexception.ChainException;
 import diskmgr.DiskMgrException;
+import global.GlobalConst;
 import global.Page;
 import global.PageId;
 
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
 import global.Minibase;
 
-public class BufMgr {
+public class BufMgr implements GlobalConst {
 	
+	/* The page table is split in stripes, each guarded by its own lock.
+	 * Lock order: the write-behind copies, stripe locks (in index order
+	 * when several are held), then ioLock, then the replacement policy's
+	 * monitor. Page contents
+	 * of a frame only change owner under the stripe lock of the page.
+	 */
+	private static final int STRIPE_BITS = 4;
+	private static final int NUM_STRIPES = 1 << STRIPE_BITS;
+
     private Frame frames[];
     private int numbufs;
     private String replacementPolicy;
-    private HashTable hashTable;
-    private LIRS lirsPolicy;
+    private PageTable[] pageTables;
+    private ReentrantLock[] stripeLocks;
+    // Its own monitor guards it, held only for O(1) calls
+    private ReplacementPolicy replacer;
+    private int lookAheadSize;
+    // Page id that continues the current run of sequential misses
+    private volatile int nextSequentialPid;
+    // Held around disk writes so a background write never lands after a newer one
+    private final Object ioLock = new Object();
+    private PageWriter pageWriter;
+    // Its own monitor guards it, held for a whole writeBehind
+    private final PageCopies copies = new PageCopies();
+    // Where the background writer resumes looking for dirty frames
+    private int cleanCursor;
+    private final BufMgrStats stats;
 	
 	/**
 	* Create the BufMgr object.
@@ -33,12 +59,44 @@ public class BufMgr {
         // Allocate the frames
     	for (int i = 0; i < frames.length; i++)
     		frames[i]= new Frame();   
-        hashTable = new HashTable(numbufs);
-        lirsPolicy = new LIRS(numbufs);
+        pageTables = new PageTable[NUM_STRIPES];
+        stripeLocks = new ReentrantLock[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+        	pageTables[i] = new PageTable(numbufs / NUM_STRIPES + 1);
+        	stripeLocks[i] = new ReentrantLock();
+        }
+        replacer = createReplacer(replacementPolicy, numbufs);
         this.numbufs = numbufs;
-        // TODO: Maybe throw exception for replacement policies we haven't implemented
+        this.lookAheadSize = Math.max(0, lookAheadSize);
+        nextSequentialPid = INVALID_PAGEID;
         this.replacementPolicy = replacementPolicy;
+        stats = new BufMgrStats(this);
     }
+	/*
+	* Maps a policy name to its implementation. The name is not case
+	* sensitive and may carry a "_Look_ahead" suffix (read-ahead is
+	* controlled by lookAheadSize). No name means LIRS.
+	*/
+	private static ReplacementPolicy createReplacer(String name, int numbufs) {
+		if(name == null)
+			return new LIRS(numbufs);
+		String policy = name.toUpperCase();
+		if(policy.endsWith("_LOOK_AHEAD"))
+			policy = policy.substring(0, policy.length() - "_LOOK_AHEAD".length());
+		if(policy.equals("LIRS"))
+			return new LIRS(numbufs);
+		if(policy.equals("LRU"))
+			return new LRU(numbufs);
+		if(policy.equals("MRU"))
+			return new MRU(numbufs);
+		if(policy.equals("CLOCK"))
+			return new Clock(numbufs);
+		if(policy.equals("2Q") || policy.equals("TWOQ"))
+			return new TwoQ(numbufs);
+		if(policy.equals("ARC"))
+			return new ARC(numbufs);
+		throw new IllegalArgumentException("Unknown replacement policy " + name);
+	}
 	/**
 	* Pin a page.
 	* First check if this page is already in the buffer pool.
@@ -52,10 +110,12 @@ public class BufMgr {
 	* Also, must write out the old page in chosen frame if it is dirty
 	* before reading new page.__ (You can assume that emptyPage==false for
 	* this assignment.)
+	* Safe to call from several threads: clients that pin the same
+	* missing page at the same time wait for a single disk read.
 	*
 	* @param pageno page number in the Minibase.
 	* @param page the pointer point to the page.
-	* @param emptyPage true (empty page); false (non­empty page)
+	* @param emptyPage true (empty page); false (non­empty page)
 	 * @throws HashEntryNotFoundException 
 	 * @throws LIRSFailureException 
 	 * @throws DiskMgrException 
@@ -66,89 +126,630 @@ public class BufMgr {
 		LIRSFailureException, 
 		DiskMgrException, 
 		BufferPoolExceededException {
-		// TODO: Throw BufferPoolExceededException
-		Pair mgmInfo = null;
-		Boolean hashEntryFound = true;
+		pinPage(pageno, page, emptyPage, null);
+    }
+	/**
+	* Pins a page for a sequential scan: on a miss the page is read into
+	* a frame of the scan's ring instead of one of the shared pool, see
+	* ScanRing. Works like pinPage otherwise.
+	*
+	* @param pageno page number in the Minibase.
+	* @param page the pointer point to the page.
+	* @param emptyPage true (empty page); false (non­empty page)
+	* @param ring the scan's ring, null for the shared pool
+	 * @throws HashEntryNotFoundException 
+	 * @throws LIRSFailureException 
+	 * @throws DiskMgrException 
+	 * @throws BufferPoolExceededException 
+	*/
+	public void pinPage(PageId pageno, Page page, boolean emptyPage, ScanRing ring) 
+		throws HashEntryNotFoundException, 
+		LIRSFailureException, 
+		DiskMgrException, 
+		BufferPoolExceededException {
+		int frameIndex = pinFrame(pageno, ring);
+		// Return page stored in this frame
+		page.setPage(frames[frameIndex].getPage());
+    }
+	/**
+	* Pins a page through a reusable handle: the handle's view is pointed
+	* at the frame, so nothing is allocated per pin. Works like pinPage
+	* otherwise. The pin is released with unpin, see PinnedPage for the
+	* contract.
+	*
+	* @param handle handle that holds no pin
+	* @param pageno page number in the Minibase.
+	* @param emptyPage true (empty page); false (non­empty page)
+	* @throws IllegalStateException if the handle already holds a pin
+	 * @throws LIRSFailureException 
+	 * @throws DiskMgrException 
+	 * @throws BufferPoolExceededException 
+	*/
+	public void pin(PinnedPage handle, PageId pageno, boolean emptyPage) 
+		throws LIRSFailureException, 
+		DiskMgrException, 
+		BufferPoolExceededException {
+		pin(handle, pageno, emptyPage, null);
+	}
+	/**
+	* Pins a page through a reusable handle for a sequential scan, see
+	* pin and ScanRing.
+	*
+	* @param handle handle that holds no pin
+	* @param pageno page number in the Minibase.
+	* @param emptyPage true (empty page); false (non­empty page)
+	* @param ring the scan's ring, null for the shared pool
+	* @throws IllegalStateException if the handle already holds a pin
+	 * @throws LIRSFailureException 
+	 * @throws DiskMgrException 
+	 * @throws BufferPoolExceededException 
+	*/
+	public void pin(PinnedPage handle, PageId pageno, boolean emptyPage, ScanRing ring) 
+		throws LIRSFailureException, 
+		DiskMgrException, 
+		BufferPoolExceededException {
+		if(handle.isPinned())
+			throw new IllegalStateException("Handle already pins page " + handle.getPid());
+		int frameIndex = pinFrame(pageno, ring);
+		handle.bind(pageno.pid, frameIndex, frames[frameIndex].getPage());
+	}
+	/**
+	* Releases the pin a handle holds, leaving the page dirty if the
+	* handle was marked dirty. The frame is known from the handle, so
+	* there is no page table lookup.
+	*
+	* @param handle handle that holds a pin
+	* @throws IllegalStateException if the handle holds no pin
+	*/
+	public void unpin(PinnedPage handle) {
+		if(!handle.isPinned())
+			throw new IllegalStateException("Handle holds no pin");
+		int stripe = stripeOf(handle.getPid());
+		stripeLocks[stripe].lock();
 		try {
-			mgmInfo = hashTable.hashKey(pageno);
-		} catch (HashEntryNotFoundException e) {
-			hashEntryFound = false;
+			releasePin(handle.getFrameIndex(), handle.isDirty());
+		} finally {
+			stripeLocks[stripe].unlock();
+		}
+		handle.clear();
+	}
+	/**
+	* Creates a ring of frames for a sequential scan. Its frames are
+	* taken from the pool as the scan needs them.
+	*
+	* @param size number of frames, at most a quarter of the pool
+	* @throws IllegalArgumentException if size is less than 1
+	*/
+	public ScanRing createScanRing(int size) {
+		if(size < 1)
+			throw new IllegalArgumentException("A scan ring needs at least one frame");
+		return new ScanRing(Math.max(1, Math.min(size, numbufs / 4)));
+	}
+	/**
+	* Gives the frames of a scan ring back to the pool. The pages they
+	* hold stay resident, as pages that were read once; pages the scan
+	* still has pinned become ordinary pinned pages.
+	*
+	* @param ring the ring of a scan that is over
+	*/
+	public void releaseScanRing(ScanRing ring) {
+		for(int slot = 0; slot < ring.size(); slot++) {
+			if(ring.frames[slot] >= 0)
+				leaveRing(ring.frames[slot], ring);
+			ring.frames[slot] = -1;
+		}
+	}
+	/*
+	* Pins the page, reading it in on a miss, and returns its frame.
+	*/
+	private int pinFrame(PageId pageno, ScanRing ring) 
+		throws LIRSFailureException, 
+		DiskMgrException, 
+		BufferPoolExceededException {
+		int frameIndex = pinResident(pageno.pid, ring);
+		if(frameIndex == PageTable.NOT_FOUND) {
+			long start = System.nanoTime();
+			frameIndex = loadPage(pageno, ring);
+			stats.pinMissLatency.record(System.nanoTime() - start);
+
+			// Read ahead when the misses walk the file sequentially
+			boolean sequential = (pageno.pid == nextSequentialPid);
+			nextSequentialPid = pageno.pid + 1;
+			if(sequential && lookAheadSize > 0) {
+				try {
+					nextSequentialPid += prefetchPages(new PageId(pageno.pid + 1),
+							                           lookAheadSize);
+				} catch (DiskMgrException e) {
+					/* The page is pinned already, throwing would leave the
+					 * caller a pin it has no page for. Reading ahead is a
+					 * hint here: the failed write-back is in the stats and
+					 * a miss that needs the frame will report it.
+					 */
+				}
+			}
+		} // End of page miss	
+		return frameIndex;
+	}
+	/*
+	* Pins the page if it is in the buffer pool and returns its frame,
+	* NOT_FOUND otherwise. Waits if the page is still being read. A page
+	* in the ring of another scan joins the pool; pages in the caller's
+	* own ring stay there, unknown to the policy.
+	*/
+	private int pinResident(int pid, ScanRing ring) 
+		throws DiskMgrException {
+		ReentrantLock lock = stripeLocks[stripeOf(pid)];
+		int frameIndex;
+		Frame frame;
+		lock.lock();
+		try {
+			frameIndex = pageTables[stripeOf(pid)].get(pid);
+			if(frameIndex == PageTable.NOT_FOUND)
+				return PageTable.NOT_FOUND;
+			frame = frames[frameIndex];
+			/* Take the frame off the replacement candidates if it was 
+			 * still unpinned
+			 */
+			if(frame.incPinCount() == 1) {
+				synchronized(replacer) {
+					frame.notePinned();
+					if(frame.getRing() == null)
+						replacer.framePinned(frameIndex);
+				}
+			}
+			stats.hits.incrementAndGet();
+			if(frame.getState() == Frame.LOADED) {
+				noteHit(frameIndex, ring);
+				return frameIndex;
+			}
+		} finally {
+			lock.unlock();
+		}
+		// Somebody else is reading the page, wait for the outcome
+		if(frame.awaitLoaded() == Frame.FAILED) {
+			dropPin(frameIndex);
+			throw new DiskMgrException(null, "DiskManager failed to read page " + pid);
+		}
+		lock.lock();
+		try {
+			noteHit(frameIndex, ring);
+		} finally {
+			lock.unlock();
+		}
+		return frameIndex;
+	}
+	/*
+	* Tells the policy about a hit on a loaded frame, under the stripe
+	* lock of its page. A frame of another scan's ring is handed to the
+	* policy first.
+	*/
+	private void noteHit(int frameIndex, ScanRing ring) {
+		ScanRing owner = frames[frameIndex].getRing();
+		if(owner != null && owner == ring)
+			return;
+		if(owner != null)
+			leaveRingLocked(frameIndex);
+		// Update the policy stats
+		synchronized(replacer) {
+			replacer.frameHit(frameIndex);
+		}
+	}
+	/*
+	* Page miss: gets a frame, maps the page to it and reads the page.
+	* If another client mapped the page first, its frame is used instead.
+	*/
+	private int loadPage(PageId pageno, ScanRing ring) 
+		throws BufferPoolExceededException, DiskMgrException {
+		while(true) {
 			// Find a candidate for replacement
-            try {
-			   // TODO: Only use this when replacementPolicy=LIRS
-			   Pair replacementCandidate = lirsPolicy.getReplacementCandidate(pageno);
-		       Integer replacementIndex = replacementCandidate.getFrameNumber();
-                  
-	           // Flush replacement page before reusing
-	           if(frames[replacementIndex].isFrameDirty()) {
-	              flushPage(frames[replacementIndex].getPageId());
-	              frames[replacementIndex].setIsFrameDirty(false);
-	           }
-	           
-	           try { 
-	              // Bring in page from disk into this frame
-		          Minibase.DiskManager.read_page(pageno, 
-		    		                             frames[replacementIndex].getPage());
-	           } catch (ChainException diskMgrExc) {
-	        	   throw new ChainException(diskMgrExc, "DiskManager Failed during pinPage");
-	           }
-		       
-				/* Need to remove this entry from the hash table.
-				 * Exception only applies when the this is the 
-				 * first time using this frame
-				 */
-		        if(frames[replacementIndex].isHashed()) {
-		           
-					   hashTable.deleteEntry(replacementCandidate);
-				   
-		        }
-				// Set this frame for use with new page id
-				replacementCandidate.setPageId(pageno.pid);
-		        // Add new entry to hash table
-		        hashTable.insertEntry(replacementCandidate);
-		        // Lower initial condition flag for this frame (always true after first time)
-		        frames[replacementIndex].setIsHashed(true);
-		        // Update mgmInfo so control flow can continue as 
-		        // if nothing happened 
-		        mgmInfo = replacementCandidate;
-		       
-			} catch (LIRSFailureException exceedE) {
-				// Per the specs, throw exception caused by lower layer
-				throw new BufferPoolExceededException(exceedE, "Attempt to pin a page to buffer " 
-				                                    + "pool with no unpinned frame left");            	
-            } catch (HashEntryNotFoundException e1) {
-			      throw new HashEntryNotFoundException(e1, 
-					   "Attempted to delete a non existing entry in the hash table!");
+			int replacementIndex = (ring == null) ? evictFrame() : ringFrame(ring);
+			if(!installPage(replacementIndex, pageno.pid)) {
+				// Lost the race for this page, hand the frame back
+				// (a ring frame stays in its ring, empty)
+				if(ring == null) {
+					synchronized(replacer) {
+						replacer.releaseFrame(replacementIndex);
+					}
+				}
+				int frameIndex = pinResident(pageno.pid, ring);
+				if(frameIndex != PageTable.NOT_FOUND)
+					return frameIndex;
+				continue;
+			}
+			Frame victim = frames[replacementIndex];
+			stats.misses.incrementAndGet();
+			long start = System.nanoTime();
+			try {
+				// Bring in page from disk into this frame
+				Minibase.DiskManager.read_page(pageno, victim.getPage());
+				stats.diskReadLatency.record(System.nanoTime() - start);
 			} catch (Exception dskMgre) {
+				failLoad(replacementIndex, pageno.pid);
 				// Per the specs, throw exception caused by lower layer
 				throw new DiskMgrException(dskMgre, "DiskManager failed to read page " 
 				                                    + pageno.pid);
-			} // End of inner try/catch block
-		} // End of main try/catch block	
-		Integer frameIndex = mgmInfo.getFrameNumber(); 
-		Frame frame = frames[frameIndex];
-		// Update pageid for this frame here
-		frame.setPageId(pageno.pid);
+			}
+			finishLoad(replacementIndex, pageno.pid, false);
+			return replacementIndex;
+		}
+	}
+	/**
+	* Read ahead a run of pages into unpinned frames with one batched
+	* disk read. The run stops at the first page that is already in the
+	* buffer pool or past the end of the database, and never takes more
+	* than the unpinned frames left. Prefetched pages are left unpinned,
+	* so this is only a hint: scans call it before walking a run of pages
+	* and a failed read simply means the pages get read on demand. Making
+	* room is not a hint though, a dirty page that cannot be written back
+	* is reported like on a page miss.
+	*
+	* @param firstpage the first page of the run.
+	* @param howmany number of pages to be read ahead.
+	*
+	* @return the number of pages read into the buffer pool.
+	*
+	* @throws DiskMgrException if a dirty page could not be written back
+	* to make room.
+	*/
+	public int prefetchPages(PageId firstpage, int howmany) 
+		throws DiskMgrException {
+		if(firstpage.pid < 0)
+			return 0;
+		int count = Math.min(howmany, getNumUnpinned());
+		count = Math.min(count, Minibase.DiskManager.db_num_pages() - firstpage.pid);
+		if(count <= 0)
+			return 0;
 
-		/* Delete from free list only in special case where 
-		 * this frame was a replacement candidate but was
-		 * still in the hash table
-		 */
-		if(hashEntryFound && frame.isReplacementCandidate()) {
-			lirsPolicy.deleteFreeListEntry(mgmInfo); 
-		}
-			
-		/* Increment pinCount, this will also remove the 
-		 * replacement candidate flag if there was such.
-		 */
-		frame.incPinCount();
-		
-		// Update LIRS stats
-		lirsPolicy.updatePageAccessStats(mgmInfo);
-		
-		// Return page stored in this frame
-		page.setPage(frame.getPage());		
-    }
+		// Grab and map the frames first, then fill them all with a single read
+		int[] frameIndexes = new int[count];
+		Page[] pages = new Page[count];
+		int run = 0;
+		try {
+			while(run < count && !isResident(firstpage.pid + run)) {
+				int frameIndex = evictFrame();
+				if(!installPage(frameIndex, firstpage.pid + run)) {
+					synchronized(replacer) {
+						replacer.releaseFrame(frameIndex);
+					}
+					break;
+				}
+				frameIndexes[run] = frameIndex;
+				pages[run] = frames[frameIndex].getPage();
+				run++;
+			}
+		} catch (BufferPoolExceededException e) {
+			// Every frame left is pinned, read the part of the run we have
+		} catch (DiskMgrException e) {
+			// A dirty victim could not be written back, that is not a hint
+			for(int i = 0; i < run; i++)
+				failLoad(frameIndexes[i], firstpage.pid + i);
+			throw e;
+		}
+		if(run == 0)
+			return 0;
+		long start = System.nanoTime();
+		try {
+			Minibase.DiskManager.read_pages(firstpage, run, pages);
+			stats.diskReadLatency.record(System.nanoTime() - start);
+		} catch (Exception e) {
+			for(int i = 0; i < run; i++)
+				failLoad(frameIndexes[i], firstpage.pid + i);
+			return 0;
+		}
+		for(int i = 0; i < run; i++)
+			finishLoad(frameIndexes[i], firstpage.pid + i, true);
+		stats.prefetches.addAndGet(run);
+		return run;
+	}
+	/**
+	* Returns the number of pages read ahead on sequential access.
+	*/
+	public int getLookAheadSize() {
+		return lookAheadSize;
+	}
+	/*
+	* Takes a frame from the replacement policy, writes it out if it is
+	* dirty and removes its old page from the page table, then tells the
+	* policy the page is gone. The frame is pinned by nobody and not
+	* tracked by the policy until installPage or releaseFrame is called.
+	*/
+	private int evictFrame() 
+		throws BufferPoolExceededException, DiskMgrException {
+		while(true) {
+			int replacementIndex;
+			int pinEpoch;
+			synchronized(replacer) {
+				replacementIndex = replacer.pickVictim();
+				pinEpoch = frames[replacementIndex].getPinEpoch();
+			}
+			Frame victim = frames[replacementIndex];
+			/* Need to remove this entry from the page table.
+			 * Only skipped when this is the first time using this frame
+			 */
+			if(victim.isHashed() && !unhashVictim(replacementIndex, pinEpoch))
+				continue;
+			fitPageSize(victim);
+			return replacementIndex;
+		}
+	}
+	/*
+	* Takes the next frame of a scan ring, like evictFrame. The frame in
+	* the ring's next slot is reused if it is still the ring's and
+	* unpinned; otherwise it leaves the ring and a frame from the policy
+	* takes its slot.
+	*/
+	private int ringFrame(ScanRing ring) 
+		throws BufferPoolExceededException, DiskMgrException {
+		int slot = ring.advance();
+		int frameIndex = ring.frames[slot];
+		if(frameIndex >= 0) {
+			if(reclaimRingFrame(frameIndex, ring)) {
+				fitPageSize(frames[frameIndex]);
+				return frameIndex;
+			}
+			leaveRing(frameIndex, ring);
+			ring.frames[slot] = -1;
+		}
+		frameIndex = evictFrame();
+		frames[frameIndex].setRing(ring);
+		ring.frames[slot] = frameIndex;
+		return frameIndex;
+	}
+	/*
+	* Empties a frame of the ring for its next page: writes the old page
+	* out if it is dirty and unmaps it. Returns false if the frame left
+	* the ring or is pinned.
+	*/
+	private boolean reclaimRingFrame(int frameIndex, ScanRing ring) 
+		throws DiskMgrException {
+		Frame frame = frames[frameIndex];
+		if(frame.getRing() != ring)
+			return false;
+		if(!frame.isHashed())
+			return frame.getPinCount() == 0;
+		int pid = frame.getPageId().pid;
+		int stripe = stripeOf(pid);
+		stripeLocks[stripe].lock();
+		try {
+			if(frame.getRing() != ring || frame.getPinCount() != 0)
+				return false;
+			if(frame.isFrameDirty()) {
+				try {
+					writeVictim(frame);
+				} catch (Exception e) {
+					throw new DiskMgrException(e, "DiskManager failed to flush page " + pid);
+				}
+			}
+			unmap(frame, stripe, pid);
+			return true;
+		} finally {
+			stripeLocks[stripe].unlock();
+		}
+	}
+	/*
+	* Hands a frame of the ring over to the replacement policy, if it
+	* still belongs to the ring.
+	*/
+	private void leaveRing(int frameIndex, ScanRing ring) {
+		Frame frame = frames[frameIndex];
+		if(frame.getRing() != ring)
+			return;
+		if(!frame.isHashed()) {
+			// Empty, only the ring's client touches it
+			leaveRingLocked(frameIndex);
+			return;
+		}
+		int stripe = stripeOf(frame.getPageId().pid);
+		stripeLocks[stripe].lock();
+		try {
+			if(frame.getRing() == ring)
+				leaveRingLocked(frameIndex);
+		} finally {
+			stripeLocks[stripe].unlock();
+		}
+	}
+	/*
+	* The policy starts tracking a loaded or empty ring frame, under the
+	* stripe lock of its page: unpinned pages come in as read once,
+	* pinned ones as freshly loaded.
+	*/
+	private void leaveRingLocked(int frameIndex) {
+		Frame frame = frames[frameIndex];
+		frame.setRing(null);
+		synchronized(replacer) {
+			if(!frame.isHashed())
+				replacer.releaseFrame(frameIndex);
+			else if(frame.getPinCount() == 0)
+				replacer.framePrefetched(frameIndex, frame.getPageId().pid);
+			else
+				replacer.frameLoaded(frameIndex, frame.getPageId().pid);
+		}
+	}
+	/*
+	* The page size belongs to the database, frames follow it.
+	*/
+	private static void fitPageSize(Frame frame) {
+		int pageSize = Minibase.DiskManager.db_page_size();
+		if(frame.getPage().getData().length != pageSize)
+			frame.setPage(new Page(new byte[pageSize]));
+	}
+	/*
+	* Writes a dirty page out before its frame is reused, the caller
+	* holds the stripe lock of the page.
+	*/
+	private void writeVictim(Frame victim) throws Exception {
+		synchronized(ioLock) {
+			long start = System.nanoTime();
+			try {
+				Minibase.DiskManager.write_page(victim.getPageId(), victim.getPage());
+			} catch (Exception e) {
+				stats.failedWrites.incrementAndGet();
+				throw e;
+			}
+			stats.diskWriteLatency.record(System.nanoTime() - start);
+		}
+		stats.dirtyWrites.incrementAndGet();
+		victim.setIsFrameDirty(false);
+	}
+	/*
+	* Removes a page from the page table, under its stripe lock.
+	*/
+	private void unmap(Frame victim, int stripe, int pid) {
+		pageTables[stripe].remove(pid);
+		victim.setIsHashed(false);
+		victim.setPageId(INVALID_PAGEID);
+		stats.evictions.incrementAndGet();
+	}
+	/*
+	* Empties the unpinned frame of a freed page without writing it,
+	* under the stripe lock of the page. The policy lets go of the frame
+	* as it does of a victim, then takes it back as a free frame; a ring
+	* frame stays in its ring, empty.
+	*/
+	private void dropFrame(int frameIndex, int stripe, int pid) {
+		Frame frame = frames[frameIndex];
+		pageTables[stripe].remove(pid);
+		frame.setIsHashed(false);
+		frame.setPageId(INVALID_PAGEID);
+		frame.setIsFrameDirty(false);
+		if(frame.getRing() != null)
+			return;
+		synchronized(replacer) {
+			replacer.framePinned(frameIndex);
+			replacer.frameEvicted(frameIndex);
+			replacer.releaseFrame(frameIndex);
+		}
+	}
+	/*
+	* Flushes the victim's page if it is dirty and unmaps it. Returns
+	* false, leaving the frame to its new user, if the page was pinned
+	* after the policy picked it. The policy only forgets the page once
+	* it is out of the page table, before the stripe lock lets anybody
+	* read it in again.
+	*/
+	private boolean unhashVictim(int frameIndex, int pinEpoch) 
+		throws DiskMgrException {
+		Frame victim = frames[frameIndex];
+		int pid = victim.getPageId().pid;
+		int stripe = stripeOf(pid);
+		stripeLocks[stripe].lock();
+		try {
+			if(victim.getPinCount() != 0 || victim.getPinEpoch() != pinEpoch)
+				return false;
+			// Flush replacement page before reusing
+			if(victim.isFrameDirty()) {
+				try {
+					writeVictim(victim);
+				} catch (Exception e) {
+					/* The old page stays in the frame, so the frame goes
+					 * back to the policy as an unpinned candidate
+					 */
+					synchronized(replacer) {
+						replacer.frameUnpinned(frameIndex);
+					}
+					throw new DiskMgrException(e, "DiskManager failed to flush page " + pid);
+				}
+			}
+			unmap(victim, stripe, pid);
+			synchronized(replacer) {
+				replacer.frameEvicted(frameIndex);
+			}
+			return true;
+		} finally {
+			stripeLocks[stripe].unlock();
+		}
+	}
+	/*
+	* Maps the page to a frame returned by evictFrame and pins it for the
+	* reader, other clients wait until finishLoad or failLoad. Returns
+	* false if the page is already mapped.
+	*/
+	private boolean installPage(int frameIndex, int pid) {
+		Frame frame = frames[frameIndex];
+		int stripe = stripeOf(pid);
+		stripeLocks[stripe].lock();
+		try {
+			if(pageTables[stripe].get(pid) != PageTable.NOT_FOUND)
+				return false;
+			pageTables[stripe].put(pid, frameIndex);
+			// Lower initial condition flag for this frame (always true after first time)
+			frame.setIsHashed(true);
+			frame.setPageId(pid);
+			frame.setState(Frame.LOADING);
+			frame.incPinCount();
+			return true;
+		} finally {
+			stripeLocks[stripe].unlock();
+		}
+	}
+	/*
+	* The page is in its frame: tell the policy, then let the waiting
+	* clients in. A prefetched page drops the reader's pin and becomes a
+	* replacement candidate unless somebody pinned it meanwhile.
+	*/
+	private void finishLoad(int frameIndex, int pid, boolean prefetched) {
+		Frame frame = frames[frameIndex];
+		int stripe = stripeOf(pid);
+		stripeLocks[stripe].lock();
+		try {
+			int pins = prefetched ? frame.decrPinCount() : frame.getPinCount();
+			// Tell the policy which page now lives in this frame, ring
+			// frames stay with their ring
+			if(frame.getRing() == null) {
+				synchronized(replacer) {
+					if(pins == 0)
+						replacer.framePrefetched(frameIndex, pid);
+					else
+						replacer.frameLoaded(frameIndex, pid);
+				}
+			}
+			frame.setState(Frame.LOADED);
+		} finally {
+			stripeLocks[stripe].unlock();
+		}
+	}
+	/*
+	* The page could not be read: unmap it, wake up the waiting clients
+	* and drop the reader's pin.
+	*/
+	private void failLoad(int frameIndex, int pid) {
+		Frame frame = frames[frameIndex];
+		int stripe = stripeOf(pid);
+		stripeLocks[stripe].lock();
+		try {
+			pageTables[stripe].remove(pid);
+			frame.setIsHashed(false);
+			frame.setPageId(INVALID_PAGEID);
+			frame.setState(Frame.FAILED);
+		} finally {
+			stripeLocks[stripe].unlock();
+		}
+		dropPin(frameIndex);
+	}
+	/*
+	* Drops a pin on a frame whose load failed, the last one out hands
+	* the frame back to the policy.
+	*/
+	private void dropPin(int frameIndex) {
+		if(frames[frameIndex].decrPinCount() == 0 && frames[frameIndex].getRing() == null) {
+			synchronized(replacer) {
+				replacer.releaseFrame(frameIndex);
+			}
+		}
+	}
+	private boolean isResident(int pid) {
+		int stripe = stripeOf(pid);
+		stripeLocks[stripe].lock();
+		try {
+			return pageTables[stripe].get(pid) != PageTable.NOT_FOUND;
+		} finally {
+			stripeLocks[stripe].unlock();
+		}
+	}
+	private static int stripeOf(int pid) {
+		// High bits of the hash, the page tables use the low ones
+		return PageTable.mix(pid) >>> (32 - STRIPE_BITS);
+	}
 	/**
 	* Unpin a page specified by a pageId.
 	* This method should be called with dirty==true if the client has
@@ -169,32 +770,38 @@ public class BufMgr {
 	*/
 	public void unpinPage(PageId pageno, boolean dirty) 
 	throws HashEntryNotFoundException, LIRSFailureException {
-		Pair mgmInfo = null;
+		int stripe = stripeOf(pageno.pid);
+		stripeLocks[stripe].lock();
 		try {
-			mgmInfo = hashTable.hashKey(pageno);
-		} catch (HashEntryNotFoundException e) {
-			throw new HashEntryNotFoundException(e,
-    				"Trying to unpin a page not found in the buffer pool"); 
+			int frameIndex = pageTables[stripe].get(pageno.pid);
+			if(frameIndex == PageTable.NOT_FOUND)
+				throw new HashEntryNotFoundException(null,
+	    				"Trying to unpin a page not found in the buffer pool"); 
+			Frame frame = frames[frameIndex];
+			// If pin_count was zero 
+	        if(frame.isReplacementCandidate())
+	        	throw new HashEntryNotFoundException(null,
+	    				"Trying to unpin a page not found in the buffer pool");
+	        releasePin(frameIndex, dirty);
+		} finally {
+			stripeLocks[stripe].unlock();
 		}
-		Integer frameIndex = mgmInfo.getFrameNumber(); 
-		Frame frame = frames[frameIndex];
-		// If pin_count was zero 
-        if(frame.isReplacementCandidate())
-        	throw new HashEntryNotFoundException(null,
-    				"Trying to unpin a page not found in the buffer pool");
-        else {
-        	if(dirty)
-        	   frame.setIsFrameDirty(true);
-        	// Flushes the frame's page and raises flag for frame reuse 
-        	// when pinCount = 0
-        	frame.decrPinCount();
-    		// Finally, communicate to LIRS to add this page to
-    		// list of empty pages if appropriate
-        	if(frame.isReplacementCandidate())
-    		   lirsPolicy.insertFreeListEntry(new Pair(frame.getPageId().pid,
-    				                                   frameIndex));
-        }
     }
+	/*
+	* Drops a client's pin on a frame, under the stripe lock of its page.
+	*/
+	private void releasePin(int frameIndex, boolean dirty) {
+		Frame frame = frames[frameIndex];
+		if(dirty)
+			frame.setIsFrameDirty(true);
+		// Finally, tell the replacement policy to add this page to
+		// list of empty pages if appropriate
+		if(frame.decrPinCount() == 0 && frame.getRing() == null) {
+			synchronized(replacer) {
+				replacer.frameUnpinned(frameIndex);
+			}
+		}
+	}
 	/**
 	* Allocate new pages.* Call DB object to allocate a run of new pages and
 	* find a frame in the buffer pool for the first page
@@ -231,6 +838,9 @@ public class BufMgr {
 	* This method should be called to delete a page that is on disk.
 	* This routine must call the method in diskmgr package to
 	* deallocate the page.
+	* A resident copy of the page is dropped first, dirty or not, so the
+	* next owner of the page id never gets the old contents from the
+	* buffer pool and no write-back lands on the page later.
 	*
 	* @param globalPageId the page number in the data base.
 	 * @throws DiskMgrException 
@@ -239,18 +849,22 @@ public class BufMgr {
 	public void freePage(PageId globalPageId) 
 			throws DiskMgrException, PagePinnedException
 	{
-		Pair mgmInfo = null;
-		Boolean hashEntryFound = true;
-		try {
-			mgmInfo = hashTable.hashKey(globalPageId);
-		} catch (HashEntryNotFoundException e) {
-			hashEntryFound = false;
-        }
-		if(hashEntryFound) {
-			Integer frameIndex = mgmInfo.getFrameNumber(); 
-			Frame frame = frames[frameIndex];
-            if(!frame.isReplacementCandidate())
-            	throw new PagePinnedException(null, "Attempt to free a page that is still pinned");
+		int pid = globalPageId.pid;
+		int stripe = stripeOf(pid);
+		// Holding the copies, no write-behind has a copy of the page in flight
+		synchronized(copies) {
+			stripeLocks[stripe].lock();
+			try {
+				int frameIndex = pageTables[stripe].get(pid);
+				if(frameIndex != PageTable.NOT_FOUND) {
+					Frame frame = frames[frameIndex];
+		            if(!frame.isReplacementCandidate())
+		            	throw new PagePinnedException(null, "Attempt to free a page that is still pinned");
+		            dropFrame(frameIndex, stripe, pid);
+				}
+			} finally {
+				stripeLocks[stripe].unlock();
+			}
 		}
 		try {
 			Minibase.DiskManager.deallocate_page(globalPageId);
@@ -269,38 +883,249 @@ public class BufMgr {
 	*/
 	public void flushPage(PageId pageid) 
 			throws DiskMgrException, HashEntryNotFoundException {
-		Pair bufferPageInfo = null;
+		int stripe = stripeOf(pageid.pid);
+		stripeLocks[stripe].lock();
 		try {
-		   bufferPageInfo = hashTable.hashKey(pageid);
-		   Integer frameIndex = bufferPageInfo.getFrameNumber(); 
-		   Frame frame = frames[frameIndex];
-		   Minibase.DiskManager.write_page(frame.getPageId(), frame.getPage());
-           frame.setIsFrameDirty(false);
-		} catch (HashEntryNotFoundException e) {
-			throw new HashEntryNotFoundException(e, "Page to flush not found in buffer pool");
-		} catch (Exception e) {
-			// Per the specs, throw exception caused by lower layer
-			throw new DiskMgrException(e, "DiskManager failed to write to page");
+			int frameIndex = pageTables[stripe].get(pageid.pid);
+			if(frameIndex == PageTable.NOT_FOUND)
+				throw new HashEntryNotFoundException(null, "Page to flush not found in buffer pool");
+			try {
+			   Frame frame = frames[frameIndex];
+			   synchronized(ioLock) {
+				   long start = System.nanoTime();
+				   Minibase.DiskManager.write_page(frame.getPageId(), frame.getPage());
+				   stats.diskWriteLatency.record(System.nanoTime() - start);
+			   }
+			   if(frame.isFrameDirty())
+				   stats.dirtyWrites.incrementAndGet();
+	           frame.setIsFrameDirty(false);
+			} catch (Exception e) {
+				// Per the specs, throw exception caused by lower layer
+				throw new DiskMgrException(e, "DiskManager failed to write to page");
+			}
+		} finally {
+			stripeLocks[stripe].unlock();
 		}
 	}
 	/**
-	* Used to flush all dirty pages in the buffer pool to disk
+	* Used to flush all dirty pages in the buffer pool to disk.
+	* Dirty pages are written in page order, and pages that follow each
+	* other on disk go out together in one gathering write.
 	 * @throws DiskMgrException 
 	*
 	*/
 	public void flushAllPages() 
 			throws DiskMgrException { 
-		Frame frame;
+		// Hold every stripe so no page changes hands while we write
+		for(int s = 0; s < NUM_STRIPES; s++)
+			stripeLocks[s].lock();
+		try {
+			// Sort the dirty frames by page id, frame index in the low bits
+			long[] dirty = new long[numbufs];
+			Page[] pages = new Page[numbufs];
+			int numDirty = 0;
+			for(int i = 0; i < numbufs; i++) {
+				Frame frame = frames[i];
+				pages[i] = frame.getPage();
+				if(frame.isFrameDirty() && frame.isHashed())
+					dirty[numDirty++] = ((long)frame.getPageId().pid << 32) | i;
+			}
+			Arrays.sort(dirty, 0, numDirty);
+			synchronized(ioLock) {
+				writeRuns(dirty, numDirty, pages);
+			}
+			for(int i = 0; i < numDirty; i++)
+				frames[(int)dirty[i]].setIsFrameDirty(false);
+		} finally {
+			for(int s = NUM_STRIPES - 1; s >= 0; s--)
+				stripeLocks[s].unlock();
+		}
+	}
+	/**
+	* Writes dirty pages to disk in page order without holding up the
+	* clients of the buffer manager: the pages are copied, written with
+	* the buffer pool unlocked and only marked clean if nobody dirtied
+	* them in the meantime. Called periodically by the background
+	* writer; a checkpoint bounds the amount of work lost in a crash to
+	* what was dirtied since it started.
+	*
+	* @throws DiskMgrException 
+	*/
+	public void checkpoint() 
+			throws DiskMgrException {
+		int[] chosen = new int[numbufs];
+		int count = 0;
 		for(int i = 0; i < numbufs; i++) {
-			frame = frames[i];
-			if(frame.isFrameDirty() && !frame.isReplacementCandidate()) {
-				try {
-					Minibase.DiskManager.write_page(frame.getPageId(), frame.getPage());
-				} catch (Exception e) {
-					// Per the specs, throw exception caused by lower layer
-					throw new DiskMgrException(e, "DiskManager failed to write to page");
-				}					
+			if(frames[i].isFrameDirty() && frames[i].isHashed())
+				chosen[count++] = i;
+		}
+		writeBehind(chosen, count);
+	}
+	/**
+	* Starts a background thread that keeps at least cleanFraction of
+	* the unpinned frames clean, so replacement rarely has to write a
+	* victim back before reusing it, and runs a checkpoint every
+	* checkpointMillis. Does nothing if the writer is already running.
+	*
+	* @param cleanFraction fraction of the unpinned frames to keep clean
+	* @param delayMillis pause between two rounds of the writer
+	* @param checkpointMillis time between checkpoints, 0 for none
+	*/
+	public synchronized void startPageWriter(double cleanFraction, long delayMillis, 
+			long checkpointMillis) {
+		if(pageWriter != null)
+			return;
+		pageWriter = new PageWriter(this, cleanFraction, delayMillis, checkpointMillis);
+		pageWriter.start();
+	}
+	/**
+	* Stops the background writer and waits for its last round to end.
+	*/
+	public void stopPageWriter() {
+		PageWriter writer;
+		synchronized(this) {
+			writer = pageWriter;
+			pageWriter = null;
+		}
+		if(writer != null)
+			writer.shutdown();
+	}
+	/*
+	* One round of the background writer: cleans dirty unpinned frames
+	* until cleanFraction of the unpinned frames are clean. The scan
+	* resumes where the previous round stopped. Frames are only looked
+	* at here, writeBehind checks them again under their stripe lock.
+	*/
+	void cleanAhead(double cleanFraction) 
+			throws DiskMgrException {
+		int unpinned = 0;
+		int clean = 0;
+		for(int i = 0; i < numbufs; i++) {
+			if(frames[i].isReplacementCandidate()) {
+				unpinned++;
+				if(!frames[i].isFrameDirty() || !frames[i].isHashed())
+					clean++;
+			}
+		}
+		int wanted = (int)Math.ceil(cleanFraction * unpinned) - clean;
+		if(wanted <= 0)
+			return;
+		int[] chosen = new int[wanted];
+		int count = 0;
+		for(int n = 0; n < numbufs && count < wanted; n++) {
+			int i = cleanCursor;
+			cleanCursor = (cleanCursor + 1) % numbufs;
+			Frame frame = frames[i];
+			if(frame.isReplacementCandidate() && frame.isFrameDirty() && frame.isHashed())
+				chosen[count++] = i;
+		}
+		writeBehind(chosen, count);
+	}
+	/*
+	* Copies the chosen frames that are still dirty, writes the copies in
+	* page order with the buffer pool unlocked and marks each frame clean
+	* if it still holds the same, unchanged page. Holding ioLock across
+	* the write keeps a newer write of the same page (by eviction or
+	* flushPage) from being overtaken by this one. The frames go in
+	* batches of PageCopies.BATCH through the same reused copies, taken
+	* in page order so each batch still makes long runs.
+	*/
+	private void writeBehind(int[] chosen, int count) 
+			throws DiskMgrException {
+		// Order by the pages the frames hold now, rechecked when copied
+		long[] byPage = new long[count];
+		for(int i = 0; i < count; i++)
+			byPage[i] = ((long)frames[chosen[i]].getPageId().pid << 32) | chosen[i];
+		Arrays.sort(byPage);
+		int[] batch = new int[PageCopies.BATCH];
+		synchronized(copies) {
+			for(int first = 0; first < count; first += PageCopies.BATCH) {
+				int size = Math.min(PageCopies.BATCH, count - first);
+				for(int i = 0; i < size; i++)
+					batch[i] = (int)byPage[first + i];
+				writeBatch(batch, size);
+			}
+		}
+	}
+	/*
+	* One batch of writeBehind, the caller holds the copies.
+	*/
+	private void writeBatch(int[] chosen, int count) 
+			throws DiskMgrException {
+		long[] order = new long[count];
+		Page[] pages = new Page[count];
+		int[] versions = new int[count];
+		int[] copied = new int[count];
+		int numCopies = 0;
+		for(int i = 0; i < count; i++) {
+			Frame frame = frames[chosen[i]];
+			int pid = frame.getPageId().pid;
+			if(pid < 0)
+				continue;
+			int stripe = stripeOf(pid);
+			stripeLocks[stripe].lock();
+			try {
+				if(pageTables[stripe].get(pid) != chosen[i] || !frame.isFrameDirty()
+						|| frame.getState() != Frame.LOADED)
+					continue;
+				byte[] data = frame.getPage().getData();
+				pages[numCopies] = copies.get(numCopies, data.length);
+				System.arraycopy(data, 0, pages[numCopies].getData(), 0, data.length);
+				versions[numCopies] = frame.getVersion();
+				copied[numCopies] = chosen[i];
+				order[numCopies] = ((long)pid << 32) | numCopies;
+				numCopies++;
+			} finally {
+				stripeLocks[stripe].unlock();
+			}
+		}
+		if(numCopies == 0)
+			return;
+		Arrays.sort(order, 0, numCopies);
+		synchronized(ioLock) {
+			writeRuns(order, numCopies, pages);
+		}
+		for(int i = 0; i < numCopies; i++) {
+			int c = (int)order[i];
+			int pid = (int)(order[i] >> 32);
+			Frame frame = frames[copied[c]];
+			int stripe = stripeOf(pid);
+			stripeLocks[stripe].lock();
+			try {
+				if(pageTables[stripe].get(pid) == copied[c] 
+						&& frame.getVersion() == versions[c])
+					frame.setIsFrameDirty(false);
+			} finally {
+				stripeLocks[stripe].unlock();
+			}
+		}
+	}
+	/*
+	* Writes pages[i] for every key (pid << 32 | i) of the sorted keys,
+	* one write_pages call per run of adjacent page ids.
+	*/
+	private void writeRuns(long[] keys, int count, Page[] pages) 
+			throws DiskMgrException {
+		Page[] run = new Page[count];
+		int first = 0;
+		while(first < count) {
+			int firstPid = (int)(keys[first] >> 32);
+			int length = 0;
+			while(first + length < count 
+					&& (int)(keys[first + length] >> 32) == firstPid + length) {
+				run[length] = pages[(int)keys[first + length]];
+				length++;
+			}
+			long start = System.nanoTime();
+			try {
+				Minibase.DiskManager.write_pages(new PageId(firstPid), length, run);
+				stats.diskWriteLatency.record(System.nanoTime() - start);
+				stats.dirtyWrites.addAndGet(length);
+			} catch (Exception e) {
+				// Per the specs, throw exception caused by lower layer
+				throw new DiskMgrException(e, "DiskManager failed to write to page");
 			}
+			first += length;
 		}
 	}
 	/**
@@ -310,9 +1135,17 @@ public class BufMgr {
 		return numbufs;
 	}
 	/**
+	* Returns the metrics of this buffer pool.
+	*/
+	public BufMgrStats getStats() {
+		return stats;
+	}
+	/**
 	* Returns the total number of unpinned buffer frames.
 	*/
 	public int getNumUnpinned() {
-		return lirsPolicy.getFreeListSize();
+		synchronized(replacer) {
+			return replacer.getNumUnpinned();
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package bufmgr;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a buffer manager: hits, misses, evictions, write-backs and
+ * read-ahead, plus latency histograms for page misses and for the disk
+ * reads and writes issued by the buffer manager. Counters are updated
+ * without locks, so a snapshot taken while the pool is busy may be
+ * slightly inconsistent. Can be registered as a JMX MBean.
+ */
+public class BufMgrStats implements BufMgrStatsMBean {
+
+	/* Domain of the MBeans registered by registerMBean */
+	public static final String JMX_DOMAIN = "minibase";
+
+	private final BufMgr bufmgr;
+
+	final AtomicLong hits = new AtomicLong();
+	final AtomicLong misses = new AtomicLong();
+	final AtomicLong evictions = new AtomicLong();
+	final AtomicLong dirtyWrites = new AtomicLong();
+	final AtomicLong prefetches = new AtomicLong();
+	final AtomicLong failedWrites = new AtomicLong();
+
+	final LatencyHistogram pinMissLatency = new LatencyHistogram();
+	final LatencyHistogram diskReadLatency = new LatencyHistogram();
+	final LatencyHistogram diskWriteLatency = new LatencyHistogram();
+
+	BufMgrStats(BufMgr bufmgr) {
+		this.bufmgr = bufmgr;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public double getHitRatio() {
+		long hit = hits.get();
+		long total = hit + misses.get();
+		return (total == 0) ? 0.0 : (double)hit / total;
+	}
+
+	/* Pages that had to leave the buffer pool to make room for another one */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/* Dirty pages written to disk, whether on eviction, flush or by the
+	 * background writer
+	 */
+	public long getDirtyWrites() {
+		return dirtyWrites.get();
+	}
+
+	/* Pages brought in by read-ahead */
+	public long getPrefetches() {
+		return prefetches.get();
+	}
+
+	/* Dirty pages that could not be written back to free their frame */
+	public long getFailedWrites() {
+		return failedWrites.get();
+	}
+
+	public int getPinnedCount() {
+		return bufmgr.getNumBuffers() - bufmgr.getNumUnpinned();
+	}
+
+	public int getNumBuffers() {
+		return bufmgr.getNumBuffers();
+	}
+
+	/* Time to pin a page that was not in the buffer pool */
+	public LatencyHistogram getPinMissLatency() {
+		return pinMissLatency;
+	}
+
+	/* Time of every read_page / read_pages call */
+	public LatencyHistogram getDiskReadLatency() {
+		return diskReadLatency;
+	}
+
+	/* Time of every write_page / write_pages call */
+	public LatencyHistogram getDiskWriteLatency() {
+		return diskWriteLatency;
+	}
+
+	public long getPinMissMeanMicros() {
+		return pinMissLatency.getMean() / 1000;
+	}
+
+	public long getPinMissP99Micros() {
+		return pinMissLatency.getValueAtPercentile(99) / 1000;
+	}
+
+	public long getDiskReadMeanMicros() {
+		return diskReadLatency.getMean() / 1000;
+	}
+
+	public long getDiskReadP99Micros() {
+		return diskReadLatency.getValueAtPercentile(99) / 1000;
+	}
+
+	public long getDiskWriteMeanMicros() {
+		return diskWriteLatency.getMean() / 1000;
+	}
+
+	public long getDiskWriteP99Micros() {
+		return diskWriteLatency.getValueAtPercentile(99) / 1000;
+	}
+
+	public void reset() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		dirtyWrites.set(0);
+		prefetches.set(0);
+		failedWrites.set(0);
+		pinMissLatency.reset();
+		diskReadLatency.reset();
+		diskWriteLatency.reset();
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server as
+	 * minibase:type=BufMgr,name=<name>, replacing the MBean that was
+	 * registered under that name before (from an older buffer manager).
+	 *
+	 * @param name name of the buffer pool
+	 * @return the name the MBean was registered under
+	 * @throws JMException if the MBean server refuses the MBean
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=BufMgr,name=" + ObjectName.quote(name));
+		synchronized(BufMgrStats.class) {
+			if(server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+		}
+		return objectName;
+	}
+
+	/**
+	 * Formats the metrics as a short report, one figure per line.
+	 */
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("Buffer pool: %d frames, %d pinned%n", 
+				getNumBuffers(), getPinnedCount()));
+		report.append(String.format("Hits: %d  Misses: %d  Hit ratio: %.2f%%%n", 
+				getHits(), getMisses(), 100.0 * getHitRatio()));
+		report.append(String.format("Evictions: %d  Dirty writes: %d  Prefetches: %d%n", 
+				getEvictions(), getDirtyWrites(), getPrefetches()));
+		appendLatency(report, "Pin miss", pinMissLatency);
+		appendLatency(report, "Disk read", diskReadLatency);
+		appendLatency(report, "Disk write", diskWriteLatency);
+		return report.toString();
+	}
+
+	private static void appendLatency(StringBuilder report, String what, 
+			LatencyHistogram histogram) {
+		report.append(String.format("%-10s (us): count %d  mean %d  p50 %d  p99 %d  max %d%n",
+				what, histogram.getCount(), histogram.getMean() / 1000,
+				histogram.getValueAtPercentile(50) / 1000,
+				histogram.getValueAtPercentile(99) / 1000,
+				histogram.getMax() / 1000));
+	}
+}
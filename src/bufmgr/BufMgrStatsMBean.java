@@ -0,0 +1,47 @@
+package bufmgr;
+
+/**
+ * Management interface of the buffer pool metrics, see BufMgrStats.
+ * Latencies are in microseconds.
+ */
+public interface BufMgrStatsMBean {
+
+  public long getHits();
+
+  public long getMisses();
+
+  /**
+   * Fraction of the pins that found their page in the buffer pool.
+   */
+  public double getHitRatio();
+
+  public long getEvictions();
+
+  public long getDirtyWrites();
+
+  public long getPrefetches();
+
+  public long getFailedWrites();
+
+  public int getPinnedCount();
+
+  public int getNumBuffers();
+
+  public long getPinMissMeanMicros();
+
+  public long getPinMissP99Micros();
+
+  public long getDiskReadMeanMicros();
+
+  public long getDiskReadP99Micros();
+
+  public long getDiskWriteMeanMicros();
+
+  public long getDiskWriteP99Micros();
+
+  /**
+   * Clears every counter and histogram.
+   */
+  public void reset();
+
+} // public interface BufMgrStatsMBean
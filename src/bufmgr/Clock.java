@@ -0,0 +1,77 @@
+package bufmgr;
+
+/* Clock (second chance) replacement.
+ *
+ * Unpinned frames sit in a ring swept by the clock hand. A frame that
+ * was referenced since the hand last passed gets its bit cleared and
+ * is skipped once. Pinned frames are not in the ring at all, so the
+ * hand only ever visits candidates; every bit cleared was set by one
+ * reference, which keeps the sweep O(1) amortized.
+ */
+public class Clock extends Replacer {
+
+	private static final int RING = 1;
+
+	private final boolean[] referenced;
+	private int hand;
+
+	public Clock(int numbufs) {
+		super(numbufs, 2);
+		referenced = new boolean[numbufs];
+		hand = NONE;
+	}
+
+	protected int chooseVictim() {
+		if(candidates.isEmpty(RING))
+			return NONE;
+		int frameNo = (hand == NONE) ? candidates.first(RING) : hand;
+		while(referenced[frameNo]) {
+			referenced[frameNo] = false;
+			frameNo = advance(frameNo);
+		}
+		// The victim is unlinked by the caller, leave the hand after it
+		hand = advance(frameNo);
+		if(hand == frameNo)
+			hand = NONE;
+		return frameNo;
+	}
+
+	public void frameEvicted(int frameNo) {
+	}
+
+	/* Newly unpinned frames go right behind the hand */
+	protected void addCandidate(int frameNo) {
+		if(hand == NONE)
+			linkCandidate(RING, frameNo, false);
+		else
+			linkCandidateBefore(hand, frameNo);
+	}
+
+	public void frameLoaded(int frameNo, int pid) {
+		referenced[frameNo] = true;
+	}
+
+	/* Not referenced yet, the first sweep may take it */
+	public void framePrefetched(int frameNo, int pid) {
+		referenced[frameNo] = false;
+		addCandidate(frameNo);
+	}
+
+	public void frameHit(int frameNo) {
+		referenced[frameNo] = true;
+	}
+
+	public void framePinned(int frameNo) {
+		if(frameNo == hand) {
+			hand = advance(frameNo);
+			if(hand == frameNo)
+				hand = NONE;
+		}
+		super.framePinned(frameNo);
+	}
+
+	private int advance(int frameNo) {
+		int after = candidates.next(frameNo);
+		return (after == NONE) ? candidates.first(RING) : after;
+	}
+}
@@ -3,23 +3,35 @@ package bufmgr;
 import global.Page;
 import global.PageId;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 class Frame 
 {
+   /* Load states, clients wait on the frame while it is LOADING */
+   public static final int LOADED = 0;
+   public static final int LOADING = 1;
+   public static final int FAILED = 2;
+
    private PageId pageId;
-   private Page pg;
-   private Integer pinCount;
-   private Boolean isDirty;
-   private Boolean isReplacementCandidate;
-   private Boolean isInHashTable; // Deals with init condition
+   private volatile Page pg;
+   private final AtomicInteger pinCount;
+   private volatile boolean isDirty;
+   private volatile boolean isInHashTable; // Deals with init condition
+   private volatile int state;
+   private int version; // Bumped whenever the contents change owner or get dirty
+   private int pinEpoch; // Bumped on every 0 -> 1 pin, under the policy's lock
+   private volatile ScanRing ring; // Owner while the policy does not track the frame
     
    public Frame() {
       pageId = new PageId();
       pg = new Page();
+      pinCount = new AtomicInteger();
       resetFrame();
    }
 
    public void setPageId(Integer pid) {
       this.pageId.pid = pid;
+      version++;
    }
    
    public Page getPage() {
@@ -27,55 +39,103 @@ class Frame
 	   return pg;
    }
    
-   public void incPinCount() { // TODO: Deal with variable wrapping around
-	 if(pinCount == 0)
-	   	 isReplacementCandidate = false;	   
-     pinCount++;
+   public void setPage(Page pg) {
+	   this.pg = pg;
    }
    
-   // TODO: Maybe throw an exception when pin_count is negative? 
-   public void decrPinCount() {
-     pinCount--;
-     if(pinCount == 0)
-    	 isReplacementCandidate = true;
+   /* Returns the new pin count */
+   public int incPinCount() {
+	   return pinCount.incrementAndGet();
    }
    
-   public void setReplacementCandidate(Boolean value) {
-	   isReplacementCandidate = value;
+   /* Returns the new pin count */
+   public int decrPinCount() {
+	   return pinCount.decrementAndGet();
    }
    
-   public Boolean isFrameDirty() {
+   public boolean isFrameDirty() {
 	   return isDirty;
    }
    
-   public void setIsFrameDirty(Boolean isDirty) {
+   public void setIsFrameDirty(boolean isDirty) {
 	   this.isDirty = isDirty;
+	   if(isDirty)
+		   version++;
+   }
+   
+   /* Lets a background write tell if the page it copied is still current */
+   public int getVersion() {
+	   return version;
+   }
+   
+   /* Lets an eviction tell if the frame was pinned since it was picked */
+   public int getPinEpoch() {
+	   return pinEpoch;
+   }
+   
+   public void notePinned() {
+	   pinEpoch++;
+   }
+   
+   /* The scan ring that owns the frame, null for frames of the pool */
+   public ScanRing getRing() {
+	   return ring;
+   }
+   
+   public void setRing(ScanRing ring) {
+	   this.ring = ring;
    }
    
-   public Boolean isReplacementCandidate() {
-	   return isReplacementCandidate;
+   /* Unpinned frames are the replacement candidates */
+   public boolean isReplacementCandidate() {
+	   return pinCount.get() == 0;
    }
    
-   public Boolean isHashed() {
+   public boolean isHashed() {
 	   return isInHashTable;
    }
    
-   public void setIsHashed(Boolean value) {
+   public void setIsHashed(boolean value) {
 	   isInHashTable = value;
    }
    
-   public Integer getPinCount() {
-	   return pinCount;
+   public int getPinCount() {
+	   return pinCount.get();
    }
    
    public PageId getPageId() {
 	   return pageId;
    }
    
+   public int getState() {
+	   return state;
+   }
+   
+   /* Publishes the outcome of a load to the clients waiting for it */
+   public synchronized void setState(int state) {
+	   this.state = state;
+	   notifyAll();
+   }
+   
+   /* Blocks until the page is no longer being read, returns the state */
+   public synchronized int awaitLoaded() {
+	   boolean interrupted = false;
+	   while(state == LOADING) {
+		   try {
+			   wait();
+		   } catch (InterruptedException e) {
+			   interrupted = true;
+		   }
+	   }
+	   if(interrupted)
+		   Thread.currentThread().interrupt();
+	   return state;
+   }
+   
    public void resetFrame() {
-	   pinCount = 0;
+	   pinCount.set(0);
 	   isDirty = false;
-	   isReplacementCandidate = true;
 	   isInHashTable = false;
+	   state = LOADED;
    }
 }
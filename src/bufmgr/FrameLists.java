@@ -0,0 +1,111 @@
+package bufmgr;
+
+/* A fixed set of intrusive doubly linked lists over node ids.
+ *
+ * Every node belongs to at most one list at a time. Links live in int
+ * arrays (one sentinel per list after the last node), so linking,
+ * unlinking and moving a node are O(1) and never allocate. The
+ * replacement policies use this for their queues, stacks and ghost
+ * lists, with frame numbers (and ghost ids) as node ids.
+ */
+class FrameLists {
+
+	/* Returned when a list is empty or a node is not linked */
+	public static final int NONE = -1;
+
+	private final int numNodes;
+	private final int[] prev;
+	private final int[] next;
+	private final int[] owner;
+	private final int[] sizes;
+
+	public FrameLists(int numNodes, int numLists) {
+		this.numNodes = numNodes;
+		prev = new int[numNodes + numLists];
+		next = new int[numNodes + numLists];
+		owner = new int[numNodes];
+		sizes = new int[numLists];
+		for(int i = 0; i < numNodes; i++)
+			owner[i] = NONE;
+		for(int l = 0; l < numLists; l++) {
+			prev[numNodes + l] = numNodes + l;
+			next[numNodes + l] = numNodes + l;
+		}
+	}
+
+	public void addLast(int list, int node) {
+		int head = numNodes + list;
+		link(node, prev[head], head, list);
+	}
+
+	public void addFirst(int list, int node) {
+		int head = numNodes + list;
+		link(node, head, next[head], list);
+	}
+
+	/* Links node right before at, in the list at belongs to */
+	public void addBefore(int at, int node) {
+		link(node, prev[at], at, owner[at]);
+	}
+
+	/* Puts newNode in the exact position of oldNode */
+	public void replace(int oldNode, int newNode) {
+		int list = owner[oldNode];
+		int before = prev[oldNode];
+		remove(oldNode);
+		link(newNode, before, next[before], list);
+	}
+
+	public void remove(int node) {
+		int list = owner[node];
+		if(list == NONE)
+			return;
+		next[prev[node]] = next[node];
+		prev[next[node]] = prev[node];
+		owner[node] = NONE;
+		sizes[list]--;
+	}
+
+	public void moveToLast(int list, int node) {
+		remove(node);
+		addLast(list, node);
+	}
+
+	public int first(int list) {
+		int node = next[numNodes + list];
+		return (node >= numNodes) ? NONE : node;
+	}
+
+	public int last(int list) {
+		int node = prev[numNodes + list];
+		return (node >= numNodes) ? NONE : node;
+	}
+
+	/* Node after this one in its list, NONE at the end */
+	public int next(int node) {
+		int after = next[node];
+		return (after >= numNodes) ? NONE : after;
+	}
+
+	/* List the node is linked in, NONE if it is not linked */
+	public int listOf(int node) {
+		return owner[node];
+	}
+
+	public int size(int list) {
+		return sizes[list];
+	}
+
+	public boolean isEmpty(int list) {
+		return sizes[list] == 0;
+	}
+
+	private void link(int node, int before, int after, int list) {
+		prev[node] = before;
+		next[node] = after;
+		next[before] = node;
+		prev[after] = node;
+		owner[node] = list;
+		sizes[list]++;
+	}
+}
@@ -0,0 +1,70 @@
+package bufmgr;
+
+/* Page ids of recently evicted pages (ghost entries), kept in FIFO lists.
+ *
+ * Used by the policies that adapt to what they evicted (2Q, ARC). The
+ * capacity is fixed; callers drop the oldest entry of a list to make
+ * room. Lookups by page id go through a PageTable, so every operation
+ * is O(1) and nothing is allocated once the object is built.
+ */
+class GhostLists implements global.GlobalConst {
+
+	public static final int NONE = FrameLists.NONE;
+
+	private final FrameLists lists;
+	private final int[] pageOf;
+	private final int[] free;
+	private int freeTop;
+	private final PageTable index;
+
+	public GhostLists(int capacity, int numLists) {
+		lists = new FrameLists(capacity, numLists);
+		pageOf = new int[capacity];
+		free = new int[capacity];
+		for(int g = capacity - 1; g >= 0; g--) {
+			pageOf[g] = INVALID_PAGEID;
+			free[freeTop++] = g;
+		}
+		index = new PageTable(capacity);
+	}
+
+	/* Ghost entry of this page, NONE if the page is not remembered */
+	public int find(int pid) {
+		int ghost = index.get(pid);
+		return (ghost == PageTable.NOT_FOUND) ? NONE : ghost;
+	}
+
+	public int listOf(int ghost) {
+		return lists.listOf(ghost);
+	}
+
+	/* Remembers the page at the end of the list. There must be room */
+	public void add(int list, int pid) {
+		int ghost = free[--freeTop];
+		pageOf[ghost] = pid;
+		index.put(pid, ghost);
+		lists.addLast(list, ghost);
+	}
+
+	public void remove(int ghost) {
+		index.remove(pageOf[ghost]);
+		lists.remove(ghost);
+		pageOf[ghost] = INVALID_PAGEID;
+		free[freeTop++] = ghost;
+	}
+
+	/* Forgets the oldest page of the list, if any */
+	public void dropOldest(int list) {
+		int ghost = lists.first(list);
+		if(ghost != NONE)
+			remove(ghost);
+	}
+
+	public int size(int list) {
+		return lists.size(list);
+	}
+
+	public boolean isFull() {
+		return freeTop == 0;
+	}
+}
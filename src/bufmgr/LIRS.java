@@ -1,217 +1,220 @@
 package bufmgr;
 
-import global.PageId;
-import java.util.LinkedList;
+/* Low Inter-reference Recency Set (LIRS) replacement policy.
+ *
+ * Pages are tracked with intrusive doubly linked lists (FrameLists) so
+ * every hook (load, hit, pin, unpin and victim selection) runs in O(1)
+ * amortized time and allocates nothing on the hot path:
+ *
+ *  - The LIRS stack S orders LIR pages, resident HIR pages and
+ *    non-resident HIR pages (ghosts) by recency. The bottom of S is
+ *    always a LIR page (stack pruning).
+ *  - The resident HIR queue Q holds the unpinned resident HIR frames
+ *    in the order they should be evicted.
+ *  - Unpinned LIR frames are kept in their own list so we still have
+ *    a victim when every resident HIR frame is pinned.
+ *
+ * Node ids [0, numbufs) are the frames themselves, node ids
+ * [numbufs, 2*numbufs) are ghost entries for non-resident HIR pages.
+ */
+public class LIRS extends Replacer {
 
-public class LIRS {
+	private static final int HIR_QUEUE = 1;
+	private static final int LIR_UNPINNED = 2;
+	private static final int STACK = 0;
+	private static final int GHOSTS = 0;
+
+	/* Stack S over frame and ghost nodes, top of the stack first */
+	private final FrameLists stack;
+
+	/* Status and page of every node */
+	private final boolean[] isLIR;
+	private final int[] pageOf;
+
+	/* Ghost entries in creation order, indexed by ghost id - numbufs */
+	private final FrameLists ghostOrder;
+	private final int[] ghostFree;
+	private int ghostFreeTop;
+	private final PageTable ghostIndex;
+
+	private final int lirLimit;
+	private int lirCount;
 
-	/* Linked List Declaration */
-    private LinkedList<LIRS_Stats> unpinnedList;
-    private LinkedList<LIRS_Stats> pinnedList;
-    private Integer globalCount; // Gets incremented every time a page gets accessed
-	
 	public LIRS(Integer numbufs) {
-		
-	   unpinnedList = new LinkedList<LIRS_Stats>();
-	   pinnedList = new LinkedList<LIRS_Stats>();
-	   globalCount = 0;
-       // Add all the pages initially to the free pages list
-       for(int i = 0; i < numbufs; i++) {
-    	   LIRS_Stats tmpEntry = new LIRS_Stats(new Pair(-1, i));
-    	   unpinnedList.add(tmpEntry);
-       }
+
+		super(numbufs, 3);
+
+		// Keep about 1% of the pool for resident HIR pages
+		int hirLimit = Math.max(1, numbufs / 100);
+		lirLimit = Math.max(1, numbufs - hirLimit);
+		lirCount = 0;
+
+		stack = new FrameLists(2 * numbufs, 1);
+		isLIR = new boolean[2 * numbufs];
+		pageOf = new int[2 * numbufs];
+		for (int i = 0; i < 2 * numbufs; i++)
+			pageOf[i] = INVALID_PAGEID;
+
+		ghostOrder = new FrameLists(numbufs, 1);
+		ghostFree = new int[numbufs];
+		ghostFreeTop = 0;
+		for (int g = 2 * numbufs - 1; g >= numbufs; g--)
+			ghostFree[ghostFreeTop++] = g;
+		ghostIndex = new PageTable(numbufs);
 	}
-	
-	/* Returns a Pair type so that it can be easily 
-	 * plugged into the hash table delete method 
+
+	/* Resident HIR queue first and, only when every resident HIR frame
+	 * is pinned, the coldest unpinned LIR frame.
+	 */
+	protected int chooseVictim() {
+		int victim = candidates.first(HIR_QUEUE);
+		if (victim == NONE)
+			victim = candidates.first(LIR_UNPINNED);
+		return victim;
+	}
+
+	/* The page is forgotten or kept as a ghost entry if it is still in
+	 * the LIRS stack.
 	 */
-	public Pair getReplacementCandidate(PageId targetPage)
-			throws LIRSFailureException {
-		LIRS_Stats victim = null;
-		Integer oldpid;
-		int candidateIndex;
-		// Look under unpinned list only
-		if(!unpinnedList.isEmpty()) {
-			
-		   candidateIndex = computeStats(); // Updates Stats for all candidates being tracked by LIRS
-		   victim = unpinnedList.remove(candidateIndex);
-		   oldpid = victim.getCandidateInfo().getPageId().pid;
-		   // Track this entry under the pinned list now using target pid
-		   victim.getCandidateInfo().setPageId(targetPage.pid);
-		   // Reset stats for this new target pid
-		   victim.reset(); // Could have relied on constructor but this way is more explicit
-		   LIRS_Stats tmpLIRSEntry = new LIRS_Stats(victim);
-		   pinnedList.add(tmpLIRSEntry);
-		   // Return the old pid so that the pair entry can be
-		   // removed from the hash table
-		   victim.getCandidateInfo().setPageId(oldpid);
-		   return new Pair(victim.getCandidateInfo());  
+	public void frameEvicted(int victim) {
+		if (pageOf[victim] == INVALID_PAGEID) {
+			// Released frame that was hit again, there is nothing to remember
+			stack.remove(victim);
+		} else if (isLIR[victim]) {
+			// Only happens when all resident HIR frames are pinned
+			isLIR[victim] = false;
+			lirCount--;
+			stack.remove(victim);
+			pruneStack();
+		} else if (stack.listOf(victim) != NONE) {
+			// Leave a non-resident HIR entry behind in the stack
+			int ghost = allocGhost(pageOf[victim]);
+			stack.replace(victim, ghost);
 		}
-		else { 
-			throw new LIRSFailureException(null, "LIRS Failed to pick a replacement candidate");
+		pageOf[victim] = INVALID_PAGEID;
+	}
+
+	protected void addCandidate(int frameNo) {
+		linkCandidate(isLIR[frameNo] ? LIR_UNPINNED : HIR_QUEUE, frameNo, false);
+	}
+
+	/* Called once a page has been read into a frame picked by
+	 * pickVictim. The frame is pinned, so it isn't a candidate.
+	 */
+	public void frameLoaded(int frameNo, int pid) {
+		pageOf[frameNo] = pid;
+		isLIR[frameNo] = false;
+
+		int ghost = ghostIndex.get(pid);
+		if (ghost != PageTable.NOT_FOUND) {
+			// Non-resident HIR page in the stack, it is hot again
+			stack.remove(ghost);
+			freeGhost(ghost);
+			promote(frameNo);
+		} else if (lirCount < lirLimit) {
+			// Warming up, everything is LIR until the LIR set is full
+			isLIR[frameNo] = true;
+			lirCount++;
+			stack.addFirst(STACK, frameNo);
+		} else {
+			stack.addFirst(STACK, frameNo);
 		}
 	}
-	
-	public void deleteFreeListEntry (Pair entry) 
-			throws LIRSFailureException {	
-		Boolean status = false;
-		LIRS_Stats tmpTransferEntry = new LIRS_Stats(entry);
-		int index = unpinnedList.indexOf(tmpTransferEntry);
-		if(index != -1) {
-			tmpTransferEntry = unpinnedList.remove(index);	
-			// Track this page under different list
-			status = pinnedList.add(tmpTransferEntry);
+
+	/* Called when a page has been read ahead into a frame picked by
+	 * pickVictim. Read-ahead is not a reference, so the page stays HIR
+	 * and goes straight to the end of queue Q, unpinned. If the page
+	 * still has a ghost in the stack the frame takes its place there.
+	 */
+	public void framePrefetched(int frameNo, int pid) {
+		pageOf[frameNo] = pid;
+		isLIR[frameNo] = false;
+
+		int ghost = ghostIndex.get(pid);
+		if (ghost != PageTable.NOT_FOUND) {
+			stack.replace(ghost, frameNo);
+			freeGhost(ghost);
 		}
-		if(!status)
-			throw new LIRSFailureException(null, "LIRS Failed to delete from free list");
+		linkCandidate(HIR_QUEUE, frameNo, false);
 	}
-	
-	public void insertFreeListEntry (Pair entry)
-			throws LIRSFailureException {
-		Boolean status = false;
-		LIRS_Stats tmpTransferEntry = new LIRS_Stats(entry);
-		int index = pinnedList.indexOf(tmpTransferEntry);
-		if(index != -1) {
-			tmpTransferEntry = pinnedList.remove(index);	
-			// Track this page under different list
-			status = unpinnedList.add(tmpTransferEntry);
+
+	/* Called on every access to a page that is already resident */
+	public void frameHit(int frameNo) {
+		if (isLIR[frameNo]) {
+			boolean wasBottom = (stack.last(STACK) == frameNo);
+			stack.remove(frameNo);
+			stack.addFirst(STACK, frameNo);
+			if (wasBottom)
+				pruneStack();
+		} else if (stack.listOf(frameNo) != NONE) {
+			stack.remove(frameNo);
+			promote(frameNo);
+		} else {
+			stack.addFirst(STACK, frameNo);
 		}
-		if(!status)
-			throw new LIRSFailureException(null, "LIRS Failed to delete from free list");
-		
 	}
-	
-	public void updatePageAccessStats(Pair entry) 
-			throws LIRSFailureException {
-    	LIRS_Stats lirsEntry = new LIRS_Stats(entry);
-    	// Look for the given page
-    	int i = pinnedList.indexOf(lirsEntry);
-    	if(i != -1) {
-    	   lirsEntry = pinnedList.get(i);
-    	   lirsEntry.updateRecency();
-    	   lirsEntry.updateLastAccessed(globalCount);
-           incGlobalCount();
-        }
-    	else 
-    		throw new LIRSFailureException(null, "LIR Policy failed to update stats");
+
+	public void releaseFrame(int frameNo) {
+		pageOf[frameNo] = INVALID_PAGEID;
+		super.releaseFrame(frameNo);
 	}
-	
-	public Integer getFreeListSize() {
-		//return freeList.size();
-		return unpinnedList.size();
+
+	/* Turns an HIR frame that was found in the stack into a LIR page
+	 * and pushes it on top of the stack. The bottom LIR page is demoted
+	 * if the LIR set overflows.
+	 */
+	private void promote(int frameNo) {
+		isLIR[frameNo] = true;
+		lirCount++;
+		stack.addFirst(STACK, frameNo);
+		if (lirCount > lirLimit) {
+			pruneStack();
+			int bottom = stack.last(STACK);
+			isLIR[bottom] = false;
+			lirCount--;
+			stack.remove(bottom);
+			// An unpinned demoted frame moves over to the end of queue Q
+			if (candidates.listOf(bottom) == LIR_UNPINNED)
+				candidates.moveToLast(HIR_QUEUE, bottom);
+		}
+		pruneStack();
 	}
-	
-	/* Compute LIRS statistics for all candidates currently
-	 * in the unpinned list and return the index for the resulting candidate
+
+	/* Removes HIR entries from the bottom of the stack until a LIR
+	 * page is found there
 	 */
-	private Integer computeStats() {
-    	LIRS_Stats entry = null;
-    	LIRS_Stats victim = null;
-    	Integer candidateIndex = -1;
-    	// Walk up the list
-    	for(int i = 0; i < unpinnedList.size(); i++) {
-    		entry = unpinnedList.get(i);
-    		entry.computeWeight(globalCount); 
-    		if(i == 0) {
-    			victim = entry;
-    			candidateIndex = 0;
-    		}
-    		else {
-    			if(entry.getWeight() > victim.getWeight()) {
-    				victim = entry;
-    				candidateIndex = i;
-    			}
-    		}
-    	}
-    	return candidateIndex;
+	private void pruneStack() {
+		int bottom = stack.last(STACK);
+		while (bottom != NONE && !isLIR[bottom]) {
+			stack.remove(bottom);
+			if (bottom >= numbufs)
+				freeGhost(bottom);
+			bottom = stack.last(STACK);
+		}
 	}
-	
-	private void incGlobalCount() {
-		if(globalCount == Integer.MAX_VALUE)
-			globalCount = 0;
-		globalCount++;	
+
+	private int allocGhost(int pid) {
+		int ghost;
+		if (ghostFreeTop > 0) {
+			ghost = ghostFree[--ghostFreeTop];
+		} else {
+			// Recycle the oldest ghost, it can never be the stack bottom
+			ghost = ghostOrder.first(GHOSTS) + numbufs;
+			stack.remove(ghost);
+			ghostIndex.remove(pageOf[ghost]);
+			ghostOrder.remove(ghost - numbufs);
+		}
+		pageOf[ghost] = pid;
+		isLIR[ghost] = false;
+		ghostIndex.put(pid, ghost);
+		ghostOrder.addLast(GHOSTS, ghost - numbufs);
+		return ghost;
 	}
-	
-	private class LIRS_Stats {
-		
-	    Pair candidateInfo; // Stores page number and buffer's pool frame index
-	    Integer reuseDistance;
-	    Integer recency;
-	    Integer weight;
-	    Integer lastAccessed; // Value of globalCount last time 
-	                            // this page was accessed.
-	    
-	    public LIRS_Stats(Pair candidateInfo) {
-	    	reset();
-	    	this.candidateInfo = new Pair(candidateInfo);
-	    }
-	    
-	    // Copy constructor
-	    public LIRS_Stats(LIRS_Stats other) {
-	    	this.candidateInfo = new Pair(other.getCandidateInfo());
-	    	this.reuseDistance = other.reuseDistance;
-	    	this.recency = other.recency;
-	    	this.weight = other.weight;
-	    	this.lastAccessed = other.lastAccessed;
-	    }
-	    
-	    public void reset() {
-	    	reuseDistance = Integer.MAX_VALUE;
-	    	recency = Integer.MAX_VALUE;
-	    	weight = 0;
-	    	lastAccessed = 0;    	
-	    }
-	    
-	    public Pair getCandidateInfo() {
-	    	return candidateInfo;
-	    }
-	    
-	    public Integer getWeight() {
-	    	return weight;
-	    }
-	    
-	    public void updateRecency() {
-	    	recency = 0;
-	    }
-	    
-	    public void updateLastAccessed(Integer value) {
-	    	lastAccessed = value;
-	    }
-	    
-	    public void computeWeight(Integer globalCount) {
-	    	
-	    	recency += computeDeltaCount(globalCount);
-	    	reuseDistance = computeDeltaCount(globalCount);
-	    	weight = Math.max(recency, reuseDistance);
-	    }
-	    
-	    public Integer computeDeltaCount(Integer globalCount) {
-	    	return (globalCount - lastAccessed);// TODO: Account for wrapping
-	    }
-	    
-	    // Overriding equals() to compare two LIRS_Pair objects
-	    public boolean equals(Object o) {
-	 
-	        // If the object is compared with itself then return true  
-	        if (o == this) {
-	            return true;
-	        }
-	 
-	        /* Check if o is an instance of LIRS_Pair or not
-	          "null instanceof [type]" also returns false */
-	        if (!(o instanceof LIRS_Stats)) {
-	               return false;
-	        }
-	         
-	        // typecast o to LIRS_Pair so that we can compare data members 
-	        LIRS_Stats c = (LIRS_Stats) o;
-	         
-	        if(c.candidateInfo != null)
-	           // Compare the relevant data members and return accordingly 
-	           return c.candidateInfo.equals(this.candidateInfo); 
-	        else
-	        	return false;
-	    }
+
+	private void freeGhost(int ghost) {
+		ghostIndex.remove(pageOf[ghost]);
+		ghostOrder.remove(ghost - numbufs);
+		pageOf[ghost] = INVALID_PAGEID;
+		ghostFree[ghostFreeTop++] = ghost;
 	}
 }
-
@@ -0,0 +1,36 @@
+package bufmgr;
+
+/* Least Recently Used replacement.
+ *
+ * Frames are queued when their pin count drops to 0, so the head of
+ * the queue is the frame that has been unpinned the longest.
+ */
+public class LRU extends Replacer {
+
+	private static final int QUEUE = 1;
+
+	public LRU(int numbufs) {
+		super(numbufs, 2);
+	}
+
+	protected int chooseVictim() {
+		return candidates.first(QUEUE);
+	}
+
+	public void frameEvicted(int frameNo) {
+	}
+
+	protected void addCandidate(int frameNo) {
+		linkCandidate(QUEUE, frameNo, false);
+	}
+
+	public void frameLoaded(int frameNo, int pid) {
+	}
+
+	public void framePrefetched(int frameNo, int pid) {
+		linkCandidate(QUEUE, frameNo, false);
+	}
+
+	public void frameHit(int frameNo) {
+	}
+}
@@ -0,0 +1,116 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of
+ * HdrHistogram: every power of two is split in SUB_BUCKETS equal
+ * buckets, so any recorded value is reported within 1/SUB_BUCKETS
+ * (12.5%) of its true value while the whole range of a long fits in a
+ * few hundred counters. Values are in nanoseconds.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// Values below SUB_BUCKETS get one bucket each
+	private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos the latency in nanoseconds, negative values count as 0
+	 */
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long seen = max.get();
+		while(nanos > seen && !max.compareAndSet(seen, nanos))
+			seen = max.get();
+	}
+
+	/**
+	 * Returns the number of recorded latencies.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean latency in nanoseconds, 0 if nothing was recorded.
+	 */
+	public long getMean() {
+		long n = count.get();
+		return (n == 0) ? 0 : total.get() / n;
+	}
+
+	/**
+	 * Returns the largest latency recorded, in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the latency at or below which the given percentage of the
+	 * recorded latencies fall, rounded up to the end of its bucket.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the latency in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.get();
+		if(n == 0)
+			return 0;
+		long wanted = Math.max(1, (long)Math.ceil(percentile / 100.0 * n));
+		long seen = 0;
+		for(int b = 0; b < NUM_BUCKETS; b++) {
+			seen += counts.get(b);
+			if(seen >= wanted)
+				return Math.min(highestOf(b), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every recorded latency.
+	 */
+	public void reset() {
+		for(int b = 0; b < NUM_BUCKETS; b++)
+			counts.set(b, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/* Bucket of a value: its power of two, then the SUB_BITS bits that
+	 * follow the leading one
+	 */
+	private static int bucketOf(long value) {
+		if(value < SUB_BUCKETS)
+			return (int)value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		int sub = (int)(value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	/* Largest value that falls in a bucket */
+	private static long highestOf(int bucket) {
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + sub) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
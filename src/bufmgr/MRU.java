@@ -0,0 +1,37 @@
+package bufmgr;
+
+/* Most Recently Used replacement.
+ *
+ * The victim is the frame that was unpinned last, which suits loops
+ * over a file larger than the buffer pool. Read-ahead pages have not
+ * been used yet, so they go to the cold end and are replaced last.
+ */
+public class MRU extends Replacer {
+
+	private static final int STACK = 1;
+
+	public MRU(int numbufs) {
+		super(numbufs, 2);
+	}
+
+	protected int chooseVictim() {
+		return candidates.last(STACK);
+	}
+
+	public void frameEvicted(int frameNo) {
+	}
+
+	protected void addCandidate(int frameNo) {
+		linkCandidate(STACK, frameNo, false);
+	}
+
+	public void frameLoaded(int frameNo, int pid) {
+	}
+
+	public void framePrefetched(int frameNo, int pid) {
+		linkCandidate(STACK, frameNo, true);
+	}
+
+	public void frameHit(int frameNo) {
+	}
+}
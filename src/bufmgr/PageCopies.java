@@ -0,0 +1,33 @@
+package bufmgr;
+
+import global.Page;
+
+/* Reusable pages the background writer copies dirty frames into.
+ *
+ * Write-behind copies a dirty frame before it writes it, so clients can
+ * keep changing the frame during the write. The copies are these BATCH
+ * pages, used over and over, rather than a clone per page written: a
+ * checkpoint of a large pool would otherwise make as much garbage as
+ * the pool holds. Callers hold the monitor of this object while they
+ * use the pages.
+ *
+ * Frames are not slices of an off-heap arena. bufmgr and diskmgr are
+ * built against the global.Page of lib/bufmgrAssign.jar, which holds a
+ * byte[] and hands it out through getpage/setpage, not the Page in
+ * src/global. A Page cannot be a view onto a direct buffer without
+ * replacing the jar's class, so frames stay on the heap.
+ */
+class PageCopies {
+
+	/* Pages copied and written per round of write-behind */
+	public static final int BATCH = 64;
+
+	private final Page[] pages = new Page[BATCH];
+
+	/* Returns copy i of the batch, sized for pageSize byte pages */
+	public Page get(int i, int pageSize) {
+		if(pages[i] == null || pages[i].getpage().length != pageSize)
+			pages[i] = new Page(new byte[pageSize]);
+		return pages[i];
+	}
+}
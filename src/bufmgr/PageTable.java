@@ -0,0 +1,143 @@
+package bufmgr;
+
+import global.GlobalConst;
+
+import java.util.Arrays;
+
+/* Page table mapping page ids to frame numbers.
+ *
+ * Open addressing with linear probing over two primitive arrays, so a
+ * lookup is a handful of array reads and never allocates. Misses are
+ * reported with the NOT_FOUND sentinel instead of an exception, and
+ * removals use backward shift deletion so there are no tombstones.
+ */
+class PageTable implements GlobalConst {
+
+	/* Returned by get and remove when the page id is not in the table */
+	public static final int NOT_FOUND = -1;
+
+	/* Marks an empty slot, page ids are never negative */
+	private static final int EMPTY = INVALID_PAGEID;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	public PageTable(int capacity) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Table size must be positive.");
+		}
+		allocate(tableSizeFor(capacity));
+	}
+
+	/* Returns the frame holding pid or NOT_FOUND */
+	public int get(int pid) {
+		int slot = mix(pid) & mask;
+		int key;
+		while((key = keys[slot]) != EMPTY) {
+			if(key == pid)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	/* Maps pid to frameNo, replacing any previous mapping */
+	public void put(int pid, int frameNo) {
+		if(pid < 0)
+			throw new IllegalArgumentException("Invalid page id " + pid);
+		int slot = mix(pid) & mask;
+		int key;
+		while((key = keys[slot]) != EMPTY) {
+			if(key == pid) {
+				values[slot] = frameNo;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = pid;
+		values[slot] = frameNo;
+		// Keep the load factor at or below one half
+		if(++size > (mask + 1) / 2)
+			rehash((mask + 1) * 2);
+	}
+
+	/* Removes pid and returns the frame it was mapped to or NOT_FOUND */
+	public int remove(int pid) {
+		int slot = mix(pid) & mask;
+		int key;
+		while((key = keys[slot]) != EMPTY) {
+			if(key == pid) {
+				int frameNo = values[slot];
+				deleteSlot(slot);
+				size--;
+				return frameNo;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/* Shifts the following entries of the probe run back into the hole
+	 * so that lookups never stop early
+	 */
+	private void deleteSlot(int hole) {
+		int slot = hole;
+		while(true) {
+			slot = (slot + 1) & mask;
+			int key = keys[slot];
+			if(key == EMPTY)
+				break;
+			int home = mix(key) & mask;
+			// Move the entry if its home is not in (hole, slot]
+			if(((slot - home) & mask) >= ((slot - hole) & mask)) {
+				keys[hole] = key;
+				values[hole] = values[slot];
+				hole = slot;
+			}
+		}
+		keys[hole] = EMPTY;
+	}
+
+	private void rehash(int newSize) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(newSize);
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != EMPTY)
+				put(oldKeys[i], oldValues[i]);
+		}
+	}
+
+	private void allocate(int tableSize) {
+		keys = new int[tableSize];
+		values = new int[tableSize];
+		Arrays.fill(keys, EMPTY);
+		mask = tableSize - 1;
+		size = 0;
+	}
+
+	/* Smallest power of two holding capacity entries at half load */
+	private static int tableSizeFor(int capacity) {
+		int tableSize = 2;
+		while(tableSize < 2 * capacity)
+			tableSize <<= 1;
+		return tableSize;
+	}
+
+	/* MurmurHash3 finalizer, spreads sequential page ids over the table */
+	static int mix(int value) {
+		int h = value;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
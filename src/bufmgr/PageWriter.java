@@ -0,0 +1,77 @@
+package bufmgr;
+
+/* Background writer of the buffer manager.
+ *
+ * Every round it asks the buffer manager to clean dirty unpinned frames
+ * (BufMgr.cleanAhead), so the frames that replacement picks are almost
+ * always clean and a miss costs one read instead of a write and a read.
+ * Every checkpointMillis it also runs a checkpoint. Errors are reported
+ * and the writer keeps going: the foreground still writes dirty victims
+ * itself, so a failed round only costs latency.
+ */
+class PageWriter extends Thread {
+
+	private final BufMgr bufmgr;
+	private final double cleanFraction;
+	private final long delayMillis;
+	private final long checkpointMillis;
+	private boolean running;
+	// Not the Thread monitor itself, join() waits on that one
+	private final Object sleeper = new Object();
+
+	public PageWriter(BufMgr bufmgr, double cleanFraction, long delayMillis, 
+			long checkpointMillis) {
+		super("minibase-page-writer");
+		setDaemon(true);
+		this.bufmgr = bufmgr;
+		this.cleanFraction = Math.max(0.0, Math.min(1.0, cleanFraction));
+		this.delayMillis = Math.max(1, delayMillis);
+		this.checkpointMillis = checkpointMillis;
+		running = true;
+	}
+
+	public void run() {
+		long nextCheckpoint = System.currentTimeMillis() + checkpointMillis;
+		while(pause()) {
+			try {
+				bufmgr.cleanAhead(cleanFraction);
+				if(checkpointMillis > 0 && System.currentTimeMillis() >= nextCheckpoint) {
+					bufmgr.checkpoint();
+					nextCheckpoint = System.currentTimeMillis() + checkpointMillis;
+				}
+			} catch (Exception e) {
+				System.err.println("Page writer: " + e);
+			}
+		}
+	}
+
+	/* Stops the writer and waits for the round in progress to end.
+	 * The thread is woken up rather than interrupted: an interrupt in
+	 * the middle of a write would close the database file channel.
+	 */
+	public void shutdown() {
+		synchronized(sleeper) {
+			running = false;
+			sleeper.notifyAll();
+		}
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* Waits for the next round, returns false once shut down */
+	private boolean pause() {
+		synchronized(sleeper) {
+			if(running) {
+				try {
+					sleeper.wait(delayMillis);
+				} catch (InterruptedException e) {
+					running = false;
+				}
+			}
+			return running;
+		}
+	}
+}
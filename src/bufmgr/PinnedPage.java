@@ -0,0 +1,98 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.Page;
+
+/**
+ * Reusable handle on a pinned page, see BufMgr.pin and BufMgr.unpin.
+ * <br>
+ * A handle wraps one page object, its view, which is pointed at the
+ * bytes of the frame on every pin. A client keeps one handle for each
+ * page it holds at a time and pins through it over and over, so a pin
+ * allocates nothing. The view may be any Page subclass (a heap file
+ * page, for instance), which then reads and changes the frame in place.
+ * <br>
+ * Contract: a handle holds at most one pin. Between pin and unpin the
+ * view is the frame, and the page stays in the buffer pool. After
+ * unpin the view must not be used, its frame may hold another page
+ * already. A client that changed the page calls setDirty before unpin.
+ * Handles are not shared between threads.
+ */
+public class PinnedPage implements GlobalConst {
+
+	private final Page view;
+	private int pid = INVALID_PAGEID;
+	private int frameIndex = -1;
+	private boolean dirty;
+
+	/**
+	 * Creates a handle with a plain Page as its view.
+	 */
+	public PinnedPage() {
+		this(new Page());
+	}
+
+	/**
+	 * Creates a handle with the given view.
+	 *
+	 * @param view page object pointed at the frame on every pin
+	 */
+	public PinnedPage(Page view) {
+		this.view = view;
+	}
+
+	/**
+	 * Returns the view, valid until unpin.
+	 */
+	public Page getPage() {
+		return view;
+	}
+
+	/**
+	 * Returns the bytes of the pinned page, valid until unpin.
+	 */
+	public byte[] getData() {
+		return view.getpage();
+	}
+
+	/**
+	 * Returns the id of the pinned page, INVALID_PAGEID if there is none.
+	 */
+	public int getPid() {
+		return pid;
+	}
+
+	public boolean isPinned() {
+		return frameIndex >= 0;
+	}
+
+	/**
+	 * Marks the page changed, unpin will leave it dirty.
+	 */
+	public void setDirty() {
+		dirty = true;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/* Points the handle at the frame that now holds pid pinned */
+	void bind(int pid, int frameIndex, Page frame) {
+		this.pid = pid;
+		this.frameIndex = frameIndex;
+		dirty = false;
+		view.setpage(frame.getpage());
+	}
+
+	int getFrameIndex() {
+		return frameIndex;
+	}
+
+	/* Forgets the pin, the view keeps pointing at the old frame */
+	void clear() {
+		pid = INVALID_PAGEID;
+		frameIndex = -1;
+		dirty = false;
+	}
+}
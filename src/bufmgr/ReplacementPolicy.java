@@ -0,0 +1,68 @@
+package bufmgr;
+
+/**
+ * Buffer pool replacement policy.
+ * <br>
+ * The buffer manager owns the frames and the page table; a policy only
+ * decides which unpinned frame to reuse. Frames are identified by their
+ * index in the buffer pool. Every hook is expected to run in O(1)
+ * (amortized) time, since they are called on every pin and unpin.
+ */
+public interface ReplacementPolicy {
+
+  /**
+   * Picks an unpinned frame to be reused. The frame is not tracked by
+   * the policy until frameLoaded, framePrefetched or releaseFrame is
+   * called for it, or frameUnpinned if it keeps its page after all.
+   * The policy still remembers the page the frame holds until
+   * frameEvicted.
+   *
+   * @return the frame number of the victim
+   * @throws BufferPoolExceededException if every frame is pinned
+   */
+  public int pickVictim() throws BufferPoolExceededException;
+
+  /**
+   * The page held by a frame returned by pickVictim was removed from
+   * the buffer pool. Not called for frames that held no page, nor for
+   * a victim that was pinned again or could not be written back.
+   */
+  public void frameEvicted(int frameNo);
+
+  /**
+   * A page was read into a frame returned by pickVictim and pinned.
+   */
+  public void frameLoaded(int frameNo, int pid);
+
+  /**
+   * A page was read ahead into a frame returned by pickVictim. The frame
+   * is left unpinned and the read does not count as a reference.
+   */
+  public void framePrefetched(int frameNo, int pid);
+
+  /**
+   * A page that is already in the buffer pool was referenced.
+   */
+  public void frameHit(int frameNo);
+
+  /**
+   * The pin count of a resident page went from 0 to 1.
+   */
+  public void framePinned(int frameNo);
+
+  /**
+   * The pin count of a resident page went from 1 to 0.
+   */
+  public void frameUnpinned(int frameNo);
+
+  /**
+   * Gives back a frame returned by pickVictim that could not be loaded.
+   */
+  public void releaseFrame(int frameNo);
+
+  /**
+   * Returns the number of frames that can be picked as victims.
+   */
+  public int getNumUnpinned();
+
+} // public interface ReplacementPolicy
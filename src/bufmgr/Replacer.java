@@ -0,0 +1,84 @@
+package bufmgr;
+
+import global.GlobalConst;
+
+/* Common bookkeeping for the replacement policies.
+ *
+ * Only unpinned frames are ever linked in the candidate lists, so a
+ * victim never has to be searched for among pinned frames. List FREE
+ * holds the frames that never held a page (or were given back) and is
+ * always drained first; subclasses own the other lists and decide where
+ * an unpinned frame goes and which one is evicted.
+ */
+abstract class Replacer implements ReplacementPolicy, GlobalConst {
+
+	protected static final int NONE = FrameLists.NONE;
+	protected static final int FREE = 0;
+
+	protected final int numbufs;
+	protected final FrameLists candidates;
+	private int numUnpinned;
+
+	protected Replacer(int numbufs, int numLists) {
+		this.numbufs = numbufs;
+		candidates = new FrameLists(numbufs, numLists);
+		// Add all the frames initially to the free frames list
+		for(int i = 0; i < numbufs; i++)
+			candidates.addLast(FREE, i);
+		numUnpinned = numbufs;
+	}
+
+	public int pickVictim()
+			throws BufferPoolExceededException {
+		int victim = candidates.first(FREE);
+		if(victim == NONE)
+			victim = chooseVictim();
+		if(victim == NONE)
+			throw new BufferPoolExceededException(null, "No unpinned frame left to replace");
+		candidates.remove(victim);
+		numUnpinned--;
+		return victim;
+	}
+
+	public void framePinned(int frameNo) {
+		if(candidates.listOf(frameNo) != NONE) {
+			candidates.remove(frameNo);
+			numUnpinned--;
+		}
+	}
+
+	public void frameUnpinned(int frameNo) {
+		if(candidates.listOf(frameNo) == NONE)
+			addCandidate(frameNo);
+	}
+
+	public void releaseFrame(int frameNo) {
+		if(candidates.listOf(frameNo) == NONE)
+			linkCandidate(FREE, frameNo, false);
+	}
+
+	public int getNumUnpinned() {
+		return numUnpinned;
+	}
+
+	/* Links an unpinned frame in one of the candidate lists */
+	protected final void linkCandidate(int list, int frameNo, boolean atFront) {
+		if(atFront)
+			candidates.addFirst(list, frameNo);
+		else
+			candidates.addLast(list, frameNo);
+		numUnpinned++;
+	}
+
+	/* Links an unpinned frame right before a linked candidate */
+	protected final void linkCandidateBefore(int at, int frameNo) {
+		candidates.addBefore(at, frameNo);
+		numUnpinned++;
+	}
+
+	/* Returns the candidate to evict (still linked) or NONE */
+	protected abstract int chooseVictim();
+
+	/* Links a frame that just became unpinned, see linkCandidate */
+	protected abstract void addCandidate(int frameNo);
+}
@@ -0,0 +1,44 @@
+package bufmgr;
+
+/**
+ * A small private set of frames a sequential scan cycles through.
+ * <br>
+ * Pages a scan pins through its ring (BufMgr.pinPage and BufMgr.pin
+ * with a ring) are read into the ring's frames, reusing the oldest one
+ * on every miss, instead of evicting pages from the shared buffer pool.
+ * So a scan of a big table leaves the hot pages of other clients where
+ * they are. Ring frames are kept out of the replacement policy. A page
+ * that another client references while it is in the ring becomes an
+ * ordinary page of the pool, and its frame leaves the ring.
+ * <br>
+ * Rings are created by BufMgr.createScanRing and must be given back
+ * with BufMgr.releaseScanRing when the scan ends; their pages then stay
+ * in the pool as pages read once. A ring is used by one client at a
+ * time.
+ */
+public class ScanRing {
+
+	/* Frame of each slot, -1 before the slot is first used */
+	final int[] frames;
+	private int next;
+
+	ScanRing(int size) {
+		frames = new int[size];
+		for(int i = 0; i < size; i++)
+			frames[i] = -1;
+	}
+
+	/**
+	 * Returns the number of frames in the ring.
+	 */
+	public int size() {
+		return frames.length;
+	}
+
+	/* Returns the slot to reuse next and moves past it */
+	int advance() {
+		int slot = next;
+		next = (next + 1) % frames.length;
+		return slot;
+	}
+}
@@ -0,0 +1,97 @@
+package bufmgr;
+
+/* 2Q replacement (Johnson and Shasha).
+ *
+ * Pages seen once go through the FIFO A1in; pages referenced again
+ * after leaving A1in live in the LRU queue Am. A1out remembers the
+ * pages recently evicted from A1in, a miss on one of them goes
+ * straight to Am. Repeated hits while a page is in A1in are treated
+ * as correlated and do not promote it, so a scan only churns A1in.
+ */
+public class TwoQ extends Replacer {
+
+	private static final int A1IN = 1;
+	private static final int AM = 2;
+
+	private static final int OUT = 0;
+	private static final int IN_A1 = 1;
+	private static final int IN_AM = 2;
+
+	private final int[] state;
+	private final int[] pageOf;
+	private final int kin;
+	private int a1inCount;
+	private final GhostLists a1out;
+
+	public TwoQ(int numbufs) {
+		super(numbufs, 3);
+		state = new int[numbufs];
+		pageOf = new int[numbufs];
+		for(int i = 0; i < numbufs; i++)
+			pageOf[i] = INVALID_PAGEID;
+		// Sizes suggested in the paper: A1in 25%, A1out 50% of the pool
+		kin = Math.max(1, numbufs / 4);
+		a1out = new GhostLists(Math.max(1, numbufs / 2), 1);
+	}
+
+	/* A1in gives up a frame while it is over its share, Am otherwise */
+	protected int chooseVictim() {
+		int victim = NONE;
+		if(a1inCount > kin)
+			victim = candidates.first(A1IN);
+		if(victim == NONE)
+			victim = candidates.first(AM);
+		if(victim == NONE)
+			victim = candidates.first(A1IN);
+		return victim;
+	}
+
+	public void frameEvicted(int frameNo) {
+		if(state[frameNo] == IN_A1) {
+			a1inCount--;
+			if(pageOf[frameNo] != INVALID_PAGEID) {
+				if(a1out.isFull())
+					a1out.dropOldest(0);
+				a1out.add(0, pageOf[frameNo]);
+			}
+		}
+		state[frameNo] = OUT;
+		pageOf[frameNo] = INVALID_PAGEID;
+	}
+
+	protected void addCandidate(int frameNo) {
+		linkCandidate(state[frameNo] == IN_AM ? AM : A1IN, frameNo, false);
+	}
+
+	public void frameLoaded(int frameNo, int pid) {
+		pageOf[frameNo] = pid;
+		int ghost = a1out.find(pid);
+		if(ghost != GhostLists.NONE) {
+			a1out.remove(ghost);
+			state[frameNo] = IN_AM;
+		} else {
+			state[frameNo] = IN_A1;
+			a1inCount++;
+		}
+	}
+
+	public void framePrefetched(int frameNo, int pid) {
+		pageOf[frameNo] = pid;
+		state[frameNo] = IN_A1;
+		a1inCount++;
+		linkCandidate(A1IN, frameNo, false);
+	}
+
+	public void frameHit(int frameNo) {
+		if(state[frameNo] == OUT) {
+			// Frame given back while still holding its page
+			state[frameNo] = IN_A1;
+			a1inCount++;
+		}
+	}
+
+	public void releaseFrame(int frameNo) {
+		pageOf[frameNo] = INVALID_PAGEID;
+		super.releaseFrame(frameNo);
+	}
+}
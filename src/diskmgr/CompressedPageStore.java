@@ -0,0 +1,250 @@
+package diskmgr;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Backend that stores every page Deflate-compressed.
+ * <br>
+ * The data file is cut in sectors of SECTOR_SIZE bytes and a page
+ * takes the run of sectors its compressed image needs; pages that do
+ * not shrink are stored as they are. A page map, kept in memory and in
+ * a side file (the data file name followed by MAP_SUFFIX), gives the
+ * first sector and the stored length of every page. A page that was
+ * never written has length 0 and reads as zeroes, so growing the
+ * database costs nothing on disk. A page is rewritten in place when its
+ * new image fits in its sectors, otherwise it moves to a free run found
+ * in a FreeExtents index of the sectors, or to the end of the file.
+ * <br>
+ * The map file starts with MAP_HEADER bytes: the page size, then the
+ * number of pages. Page pid has the 8 bytes at MAP_HEADER + 8*pid.
+ */
+class CompressedPageStore implements PageStore {
+
+  /** Appended to the data file name to get the page map file. */
+  public static final String MAP_SUFFIX = ".cmap";
+
+  /** Unit of allocation in the data file, small enough to let a
+   * compressed 1 KB page take a fraction of a page. */
+  public static final int SECTOR_SIZE = 128;
+
+  private static final int MAP_HEADER = 8;
+
+  // Deflater and Inflater hold native state, so each thread keeps one
+  private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+    protected Deflater initialValue() { return new Deflater(Deflater.BEST_SPEED); }
+  };
+  private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+    protected Inflater initialValue() { return new Inflater(); }
+  };
+
+  private final int page_size;
+  private final RandomAccessFile fp;
+  private final FileChannel channel;
+  private final RandomAccessFile map_fp;
+  private final FileChannel map_channel;
+  // Guarded by this: first sector and stored length of each page
+  private int[] sectors;
+  private int[] lengths;
+  private FreeExtents free_sectors = new FreeExtents();
+  private int end_sector;
+
+  public CompressedPageStore(String fname, int page_size) throws IOException {
+    this.page_size = page_size;
+    fp = new RandomAccessFile(fname, "rw");
+    channel = fp.getChannel();
+    map_fp = new RandomAccessFile(fname + MAP_SUFFIX, "rw");
+    map_channel = map_fp.getChannel();
+    if(map_fp.length() < MAP_HEADER) {
+      map_fp.setLength(0);
+      map_fp.writeInt(page_size);
+      map_fp.writeInt(0);
+    }
+    load_map();
+  }
+
+  /** True if fname is the data file of a compressed store. */
+  public static boolean exist(String fname) {
+    return new File(fname + MAP_SUFFIX).exists();
+  }
+
+  /** Removes the page map of the compressed store fname. */
+  public static void delete(String fname) {
+    new File(fname + MAP_SUFFIX).delete();
+  }
+
+  /** Page size of the compressed store fname, from its page map. */
+  public static int readPageSize(String fname) throws IOException {
+    RandomAccessFile f = new RandomAccessFile(fname + MAP_SUFFIX, "r");
+    try {
+      return f.readInt();
+    }
+    finally {
+      f.close();
+    }
+  }
+
+  public void read(int pid, byte[] dst) throws IOException {
+    int sector, length;
+    synchronized(this) {
+      if(pid >= lengths.length)
+        throw new EOFException("Page past the end of the file");
+      sector = sectors[pid];
+      length = lengths[pid];
+    }
+    if(length == 0) {
+      Arrays.fill(dst, 0, page_size, (byte)0);
+      return;
+    }
+    if(length == page_size) {
+      read_fully(ByteBuffer.wrap(dst, 0, page_size), sector);
+      return;
+    }
+    byte[] image = new byte[length];
+    read_fully(ByteBuffer.wrap(image), sector);
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(image);
+    try {
+      if(inflater.inflate(dst, 0, page_size) != page_size)
+        throw new IOException("Compressed page " + pid + " is truncated");
+    }
+    catch(DataFormatException e) {
+      throw new IOException("Compressed page " + pid + " is corrupted", e);
+    }
+  }
+
+  public void read(int pid, int count, byte[][] dst) throws IOException {
+    for(int i = 0; i < count; i++)
+      read(pid + i, dst[i]);
+  }
+
+  public void write(int pid, byte[] src) throws IOException {
+    // Compress into a buffer one byte short of a page, so a page that
+    // does not shrink is noticed and kept as it is
+    byte[] image = new byte[page_size - 1];
+    Deflater deflater = deflaters.get();
+    deflater.reset();
+    deflater.setInput(src, 0, page_size);
+    deflater.finish();
+    int length = deflater.deflate(image);
+    if(!deflater.finished()) {
+      image = src;
+      length = page_size;
+    }
+
+    int sector = place(pid, length);
+    ByteBuffer buffer = ByteBuffer.wrap(image, 0, length);
+    long position = (long)sector * SECTOR_SIZE;
+    while(buffer.hasRemaining())
+      channel.write(buffer, position + buffer.position());
+    write_map_entry(pid, sector, length);
+  }
+
+  public void write(int pid, int count, byte[][] src) throws IOException {
+    for(int i = 0; i < count; i++)
+      write(pid + i, src[i]);
+  }
+
+  /** Grows the page map to num_pages pages, the new pages read as
+   * zeroes and take no room in the data file until they are written.
+   */
+  public synchronized void setNumPages(int num_pages) throws IOException {
+    if(num_pages <= lengths.length)
+      return;
+    sectors = Arrays.copyOf(sectors, num_pages);
+    lengths = Arrays.copyOf(lengths, num_pages);
+    map_fp.setLength(MAP_HEADER + (long)num_pages * 8);
+    ByteBuffer count = ByteBuffer.allocate(4);
+    count.putInt(0, num_pages);
+    map_channel.write(count, 4);
+  }
+
+  public void close() throws IOException {
+    fp.close();
+    map_fp.close();
+  }
+
+  /** Picks the sectors of the new image of page pid and gives back
+   * those the page no longer needs.
+   */
+  private synchronized int place(int pid, int length) {
+    int needed = sectors_for(length);
+    int held = sectors_for(lengths[pid]);
+    int sector = sectors[pid];
+    if(needed <= held) {
+      free_sectors.free(sector + needed, held - needed);
+    }
+    else {
+      free_sectors.free(sector, held);
+      sector = free_sectors.allocate(needed);
+      if(sector < 0) {
+        sector = end_sector;
+        end_sector += needed;
+      }
+    }
+    sectors[pid] = sector;
+    lengths[pid] = length;
+    return sector;
+  }
+
+  private void write_map_entry(int pid, int sector, int length) throws IOException {
+    ByteBuffer entry = ByteBuffer.allocate(8);
+    entry.putInt(0, sector).putInt(4, length);
+    long position = MAP_HEADER + (long)pid * 8;
+    while(entry.hasRemaining())
+      map_channel.write(entry, position + entry.position());
+  }
+
+  /** Reads the page map and rebuilds the free sector index from the
+   * gaps between the pages' sectors.
+   */
+  private void load_map() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(MAP_HEADER);
+    read_fully(map_channel, header, 0);
+    int num_pages = header.getInt(4);
+    sectors = new int[num_pages];
+    lengths = new int[num_pages];
+    ByteBuffer entries = ByteBuffer.allocate(num_pages * 8);
+    read_fully(map_channel, entries, MAP_HEADER);
+
+    boolean[] used = new boolean[0];
+    for(int pid = 0; pid < num_pages; pid++) {
+      sectors[pid] = entries.getInt(pid * 8);
+      lengths[pid] = entries.getInt(pid * 8 + 4);
+      int end = sectors[pid] + sectors_for(lengths[pid]);
+      if(end > used.length)
+        used = Arrays.copyOf(used, Math.max(end, used.length * 2));
+      Arrays.fill(used, sectors[pid], end, true);
+      end_sector = Math.max(end_sector, end);
+    }
+    for(int s = 0; s < end_sector; s++)
+      if(!used[s])
+        free_sectors.free(s, 1);
+  }
+
+  private int sectors_for(int length) {
+    return (length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+  }
+
+  private void read_fully(ByteBuffer buffer, int sector) throws IOException {
+    read_fully(channel, buffer, (long)sector * SECTOR_SIZE);
+  }
+
+  private static void read_fully(FileChannel from, ByteBuffer buffer, long position)
+    throws IOException {
+    while(buffer.hasRemaining()) {
+      if(from.read(buffer, position + buffer.position()) < 0)
+        throw new EOFException("Read past the end of the file");
+    }
+  }
+
+} // class CompressedPageStore
@@ -0,0 +1,139 @@
+package diskmgr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+/**
+ * Backend that opens the database file for direct I/O (O_DIRECT), so
+ * pages go between the disk and the buffer pool without a second copy
+ * in the OS page cache.
+ * <br>
+ * Direct I/O needs file offsets, lengths and memory addresses aligned
+ * on the block size of the file system, so pages are moved through a
+ * per-thread direct buffer aligned on it and copied to or from the
+ * frame. It only works when the page size is a multiple of the block
+ * size and the file system supports it; open falls back to a
+ * FilePageStore otherwise.
+ */
+class DirectPageStore implements PageStore {
+
+  // Aligned transfer buffer of each thread, grown for runs of pages
+  private static final ThreadLocal<ByteBuffer[]> buffers = new ThreadLocal<ByteBuffer[]>() {
+    protected ByteBuffer[] initialValue() { return new ByteBuffer[1]; }
+  };
+
+  private final String fname;
+  private final FileChannel channel;
+  private final int page_size;
+  private final int block_size;
+
+  private DirectPageStore(String fname, int page_size, int block_size) throws IOException {
+    this.fname = fname;
+    this.page_size = page_size;
+    this.block_size = block_size;
+    channel = FileChannel.open(Paths.get(fname), StandardOpenOption.CREATE,
+                               StandardOpenOption.READ, StandardOpenOption.WRITE,
+                               ExtendedOpenOption.DIRECT);
+  }
+
+  /** Opens fname for direct I/O, or through a FilePageStore when the
+   * file system or the page size does not allow it.
+   */
+  public static PageStore open(String fname, int page_size) throws IOException {
+    PageStore store = new FilePageStore(fname, page_size);
+    try {
+      Path dir = Paths.get(fname).toAbsolutePath().getParent();
+      long block_size = Files.getFileStore(dir).getBlockSize();
+      if(block_size <= 0 || block_size > page_size || page_size % block_size != 0)
+        return store;
+      PageStore direct = new DirectPageStore(fname, page_size, (int)block_size);
+      store.close();
+      return direct;
+    }
+    catch(UnsupportedOperationException e) {
+      return store;
+    }
+    catch(IOException e) {
+      // EINVAL from file systems without O_DIRECT, such as tmpfs
+      return store;
+    }
+  }
+
+  public void read(int pid, byte[] dst) throws IOException {
+    ByteBuffer buffer = buffer(1);
+    read_fully(buffer, (long)pid * page_size);
+    buffer.flip();
+    buffer.get(dst, 0, page_size);
+  }
+
+  public void read(int pid, int count, byte[][] dst) throws IOException {
+    ByteBuffer buffer = buffer(count);
+    read_fully(buffer, (long)pid * page_size);
+    buffer.flip();
+    for(int i = 0; i < count; i++)
+      buffer.get(dst[i], 0, page_size);
+  }
+
+  public void write(int pid, byte[] src) throws IOException {
+    ByteBuffer buffer = buffer(1);
+    buffer.put(src, 0, page_size).flip();
+    write_fully(buffer, (long)pid * page_size);
+  }
+
+  public void write(int pid, int count, byte[][] src) throws IOException {
+    ByteBuffer buffer = buffer(count);
+    for(int i = 0; i < count; i++)
+      buffer.put(src[i], 0, page_size);
+    buffer.flip();
+    write_fully(buffer, (long)pid * page_size);
+  }
+
+  /** Sizes the file through a plain descriptor, setting the length is
+   * not a transfer and needs no alignment. */
+  public void setNumPages(int num_pages) throws IOException {
+    RandomAccessFile fp = new RandomAccessFile(fname, "rw");
+    try {
+      fp.setLength((long)num_pages * page_size);
+    }
+    finally {
+      fp.close();
+    }
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /** The thread's aligned buffer, cleared and limited to count pages. */
+  private ByteBuffer buffer(int count) {
+    ByteBuffer[] holder = buffers.get();
+    int length = count * page_size;
+    if(holder[0] == null || holder[0].capacity() < length)
+      holder[0] = ByteBuffer.allocateDirect(length + block_size).alignedSlice(block_size);
+    ByteBuffer buffer = holder[0];
+    buffer.clear().limit(length);
+    return buffer;
+  }
+
+  private void read_fully(ByteBuffer buffer, long position) throws IOException {
+    while(buffer.hasRemaining()) {
+      if(channel.read(buffer, position + buffer.position()) < 0)
+        throw new EOFException("Page past the end of the file");
+    }
+  }
+
+  private void write_fully(ByteBuffer buffer, long position) throws IOException {
+    while(buffer.hasRemaining())
+      channel.write(buffer, position + buffer.position());
+  }
+
+} // class DirectPageStore
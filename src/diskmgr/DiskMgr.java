@@ -11,13 +11,31 @@ import global.PageId;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
 
 import chainexception.ChainException;
 
 public class DiskMgr implements GlobalConst {
 
   
-  private static final int bits_per_page = PAGE_SIZE * 8;
+  /** Largest page size a database can be created with.
+   * Page sizes are powers of two from PAGE_SIZE up to this. */
+  public static final int MAX_PAGE_SIZE = 64 * 1024;
+  
+  /** Storage backend doing a seek and a read or write per page. */
+  public static final String FILE_STORAGE = "file";
+  
+  /** Storage backend serving pages from a memory mapping of the file. */
+  public static final String MAPPED_STORAGE = "mmap";
+  
+  /** Storage backend keeping every page Deflate-compressed, see
+   * CompressedPageStore. */
+  public static final String COMPRESSED_STORAGE = "deflate";
+  
+  /** Storage backend doing direct I/O that bypasses the OS page cache,
+   * see DirectPageStore. Databases whose page size is not a multiple of
+   * the file system block size use the file backend instead. */
+  public static final String DIRECT_STORAGE = "direct";
   
   
   /** Open the database with the given name.
@@ -37,8 +55,16 @@ public class DiskMgr implements GlobalConst {
     
     name = fname;
     
-    // Creaat a random access file
-    fp = new RandomAccessFile(fname, "rw");
+    // The page size has to be known before page 0 can go through the
+    // buffer pool, so look for it in the file itself
+    set_page_size(read_page_size(fname));
+    
+    // Open the file with the selected backend
+    store = openStore(fname);
+    
+    // Checksums are on if the database was created with them
+    checksums = PageChecksums.exist(fname) 
+      ? new PageChecksums(fname, page_size) : null;
     
     PageId pageId = new PageId();
     Page apage = new Page();
@@ -51,14 +77,39 @@ public class DiskMgr implements GlobalConst {
     
     DBFirstPage firstpg = new DBFirstPage();
     firstpg.openPage(apage);
-    num_pages = firstpg.getNumDBPages();
+    int num_pgs = firstpg.getNumDBPages();
+    // Databases of a single file made before segments have no size
+    int seg_pgs = firstpg.getSegmentPages();
     
     unpinPage(pageId, false /* undirty*/);
+    
+    segment_pages = (seg_pgs > 0) ? seg_pgs : num_pgs;
+    store.open(segment_pages, num_pgs);
+    num_pages = num_pgs;
+    
+    load_free_extents();
+    load_file_directory();
   }
   
-  /** default constructor.
+  /** default constructor, uses the file backend.
+   */
+  public DiskMgr() { this(FILE_STORAGE); }
+  
+  /** Constructor selecting the storage backend.
+   *
+   * @param storage FILE_STORAGE, MAPPED_STORAGE, COMPRESSED_STORAGE or
+   * DIRECT_STORAGE
+   *
+   * @exception IllegalArgumentException unknown backend
    */
-  public DiskMgr() { }
+  public DiskMgr(String storage) {
+    if(!FILE_STORAGE.equalsIgnoreCase(storage) 
+       && !MAPPED_STORAGE.equalsIgnoreCase(storage)
+       && !COMPRESSED_STORAGE.equalsIgnoreCase(storage)
+       && !DIRECT_STORAGE.equalsIgnoreCase(storage))
+      throw new IllegalArgumentException("Unknown storage backend " + storage);
+    this.storage = storage;
+  }
   
   
   /** DB Constructors.
@@ -75,19 +126,75 @@ public class DiskMgr implements GlobalConst {
     throws IOException, 
 	   ChainException {
     
-    name = new String(fname);
-    num_pages = (num_pgs > 2) ? num_pgs : 2;
+    openDB(fname, num_pgs, PAGE_SIZE);
+  }
+  
+  /** DB Constructors.
+   * Create a database with the specified number of pages and page size.
+   * The page size is kept in the first page of the database.
+   *
+   * @param fname DB name
+   * @param num_pgs number of pages in DB
+   * @param page_size page size in bytes, a power of two from PAGE_SIZE
+   * to MAX_PAGE_SIZE
+   *
+   * @exception IOException I/O errors
+   * @exception InvalidPageSizeException invalid page size
+ * @throws ChainException 
+   */
+  public void openDB( String fname, int num_pgs, int page_size)
+    throws IOException, 
+	   ChainException {
+    
+    openDB(fname, num_pgs, page_size, Math.max(num_pgs, 2));
+  }
+  
+  /** DB Constructors.
+   * Create a tablespace: a database stored in segment files of
+   * segment_pgs pages each, see SegmentedPageStore. Every segment starts
+   * with the space map of its own pages, so the database can later grow
+   * by whole segments (see add_segment and set_auto_extend). The number
+   * of pages is rounded up to a whole number of segments.
+   *
+   * @param fname DB name, also the name of segment 0
+   * @param num_pgs number of pages in DB
+   * @param page_size page size in bytes, a power of two from PAGE_SIZE
+   * to MAX_PAGE_SIZE
+   * @param segment_pgs number of pages per segment file
+   *
+   * @exception IOException I/O errors
+   * @exception InvalidPageSizeException invalid page size
+   * @exception InvalidRunSizeException segment too small
+ * @throws ChainException 
+   */
+  public void openDB( String fname, int num_pgs, int page_size, int segment_pgs)
+    throws IOException, 
+	   ChainException {
     
-    File DBfile = new File(name);
+    if(page_size < PAGE_SIZE || page_size > MAX_PAGE_SIZE 
+       || (page_size & (page_size - 1)) != 0)
+      throw new InvalidPageSizeException(null, "Bad page size " + page_size);
+    set_page_size(page_size);
     
-    DBfile.delete();
+    // Segment 0 needs room for the first page and its space map
+    if(segment_pgs < 1 + map_pages_per_segment(segment_pgs))
+      throw new InvalidRunSizeException(null, "Bad segment size " + segment_pgs);
     
-    // Creaat a random access file
-    fp = new RandomAccessFile(fname, "rw");
+    name = new String(fname);
+    segment_pages = segment_pgs;
+    num_pgs = (num_pgs > 2) ? num_pgs : 2;
+    num_pgs = (num_pgs + segment_pages - 1) / segment_pages * segment_pages;
     
-    // Make the file num_pages pages long, filled with zeroes.
-    fp.seek((long)(num_pages * PAGE_SIZE-1));
-    fp.writeByte(0);
+    delete_segment_files();
+    PageChecksums.delete(fname);
+    
+    // Open the file with the selected backend
+    store = openStore(fname);
+    checksums = use_checksums ? new PageChecksums(fname, page_size) : null;
+    
+    // Make the files num_pages pages long, filled with zeroes.
+    store.create(segment_pages, num_pgs);
+    num_pages = num_pgs;
     
     // Initialize space map and directory pages.
     
@@ -100,21 +207,27 @@ public class DiskMgr implements GlobalConst {
     DBFirstPage firstpg = new DBFirstPage(apage);
     
     firstpg.setNumDBPages(num_pages);
+    firstpg.setPageSize(page_size);
+    firstpg.setSegmentPages(segment_pages);
     unpinPage(pageId, true /*dirty*/);
     
-    // Calculate how many pages are needed for the space map.  Reserve pages
-    // 0 and 1 and as many additional pages for the space map as are needed.
-    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
-    
-    set_bits(pageId, 1+num_map_pages, 1);
+    // Reserve page 0 and the space map pages at the start of every
+    // segment.
+    set_bits(pageId, 1+map_pages_per_segment(segment_pages), 1);
+    for(int k = 1; k < num_pages / segment_pages; k++)
+      set_bits(new PageId(k * segment_pages), map_pages_per_segment(segment_pages), 1);
     
+    load_free_extents();
+    load_file_directory();
   }
   
   /** Close DB file.
    * @exception IOException I/O errors.
    */
   public void closeDB() throws IOException {
-    fp.close();
+    store.close();
+    if(checksums != null)
+      checksums.close();
   }
   
   
@@ -124,9 +237,64 @@ public class DiskMgr implements GlobalConst {
   public void DBDestroy() 
     throws IOException {
     
-    fp.close();
-    File DBfile = new File(name);
-    DBfile.delete();
+    store.close();
+    delete_segment_files();
+    if(checksums != null)
+      checksums.close();
+    PageChecksums.delete(name);
+  }
+  
+  /** Adds a segment file to the database, num_pages grows by one
+   * segment. The new pages are free, except for the segment's own
+   * space map pages.
+   *
+   * @exception IOException I/O errors
+ * @throws ChainException 
+   */
+  public synchronized void add_segment()
+    throws IOException, ChainException {
+    
+    int first = num_pages;
+    int map_pages = map_pages_per_segment(segment_pages);
+    store.setNumPages(first + segment_pages);
+    num_pages = first + segment_pages;
+    
+    // Record the new size, and the segment size the first time a
+    // database made of one file grows
+    PageId pageId = new PageId(0);
+    Page apage = new Page();
+    pinPage(pageId, apage, false /*read disk*/);
+    DBFirstPage firstpg = new DBFirstPage();
+    firstpg.openPage(apage);
+    firstpg.setNumDBPages(num_pages);
+    firstpg.setSegmentPages(segment_pages);
+    unpinPage(pageId, true /*dirty*/);
+    
+    set_bits(new PageId(first), map_pages, 1);
+    free_extents.free(first + map_pages, segment_pages - map_pages);
+  }
+  
+  /** Turns page checksums on or off for the databases this manager
+   * creates afterwards. Each page written gets a CRC32C, kept in a side
+   * file next to the database, and each page read is checked against
+   * it, so a torn or corrupted page raises PageChecksumException instead
+   * of being handed to the buffer pool. Opening an existing database
+   * turns them on if it was created with them. Off by default.
+   *
+   * @param on true to checksum the pages
+   */
+  public void set_checksums(boolean on) {
+    use_checksums = on;
+  }
+  
+  /** Lets allocations that find no free run grow the database by
+   * adding segments, up to max_pages pages in all.
+   *
+   * @param max_pages largest size the database may grow to, 0 to
+   * never grow (the default)
+   */
+  public synchronized void set_auto_extend(int max_pages) {
+    auto_extend_limit = max_pages;
   }
   
   /** Read the contents of the specified page into a Page object
@@ -146,20 +314,59 @@ public class DiskMgr implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *PAGE_SIZE));
-    
     // Read the appropriate number of bytes.
-    byte [] buffer = apage.getpage();  //new byte[PAGE_SIZE];
+    byte [] buffer = apage.getpage();  //new byte[page_size];
     try{
-      fp.read(buffer);
+      store.read(pageno.pid, buffer);
     }
     catch (IOException e) {
       throw new FileIOException(e, "DB file I/O error");
     }
     
+    if(checksums != null && !checksums.verify(pageno.pid, buffer))
+      throw new PageChecksumException(null, "Checksum mismatch on page " + pageno.pid);
+    
   }
   
+  /** Read a run of consecutive pages with a single scattering I/O.
+   *
+   * @param start pageId of the first page of the run
+   * @param count number of pages to read
+   * @param dst page objects which hold the contents, dst[i] receives
+   *            page start+i
+   *
+   * @exception InvalidRunSizeException invalid run size
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void read_pages(PageId start, int count, Page[] dst)
+    throws InvalidRunSizeException,
+	   InvalidPageNumberException,
+	   FileIOException,
+	   IOException {
+
+    if((count < 0)||(count > dst.length))
+      throw new InvalidRunSizeException(null, "Bad run size");
+    if((start.pid < 0)||(start.pid + count > num_pages))
+      throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+
+    byte [][] buffers = new byte[count][];
+    for(int i = 0; i < count; i++)
+      buffers[i] = dst[i].getpage();
+    try{
+      store.read(start.pid, count, buffers);
+    }
+    catch (IOException e) {
+      throw new FileIOException(e, "DB file I/O error");
+    }
+    
+    if(checksums != null)
+      for(int i = 0; i < count; i++)
+	if(!checksums.verify(start.pid + i, buffers[i]))
+	  throw new PageChecksumException(null, "Checksum mismatch on page " + (start.pid + i));
+  }
+
   /** Write the contents in a page object to the specified page.
    *
    * @param pageno pageId will be wrote to disk
@@ -177,18 +384,52 @@ public class DiskMgr implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "INVALID_PAGEID_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *PAGE_SIZE));
-    
     // Write the appropriate number of bytes.
     try{
-      fp.write(apage.getpage());
+      store.write(pageno.pid, apage.getpage());
+      if(checksums != null)
+	checksums.stamp(pageno.pid, 1, new byte[][] { apage.getpage() });
     }
     catch (IOException e) {
       throw new FileIOException(e, "DB file I/O error");
     }
     
   }
+  /** Write a run of consecutive pages with a single gathering I/O.
+   *
+   * @param start pageId of the first page of the run
+   * @param count number of pages to write
+   * @param src page objects to write, src[i] goes to page start+i
+   *
+   * @exception InvalidRunSizeException invalid run size
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_pages(PageId start, int count, Page[] src)
+    throws InvalidRunSizeException,
+	   InvalidPageNumberException,
+	   FileIOException,
+	   IOException {
+
+    if((count < 0)||(count > src.length))
+      throw new InvalidRunSizeException(null, "Bad run size");
+    if((start.pid < 0)||(start.pid + count > num_pages))
+      throw new InvalidPageNumberException(null, "INVALID_PAGEID_NUMBER");
+
+    byte [][] buffers = new byte[count][];
+    for(int i = 0; i < count; i++)
+      buffers[i] = src[i].getpage();
+    try{
+      store.write(start.pid, count, buffers);
+      if(checksums != null)
+	checksums.stamp(start.pid, count, buffers);
+    }
+    catch (IOException e) {
+      throw new FileIOException(e, "DB file I/O error");
+    }
+  }
+
   /**
    * Allocates a set of pages on disk, given the run size.
    * 
@@ -198,77 +439,29 @@ public class DiskMgr implements GlobalConst {
  * @throws IllegalArgumentException if run_size is invalid
    * @throws IllegalStateException if the database is full
    */
-  public PageId allocate_page(int run_size) throws ChainException, IOException {
+  public synchronized PageId allocate_page(int run_size) throws ChainException, IOException {
 
     // validate the run size
     if ((run_size < 1) || (run_size > num_pages)) {
       throw new IllegalArgumentException("Invalid run size; allocate aborted");
     }
 
-    // calculate the run in the space map
-    int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
-    int current_run_start = 0;
-    int current_run_length = 0;
-
-    // this loop goes over each page in the space map
-    PageId pgid = new PageId();
-    Page apage = new Page();
-    for (int i = 0; i < num_map_pages; ++i) {
-
-      // pin the space-map page
-      pgid.pid = i + 1;
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
-
-      // get the num of bits on current page
-      int num_bits_this_page = num_pages - i * bits_per_page;
-      if (num_bits_this_page > bits_per_page)
-        num_bits_this_page = bits_per_page;
-
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length. The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      byte[] pagebuf = apage.getData();
-      for (int byteptr = 0; num_bits_this_page > 0
-          && current_run_length < run_size; byteptr++) {
-
-        // initialize bit mask
-        Byte mask = new Byte(new Integer(1).byteValue());
-        byte tmpmask = mask.byteValue();
-
-        // search the page for an empty run
-        while (mask.intValue() != 0 && (num_bits_this_page > 0)
-            && (current_run_length < run_size)) {
-
-          // if a non-empty page is found
-          if ((pagebuf[byteptr] & tmpmask) != 0) {
-            current_run_start += current_run_length + 1;
-            current_run_length = 0;
-          } else {
-            current_run_length++;
-          }
-
-          // advance to the next page
-          tmpmask <<= 1;
-          mask = new Byte(tmpmask);
-          num_bits_this_page--;
-
-        } // while
-
-      } // inner loop
-
-      // unpin the current space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
-
-    } // outer loop
+    // take the best fitting free run from the extent index
+    int start = allocate_run(run_size);
 
     // check for disk full exception
-    if (current_run_length < run_size) {
+    if (start < 0) {
       throw new IllegalStateException("Not enough space left; allocate aborted");
     }
 
     // update the space map and return the resulting page id
-    PageId firstpg = new PageId(current_run_start);
-    set_bits(firstpg, run_size, 1);
+    PageId firstpg = new PageId(start);
+    try {
+      set_bits(firstpg, run_size, 1);
+    } catch (ChainException e) {
+      free_extents.free(start, run_size);
+      throw e;
+    }
     return firstpg;
 
   } // public PageId allocate_page(int run_size)
@@ -299,79 +492,24 @@ public class DiskMgr implements GlobalConst {
    * @exception IOException I/O errors
  * @throws ChainException 
    */
-  public void allocate_page(PageId start_page_num, int runsize)
+  public synchronized void allocate_page(PageId start_page_num, int runsize)
     throws IOException, ChainException {
 
     if(runsize < 0) throw new InvalidRunSizeException(null, "Negative run_size");
     
-    int run_size = runsize;
-    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
-    int current_run_start = 0; 
-    int current_run_length = 0;
-    
-    
-    // This loop goes over each page in the space map.
-    PageId pgid = new PageId();
-    byte [] pagebuf;
-    int byteptr;
-    
-    for(int i=0; i< num_map_pages; ++i) {// start forloop01
-	
-      pgid.pid = 1 + i;
-      // Pin the space-map page.
-      
-      Page apage = new Page();
-      pinPage(pgid, apage, false /*read disk*/);
-      
-      pagebuf = apage.getpage();
-      byteptr = 0;
-      
-      // get the num of bits on current page
-      int num_bits_this_page = num_pages - i*bits_per_page;
-      if(num_bits_this_page > bits_per_page)
-	num_bits_this_page = bits_per_page;
-      
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length.  The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      
-      for(; num_bits_this_page>0 
-	    && current_run_length < run_size; ++byteptr) {// start forloop02
-	  
-	
-	Integer intmask = new Integer(1);
-	Byte mask = new Byte(intmask.byteValue());
-	byte tmpmask = mask.byteValue();
-	
-	while (mask.intValue()!=0 && (num_bits_this_page>0)
-	       &&(current_run_length < run_size))
-	  
-	  {	      
-	    if( (pagebuf[byteptr] & tmpmask ) != 0)
-	      {
-		current_run_start += current_run_length + 1;
-		current_run_length = 0;
-	      }
-	    else ++current_run_length;
-	    
-	    
-	    tmpmask <<=1;
-	    mask = new Byte(tmpmask);
-	    --num_bits_this_page;
-	  }
-	
-	
-      }//end of forloop02
-      // Unpin the space-map page.
-      
-      unpinPage(pgid, false /*undirty*/);
-      
-    }// end of forloop01
-    
-    if(current_run_length >= run_size)
+    // The extent index hands out the smallest free run that fits, no
+    // need to walk the space map
+    int start = allocate_run(runsize);
+    if(start >= 0)
       {
-	start_page_num.pid = current_run_start;
-	set_bits(start_page_num, run_size, 1);
+	start_page_num.pid = start;
+	try {
+	  set_bits(start_page_num, runsize, 1);
+	} catch (ChainException e) {
+	  // The space map was not updated, the run is still free
+	  free_extents.free(start, runsize);
+	  throw e;
+	}
 	
 	return;
       }
@@ -388,13 +526,14 @@ public class DiskMgr implements GlobalConst {
    * @exception IOException I/O errors
  * @throws ChainException 
    */
-  public void deallocate_page(PageId start_page_num, int run_size)
+  public synchronized void deallocate_page(PageId start_page_num, int run_size)
     throws IOException, 
 	   ChainException {
 
     if(run_size < 0) throw new InvalidRunSizeException(null, "Negative run_size");
     
     set_bits(start_page_num, run_size, 0);
+    free_extents.free(start_page_num.pid, run_size);
   }
   
   /** Deallocate a set of pages starting at the specified page number
@@ -409,10 +548,11 @@ public class DiskMgr implements GlobalConst {
    * @exception DiskMgrException error caused by other layers
    * 
    */
-  public void deallocate_page(PageId start_page_num)
+  public synchronized void deallocate_page(PageId start_page_num)
     throws ChainException {
 
     set_bits(start_page_num, 1, 0);
+    free_extents.free(start_page_num.pid, 1);
   }
   
   /** Adds a file entry to the header page(s).
@@ -429,7 +569,7 @@ public class DiskMgr implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void add_file_entry(String fname, PageId start_page_num)
+  public synchronized void add_file_entry(String fname, PageId start_page_num)
     throws FileNameTooLongException, 
 	   InvalidPageNumberException, 
 	   InvalidRunSizeException,
@@ -446,94 +586,23 @@ public class DiskMgr implements GlobalConst {
     
     // Does the file already exist?  
     
-    if( get_file_entry(fname) != null) 
+    if(file_directory.get(fname) != null) 
       throw new DuplicateEntryException(null, "DB fileentry already exists");
     
-    Page apage = new Page();
-    
-    boolean found = false;
-    int free_slot = 0;
-    PageId hpid = new PageId();
-    PageId nexthpid = new PageId(0);
-    DBHeaderPage dp;
-    do
-      {// Start DO01
-	//  System.out.println("start do01");
-        hpid.pid = nexthpid.pid;
-	
-	// Pin the header page
-	pinPage(hpid, apage, false /*read disk*/);
-        
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
-	if(hpid.pid==0)
-	  {
-	    dp = new DBFirstPage();
-	    ((DBFirstPage) dp).openPage(apage);
-	  }
-	else
-	  {
-	    dp = new DBDirectoryPage();
-	    ((DBDirectoryPage) dp).openPage(apage);
-	  }
-	
-	nexthpid = dp.getNextPage();
-	int entry = 0;
-	
-	PageId tmppid = new PageId();
-	while(entry < dp.getNumOfEntries())
-	  {
-	    dp.getFileEntry(tmppid, entry);
-	    if(tmppid.pid == INVALID_PAGEID)  break;
-	    entry ++;
-	  }
-	
-	if(entry < dp.getNumOfEntries())
-	  {
-	    free_slot = entry;
-	    found = true;
-	  }
-	else if (nexthpid.pid != INVALID_PAGEID)
-	  {
-	    // We only unpin if we're going to continue looping.
-	    unpinPage(hpid, false /* undirty*/);
-	  }
-	
-      }while((nexthpid.pid != INVALID_PAGEID)&&(!found)); // End of DO01
+    long slot = file_directory.takeFreeSlot();
     
     // Have to add a new header page if possible.
-    if(!found)
-      {
-	try{
-	  allocate_page(nexthpid);
-	}
-	catch(Exception e){         //need rethrow an exception!!!!
-          unpinPage(hpid, false /* undirty*/);
-	  e.printStackTrace();
-	}
-	
-	// Set the next-page pointer on the previous directory page.
-	dp.setNextPage(nexthpid);
-	unpinPage(hpid, true /* dirty*/);
-	
-	// Pin the newly-allocated directory page.
-	hpid.pid = nexthpid.pid;
-	
-	pinPage(hpid, apage, true/*no diskIO*/);
-	dp = new DBDirectoryPage(apage);
-	
-	free_slot = 0;
-      }
-    
-    // At this point, "hpid" has the page id of the header page with the free
-    // slot; "pg" points to the pinned page; "dp" has the directory_page
-    // pointer; "free_slot" is the entry number in the directory where we're
-    // going to put the new file entry.
-    
-    dp.setFileEntry(start_page_num, fname, free_slot);
+    if(slot == FileDirectory.NO_SLOT)
+      slot = add_directory_page();
     
+    // Write the entry in its slot.
+    PageId hpid = new PageId(FileDirectory.pageOf(slot));
+    Page apage = new Page();
+    DBHeaderPage dp = pin_header_page(hpid, apage);
+    dp.setFileEntry(start_page_num, fname, FileDirectory.entryOf(slot));
     unpinPage(hpid, true /* dirty*/);
     
+    file_directory.put(fname, start_page_num.pid, slot);
   }
   
   /** Delete the entry corresponding to a file from the header page(s).
@@ -546,75 +615,27 @@ public class DiskMgr implements GlobalConst {
    * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public void delete_file_entry(String fname)
+  public synchronized void delete_file_entry(String fname)
     throws FileEntryNotFoundException, 
 	   IOException,
 	   FileIOException,
 	   InvalidPageNumberException, 
 	   DiskMgrException {
     
-    Page apage = new Page();
-    boolean found = false;
-    int slot = 0;
-    PageId hpid = new PageId();
-    PageId nexthpid = new PageId(0);
-    PageId tmppid = new PageId();
-    DBHeaderPage dp;
-    
-    do
-      { // startDO01
-        hpid.pid = nexthpid.pid;
-	
-	// Pin the header page.
-	pinPage(hpid, apage, false/*read disk*/);
-
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
-	if(hpid.pid==0)
-	  {
-	    dp = new DBFirstPage();
-	    ((DBFirstPage)dp).openPage(apage);
-	  }
-	else
-	  {
-	    dp = new DBDirectoryPage();
-	    ((DBDirectoryPage) dp).openPage(apage);
-	  }
-	nexthpid = dp.getNextPage();
-	
-	int entry = 0;
-	
-	String tmpname;
-	while(entry < dp.getNumOfEntries())
-	  {
-	    tmpname = dp.getFileEntry(tmppid, entry);
-	    
-	    if((tmppid.pid != INVALID_PAGEID)&&
-	       (tmpname.compareTo(fname) == 0)) break; 
-	    entry ++;
-	  }
-	
-        if(entry < dp.getNumOfEntries())
-	  {
-	    slot = entry;
-	    found = true;
-	  }
-	else
-	  {
-	    unpinPage(hpid, false /*undirty*/);
-	  }
-	
-      } while((nexthpid.pid != INVALID_PAGEID) && (!found)); // EndDO01
-    
-    if(!found)  // Entry not found - nothing deleted
+    FileDirectory.Entry entry = file_directory.get(fname);
+    if(entry == null)  // Entry not found - nothing deleted
       throw new FileEntryNotFoundException(null, "DB file not found");
     
     // Have to delete record at hpnum:slot
-    tmppid.pid = INVALID_PAGEID;
-    dp.setFileEntry(tmppid, "\0", slot);
-    
+    PageId hpid = new PageId(FileDirectory.pageOf(entry.slot));
+    Page apage = new Page();
+    DBHeaderPage dp = pin_header_page(hpid, apage);
+    PageId tmppid = new PageId(INVALID_PAGEID);
+    dp.setFileEntry(tmppid, "\0", FileDirectory.entryOf(entry.slot));
     unpinPage(hpid, true /*dirty*/);
     
+    file_directory.remove(fname);
+    file_directory.addFreeSlot(entry.slot, true);
   }
   
   /** Get the entry corresponding to the given file.
@@ -626,80 +647,27 @@ public class DiskMgr implements GlobalConst {
    * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public PageId get_file_entry(String name)
+  public synchronized PageId get_file_entry(String name)
     throws IOException,
 	   FileIOException,
 	   InvalidPageNumberException, 
 	   DiskMgrException {
 
-    Page apage = new Page();
-    boolean found = false;
-    int slot = 0;
-    PageId hpid = new PageId();
-    PageId nexthpid = new PageId(0);
-    DBHeaderPage dp;
-    
-    do
-      {// Start DO01
-	
-	// System.out.println("get_file_entry do-loop01: "+name);
-        hpid.pid = nexthpid.pid;
-	
-        // Pin the header page.
-        pinPage(hpid, apage, false /*no diskIO*/);
-	
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
-	if(hpid.pid==0)
-	  {
-	    dp = new DBFirstPage();
-	    ((DBFirstPage) dp).openPage(apage);
-	  }
-	else
-	  {
-	    dp = new DBDirectoryPage();
-	    ((DBDirectoryPage) dp).openPage(apage);
-	  }
-	nexthpid = dp.getNextPage();
-	
-	int entry = 0;
-	PageId tmppid = new PageId();
-	String tmpname;
-	
-	while(entry < dp.getNumOfEntries())
-	  {
-	    tmpname = dp.getFileEntry(tmppid, entry);
-	    
-	    if((tmppid.pid != INVALID_PAGEID)&&
-	       (tmpname.compareTo(name) == 0)) break; 
-	    entry ++;
-	  }
-	if(entry < dp.getNumOfEntries())
-	  {
-	    slot =  entry;
-	    found = true;
-	  }
-	
-	unpinPage(hpid, false /*undirty*/);
-	
-      }while((nexthpid.pid!=INVALID_PAGEID)&&(!found));// End of DO01
-    
-    if(!found)  // Entry not found - don't post error, just fail.
-      {    
-	//  System.out.println("entry NOT found");
-	return null;
-      }
+    // The directory is cached, no need to walk the directory pages
+    FileDirectory.Entry entry = file_directory.get(name);
+    if(entry == null)  // Entry not found - don't post error, just fail.
+      return null;
     
-    PageId startpid = new PageId();
-    dp.getFileEntry(startpid, slot);
-    return startpid;
+    return new PageId(entry.start_pid);
   }
   
   /** Functions to return some characteristics of the database.
    */
   public String db_name(){return name;}
   public int db_num_pages(){return num_pages;}
-  public int db_page_size(){return PAGE_SIZE;}
+  public int db_page_size(){return page_size;}
+  public int db_segment_pages(){return segment_pages;}
+  public long db_num_free_pages(){return free_extents.getNumFree();}
   
   /** Print out the space map of the database.
    * The space map is a bitmap showing which
@@ -719,7 +687,8 @@ public class DiskMgr implements GlobalConst {
     {
       
       System.out.println ("********  IN DUMP");
-      int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
+      int map_pages = map_pages_per_segment(segment_pages);
+      int num_map_pages = num_pages / segment_pages * map_pages;
       int bit_number = 0;
       
       // This loop goes over each page in the space map.
@@ -729,13 +698,15 @@ public class DiskMgr implements GlobalConst {
       for(int i=0; i< num_map_pages; i++)
 	{//start forloop01
 	  
-	  pgid.pid = 1 + i;   //space map starts at page1
+	  // Every segment starts with its space map, page 1 in segment 0
+	  int first_bit = (i / map_pages) * segment_pages + (i % map_pages) * bits_per_page;
+	  pgid.pid = map_page_of(first_bit);
 	  // Pin the space-map page.
 	  Page apage = new Page();
 	  pinPage(pgid, apage, false/*read disk*/);
 	  
 	  // How many bits should we examine on this page?
-	  int num_bits_this_page = num_pages - i*bits_per_page;
+	  int num_bits_this_page = segment_pages - (i % map_pages)*bits_per_page;
 	  System.out.println ("num_bits_this_page = " + num_bits_this_page);
 	  System.out.println ("num_pages = " + num_pages);
 	  if ( num_bits_this_page > bits_per_page )
@@ -781,11 +752,232 @@ public class DiskMgr implements GlobalConst {
       
     }
   
-  private RandomAccessFile fp;
-  private int num_pages;
+  private SegmentedPageStore store;
+  private String storage;
+  // Read without the lock by page I/O, grows when a segment is added
+  private volatile int num_pages;
+  private int segment_pages;
+  private int auto_extend_limit;
+  private int page_size = PAGE_SIZE;
+  private int bits_per_page = PAGE_SIZE * 8;
   private String name;
+  private FreeExtents free_extents = new FreeExtents();
+  private FileDirectory file_directory = new FileDirectory();
+  private boolean use_checksums;
+  // null when the database has no checksums
+  private PageChecksums checksums;
+  
+  private void set_page_size(int size) {
+    page_size = size;
+    bits_per_page = size * 8;
+  }
+  
+  /** Finds the page size of an existing database. The first page keeps
+   * it within its first PAGE_SIZE bytes, at DBFirstPage.PAGE_SIZE_AT
+   * behind DBFirstPage.FORMAT_MAGIC, whatever the page size. Databases
+   * made before the page size was stored have no magic word there and
+   * are PAGE_SIZE. Compressed databases keep it in their page map.
+   */
+  private static int read_page_size(String fname) throws IOException {
+    if(CompressedPageStore.exist(fname))
+      return CompressedPageStore.readPageSize(fname);
+    RandomAccessFile f = new RandomAccessFile(fname, "r");
+    try {
+      if(f.length() < PAGE_SIZE)
+        return PAGE_SIZE;
+      f.seek(DBFirstPage.FORMAT_AT);
+      if(f.readInt() != DBFirstPage.FORMAT_MAGIC)
+        return PAGE_SIZE;
+      int size = f.readInt();
+      if(size < PAGE_SIZE || size > MAX_PAGE_SIZE || (size & (size - 1)) != 0)
+        throw new IOException("Bad page size " + size + " in " + fname);
+      return size;
+    }
+    finally {
+      f.close();
+    }
+  }
+  
+  /** Opens the database files with the selected storage backend.
+   * A compressed database can only be read compressed, whatever
+   * backend was selected.
+   */
+  private SegmentedPageStore openStore(String fname) throws IOException {
+    String backend = CompressedPageStore.exist(fname) ? COMPRESSED_STORAGE : storage;
+    return new SegmentedPageStore(fname, page_size, backend);
+  }
+  
+  /** Removes the files of every segment of the database.
+   */
+  private void delete_segment_files() {
+    new File(name).delete();
+    CompressedPageStore.delete(name);
+    for(int k = 1; new File(SegmentedPageStore.segmentName(name, k)).delete(); k++)
+      CompressedPageStore.delete(SegmentedPageStore.segmentName(name, k));
+  }
+  
+  /** Number of space map pages at the start of a segment. */
+  private int map_pages_per_segment(int seg_pages) {
+    return (seg_pages + bits_per_page - 1)/bits_per_page;
+  }
+  
+  /** Space map page holding the bit of page pid. Segment 0 starts with
+   * the first page, the others with their space map.
+   */
+  private int map_page_of(int pid) {
+    int segment = pid / segment_pages;
+    return segment * segment_pages + (segment == 0 ? 1 : 0) 
+      + (pid % segment_pages) / bits_per_page;
+  }
+  
+  /** Takes a free run from the extent index, adding segments when
+   * auto extension allows it and no run is long enough.
+   *
+   * @return the first page of the run, -1 if there is no room
+   */
+  private int allocate_run(int run_size)
+    throws IOException, ChainException {
+    
+    int start = free_extents.allocate(run_size);
+    // A new segment only has room for runs that fit past its space map
+    while(start < 0 && num_pages + segment_pages <= auto_extend_limit
+	  && run_size <= segment_pages - map_pages_per_segment(segment_pages))
+      {
+	add_segment();
+	start = free_extents.allocate(run_size);
+      }
+    return start;
+  }
   
   
+  /** Loads the file directory cache, one pass over the chain of
+   * directory pages when the database is opened.
+   */
+  private void load_file_directory()
+    throws IOException, DiskMgrException {
+    
+    file_directory = new FileDirectory();
+    Page apage = new Page();
+    PageId hpid = new PageId();
+    PageId nexthpid = new PageId(0);
+    PageId tmppid = new PageId();
+    do
+      {
+        hpid.pid = nexthpid.pid;
+	DBHeaderPage dp = pin_header_page(hpid, apage);
+	nexthpid = dp.getNextPage();
+	
+	for(int entry = 0; entry < dp.getNumOfEntries(); entry++)
+	  {
+	    String tmpname = dp.getFileEntry(tmppid, entry);
+	    long slot = FileDirectory.slot(hpid.pid, entry);
+	    if(tmppid.pid == INVALID_PAGEID)
+	      file_directory.addFreeSlot(slot, false);
+	    else
+	      file_directory.put(tmpname, tmppid.pid, slot);
+	  }
+	
+	unpinPage(hpid, false /*undirty*/);
+	
+      } while(nexthpid.pid != INVALID_PAGEID);
+    file_directory.setLastPage(hpid.pid);
+  }
+  
+  /** Allocates a directory page, links it at the end of the chain and
+   * returns its first slot, the other slots go to the free list.
+   */
+  private long add_directory_page()
+    throws IOException, OutOfSpaceException, DiskMgrException {
+    
+    PageId nexthpid = new PageId();
+    try{
+      allocate_page(nexthpid);
+    }
+    catch(ChainException e){
+      throw new OutOfSpaceException(e, "No space left for a directory page");
+    }
+    
+    // Set the next-page pointer on the previous directory page.
+    Page apage = new Page();
+    PageId hpid = new PageId(file_directory.getLastPage());
+    DBHeaderPage dp = pin_header_page(hpid, apage);
+    dp.setNextPage(nexthpid);
+    unpinPage(hpid, true /* dirty*/);
+    
+    // Pin the newly-allocated directory page.
+    pinPage(nexthpid, apage, true/*no diskIO*/);
+    dp = new DBDirectoryPage(apage);
+    int num_entries = dp.getNumOfEntries();
+    unpinPage(nexthpid, true /* dirty*/);
+    
+    file_directory.setLastPage(nexthpid.pid);
+    for(int entry = 1; entry < num_entries; entry++)
+      file_directory.addFreeSlot(FileDirectory.slot(nexthpid.pid, entry), false);
+    return FileDirectory.slot(nexthpid.pid, 0);
+  }
+  
+  /** Pins a directory page. This complication is because the first page
+   * has a different structure from that of subsequent pages.
+   */
+  private DBHeaderPage pin_header_page(PageId hpid, Page apage)
+    throws DiskMgrException {
+    
+    pinPage(hpid, apage, false /*read disk*/);
+    DBHeaderPage dp;
+    if(hpid.pid==0)
+      {
+	dp = new DBFirstPage();
+	((DBFirstPage) dp).openPage(apage);
+      }
+    else
+      {
+	dp = new DBDirectoryPage();
+	((DBDirectoryPage) dp).openPage(apage);
+      }
+    return dp;
+  }
+  
+  /** Builds the free extent index from the space map, one pass over
+   * the map pages when the database is opened.
+   */
+  private void load_free_extents()
+    throws DiskMgrException {
+    
+    free_extents = new FreeExtents();
+    int map_pages = map_pages_per_segment(segment_pages);
+    int run_start = 0;
+    int run_length = 0;
+    
+    PageId pgid = new PageId();
+    Page apage = new Page();
+    for(int first = 0; first < num_pages; first += segment_pages) {
+      for(int i=0; i< map_pages; ++i) {
+	int base = first + i*bits_per_page;
+	pgid.pid = map_page_of(base);
+	pinPage(pgid, apage, false /*read disk*/);
+	byte [] pagebuf = apage.getpage();
+	
+	int num_bits_this_page = Math.min(segment_pages - i*bits_per_page, bits_per_page);
+	
+	// Jump from run to run, 64 bits at a time
+	int bit = 0;
+	while(bit < num_bits_this_page) {
+	  int used = SpaceMapBits.nextSetBit(pagebuf, bit, num_bits_this_page);
+	  run_length += used - bit;
+	  if(used == num_bits_this_page)
+	    break;
+	  free_extents.free(run_start, run_length);
+	  bit = SpaceMapBits.nextClearBit(pagebuf, used, num_bits_this_page);
+	  run_start = base + bit;
+	  run_length = 0;
+	}
+	
+	unpinPage(pgid, false /*undirty*/);
+      }
+    }
+    free_extents.free(run_start, run_length);
+  }
+  
   /** Set runsize bits starting from start to value specified
    */
   private void set_bits( PageId start_page, int run_size, int bit )
@@ -794,75 +986,27 @@ public class DiskMgr implements GlobalConst {
     if((start_page.pid<0) || (start_page.pid+run_size > num_pages))
       throw new InvalidPageNumberException(null, "Bad page number");
     
-    // Locate the run within the space map.
-    int first_map_page = start_page.pid/bits_per_page + 1;
-    int last_map_page = (start_page.pid+run_size-1)/bits_per_page +1;
-    int first_bit_no = start_page.pid % bits_per_page;
-    
-    // The outer loop goes over all space-map pages we need to touch.
-    
-    for(PageId pgid = new PageId(first_map_page);
-	pgid.pid <= last_map_page;
-	pgid.pid = pgid.pid+1, first_bit_no = 0)
-      {//Start forloop01
+    // The loop goes over all space-map pages we need to touch, and
+    // flips the piece of the run on each page a word at a time. A piece
+    // ends with the run, its segment or the bits of its map page.
+    int pid = start_page.pid;
+    int end = start_page.pid + run_size;
+    Page pg = new Page();
+    PageId pgid = new PageId();
+    while(pid < end)
+      {
+	int first_bit_no = (pid % segment_pages) % bits_per_page;
+	int piece = Math.min(end - pid, bits_per_page - first_bit_no);
+	piece = Math.min(piece, segment_pages - pid % segment_pages);
 	
         // Pin the space-map page.
-	Page pg = new Page();
-	
-	
+	pgid.pid = map_page_of(pid);
 	pinPage(pgid, pg, false/*no diskIO*/);
-	
-	
-	byte [] pgbuf = pg.getpage();
-	
-	// Locate the piece of the run that fits on this page.
-	int first_byte_no = first_bit_no/8;
-	int first_bit_offset = first_bit_no%8;
-	int last_bit_no = first_bit_no + run_size -1;
-	
-	if(last_bit_no >= bits_per_page )
-	  last_bit_no = bits_per_page - 1;
-	
-        int last_byte_no = last_bit_no / 8;
-        
-	// This loop actually flips the bits on the current page.
-	int cur_posi = first_byte_no;
-	for(;cur_posi <= last_byte_no; ++cur_posi, first_bit_offset=0)
-	  {//start forloop02
-	    
-	    int max_bits_this_byte = 8 - first_bit_offset;
-	    int num_bits_this_byte = (run_size > max_bits_this_byte?
-				      max_bits_this_byte : run_size);
-	    
-            int imask =1;
-	    int temp;
-	    imask = ((imask << num_bits_this_byte) -1)<<first_bit_offset;
-	    Integer intmask = new Integer(imask);
-	    Byte mask = new Byte(intmask.byteValue());
-	    byte bytemask = mask.byteValue();
-	    
-	    if(bit==1)
-	      {
-	        temp = (pgbuf[cur_posi] | bytemask);
-	        intmask = new Integer(temp);
-		pgbuf[cur_posi] = intmask.byteValue();
-	      }
-	    else
-	      {
-		
-		temp = pgbuf[cur_posi] & (255^bytemask);
-	        intmask = new Integer(temp);
-		pgbuf[cur_posi] = intmask.byteValue();
-	      }
-	    run_size -= num_bits_this_byte;
-	    
-	  }//end of forloop02
-	
-	// Unpin the space-map page.
-	
+	SpaceMapBits.setRange(pg.getpage(), first_bit_no, first_bit_no + piece, bit == 1);
 	unpinPage(pgid, true /*dirty*/);
 	
-      }//end of forloop01
+	pid += piece;
+      }
     
   }
 
@@ -907,7 +1051,7 @@ public class DiskMgr implements GlobalConst {
 interface PageUsedBytes
 {
   int DIR_PAGE_USED_BYTES = 8 + 8;
-  int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+  int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 12;
 }
 
 /** Super class of the directory page and first page
@@ -943,7 +1087,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
       
       PageId temppid = getNextPage();
       
-      int num_entries  = (PAGE_SIZE - pageusedbytes) /SIZE_OF_FILE_ENTRY; 
+      int num_entries  = (data.length - pageusedbytes) /SIZE_OF_FILE_ENTRY; 
       setNumOfEntries(num_entries);
       
       for ( int index=0; index < num_entries; ++index )
@@ -1021,6 +1165,8 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
 
     int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
     Convert.setIntValue (pageNo.pid, position, data);
+    // Names are not terminated, clear what is left of an older longer one
+    Arrays.fill(data, position + 4, position + SIZE_OF_FILE_ENTRY, (byte)0);
     Convert.setStringValue (fname, position +4, data);	
   }
   
@@ -1046,7 +1192,18 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
  */
 class DBFirstPage extends DBHeaderPage {
 
-  protected static final int NUM_DB_PAGE = PAGE_SIZE -4;
+  /* These are counted back from the end of the page, whatever its size */
+  protected static final int NUM_DB_PAGE_FROM_END = 4;
+  protected static final int SEGMENT_PAGES_FROM_END = 12;
+  
+  /* The page size has to be read before the page size is known, so it
+   * is at the same offset in every first page, inside the first
+   * PAGE_SIZE bytes, behind a magic word. The first page only has the
+   * file entries that end before it, as many as in a PAGE_SIZE page. */
+  static final int FORMAT_MAGIC = 0x4d425047;   // "MBPG"
+  static final int FORMAT_AT = PAGE_SIZE - 24;
+  static final int PAGE_SIZE_AT = FORMAT_AT + 4;
+  static final int MAX_ENTRIES = (FORMAT_AT - START_FILE_ENTRIES) / SIZE_OF_FILE_ENTRY;
   
   /**
    * Default construtor 
@@ -1062,6 +1219,8 @@ class DBFirstPage extends DBHeaderPage {
     throws IOException	
     {
       super(page, FIRST_PAGE_USED_BYTES);
+      if(getNumOfEntries() > MAX_ENTRIES)
+        setNumOfEntries(MAX_ENTRIES);
     }
   
   /** open an exist DB first page
@@ -1081,7 +1240,7 @@ class DBFirstPage extends DBHeaderPage {
   public void setNumDBPages(int num)
     throws IOException	
     {
-      Convert.setIntValue (num, NUM_DB_PAGE, data);
+      Convert.setIntValue (num, data.length - NUM_DB_PAGE_FROM_END, data);
     }
   
   /**
@@ -1092,7 +1251,42 @@ class DBFirstPage extends DBHeaderPage {
   public int getNumDBPages()
     throws IOException {
 
-    return (Convert.getIntValue(NUM_DB_PAGE, data));
+    return (Convert.getIntValue(data.length - NUM_DB_PAGE_FROM_END, data));
+  }
+  
+  /**
+   * set the page size of the DB
+   * @param size the page size in bytes
+   * @exception IOException I/O errors
+   */
+  public void setPageSize(int size)
+    throws IOException	
+    {
+      Convert.setIntValue (FORMAT_MAGIC, FORMAT_AT, data);
+      Convert.setIntValue (size, PAGE_SIZE_AT, data);
+    }
+  
+  /**
+   * set the number of pages per segment file
+   * @param num the number of pages per segment
+   * @exception IOException I/O errors
+   */
+  public void setSegmentPages(int num)
+    throws IOException	
+    {
+      Convert.setIntValue (num, data.length - SEGMENT_PAGES_FROM_END, data);
+    }
+  
+  /**
+   * return the number of pages per segment file, 0 for databases made
+   * of a single file before segments existed
+   * @return number of pages per segment
+   * @exception IOException I/O errors
+   */
+  public int getSegmentPages()
+    throws IOException {
+
+    return (Convert.getIntValue(data.length - SEGMENT_PAGES_FROM_END, data));
   }
   
 }
@@ -0,0 +1,85 @@
+package diskmgr;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * In-memory copy of the file directory of a database, built from the
+ * chain of directory pages when the database is opened. It maps every
+ * file name to its start page and to the directory slot that holds the
+ * entry, and keeps the free slots, so looking up, adding and deleting a
+ * file entry are O(1) and only pin the one directory page they change.
+ * Slots are identified by (directory page << 32 | entry number).
+ */
+class FileDirectory {
+
+  /** Returned by takeFreeSlot when every directory page is full. */
+  public static final long NO_SLOT = -1L;
+
+  /** Start page and directory slot of a file. */
+  static class Entry {
+    final int start_pid;
+    final long slot;
+
+    Entry(int start_pid, long slot) {
+      this.start_pid = start_pid;
+      this.slot = slot;
+    }
+  }
+
+  private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+  private final ArrayDeque<Long> free_slots = new ArrayDeque<Long>();
+  private int last_page;
+
+  public Entry get(String fname) {
+    return entries.get(fname);
+  }
+
+  public void put(String fname, int start_pid, long slot) {
+    entries.put(fname, new Entry(start_pid, slot));
+  }
+
+  public Entry remove(String fname) {
+    return entries.remove(fname);
+  }
+
+  /** Takes a free slot, NO_SLOT if there is none. */
+  public long takeFreeSlot() {
+    Long slot = free_slots.pollFirst();
+    return (slot == null) ? NO_SLOT : slot.longValue();
+  }
+
+  /** Adds a free slot, reused before the ones added earlier if
+   * reuse_first (a slot freed by a delete). */
+  public void addFreeSlot(long slot, boolean reuse_first) {
+    if(reuse_first)
+      free_slots.addFirst(slot);
+    else
+      free_slots.addLast(slot);
+  }
+
+  /** Last page in the chain of directory pages. */
+  public int getLastPage() {
+    return last_page;
+  }
+
+  public void setLastPage(int pid) {
+    last_page = pid;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public static long slot(int hpid, int entry) {
+    return ((long)hpid << 32) | entry;
+  }
+
+  public static int pageOf(long slot) {
+    return (int)(slot >>> 32);
+  }
+
+  public static int entryOf(long slot) {
+    return (int)slot;
+  }
+}
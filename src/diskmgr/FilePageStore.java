@@ -0,0 +1,79 @@
+package diskmgr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The original backend: one read or write system call per page.
+ * Single pages use positional channel I/O, so they are safe to issue
+ * from several threads at once. Runs of pages go through the file
+ * channel as one scattering read or gathering write straight from the
+ * page buffers; those move the channel position and are serialized.
+ */
+class FilePageStore implements PageStore {
+
+  private RandomAccessFile fp;
+  private FileChannel channel;
+  private int page_size;
+
+  public FilePageStore(String fname, int page_size) throws IOException {
+    this.page_size = page_size;
+    fp = new RandomAccessFile(fname, "rw");
+    channel = fp.getChannel();
+  }
+
+  public void read(int pid, byte[] dst) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(dst, 0, page_size);
+    long position = (long)pid * page_size;
+    while(buffer.hasRemaining()) {
+      if(channel.read(buffer, position + buffer.position()) < 0)
+        throw new EOFException("Page past the end of the file");
+    }
+  }
+
+  public synchronized void read(int pid, int count, byte[][] dst) throws IOException {
+    ByteBuffer[] buffers = wrap(dst, count);
+    channel.position((long)pid * page_size);
+    long left = (long)count * page_size;
+    while(left > 0) {
+      long done = channel.read(buffers);
+      if(done < 0)
+        throw new EOFException("Page run past the end of the file");
+      left -= done;
+    }
+  }
+
+  public void write(int pid, byte[] src) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(src, 0, page_size);
+    long position = (long)pid * page_size;
+    while(buffer.hasRemaining())
+      channel.write(buffer, position + buffer.position());
+  }
+
+  public synchronized void write(int pid, int count, byte[][] src) throws IOException {
+    ByteBuffer[] buffers = wrap(src, count);
+    channel.position((long)pid * page_size);
+    long left = (long)count * page_size;
+    while(left > 0)
+      left -= channel.write(buffers);
+  }
+
+  public void setNumPages(int num_pages) throws IOException {
+    fp.setLength((long)num_pages * page_size);
+  }
+
+  public void close() throws IOException {
+    fp.close();
+  }
+
+  private ByteBuffer[] wrap(byte[][] pages, int count) {
+    ByteBuffer[] buffers = new ByteBuffer[count];
+    for(int i = 0; i < count; i++)
+      buffers[i] = ByteBuffer.wrap(pages[i], 0, page_size);
+    return buffers;
+  }
+
+} // class FilePageStore
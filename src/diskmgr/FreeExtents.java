@@ -0,0 +1,93 @@
+package diskmgr;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory index of the free runs of pages (extents) of a database,
+ * built from the space map when the database is opened. Extents are
+ * kept twice: by first page, to merge neighbours when pages are freed,
+ * and by (length, first page), so a best-fit allocation is a single
+ * ceiling lookup. Every operation is O(log n) in the number of extents.
+ * The space map on disk stays the durable copy; DiskMgr updates both.
+ */
+class FreeExtents {
+
+  // first page -> length
+  private final TreeMap<Integer, Integer> byStart = new TreeMap<Integer, Integer>();
+  // length << 32 | first page
+  private final TreeSet<Long> bySize = new TreeSet<Long>();
+  private long numFree;
+
+  /** Allocates the smallest free run that is at least size pages long,
+   * the lowest one among equals, and keeps the rest of it free.
+   *
+   * @return the first page of the run, -1 if no run is long enough
+   */
+  public int allocate(int size) {
+    Long fit = bySize.ceiling((long)size << 32);
+    if(fit == null)
+      return -1;
+    int start = (int)(fit.longValue() & 0xffffffffL);
+    int length = (int)(fit.longValue() >>> 32);
+    remove(start, length);
+    if(length > size)
+      add(start + size, length - size);
+    numFree -= size;
+    return start;
+  }
+
+  /** Marks a run of pages free, merging it with the free runs around
+   * it. Pages that were already free are only counted once.
+   */
+  public void free(int start, int size) {
+    if(size <= 0)
+      return;
+    long end = (long)start + size;
+    long freed = size;
+    Map.Entry<Integer, Integer> before = byStart.floorEntry(start);
+    if(before != null && (long)before.getKey() + before.getValue() >= start) {
+      long beforeEnd = (long)before.getKey() + before.getValue();
+      freed -= Math.max(0, Math.min(end, beforeEnd) - start);
+      remove(before.getKey(), before.getValue());
+      start = before.getKey();
+      end = Math.max(end, beforeEnd);
+    }
+    Map.Entry<Integer, Integer> after = byStart.ceilingEntry(start);
+    while(after != null && after.getKey() <= end) {
+      long afterEnd = (long)after.getKey() + after.getValue();
+      freed -= Math.max(0, Math.min(end, afterEnd) - after.getKey());
+      remove(after.getKey(), after.getValue());
+      end = Math.max(end, afterEnd);
+      after = byStart.ceilingEntry(start);
+    }
+    add(start, (int)(end - start));
+    numFree += Math.max(0, freed);
+  }
+
+  /** Returns the number of free pages. */
+  public long getNumFree() {
+    return numFree;
+  }
+
+  /** Returns the length of the longest free run. */
+  public int getLongestRun() {
+    return bySize.isEmpty() ? 0 : (int)(bySize.last().longValue() >>> 32);
+  }
+
+  /** Returns the number of free runs. */
+  public int getNumExtents() {
+    return byStart.size();
+  }
+
+  private void add(int start, int length) {
+    byStart.put(start, length);
+    bySize.add(((long)length << 32) | start);
+  }
+
+  private void remove(int start, int length) {
+    byStart.remove(start);
+    bySize.remove(((long)length << 32) | start);
+  }
+}
@@ -0,0 +1,10 @@
+package diskmgr;
+import chainexception.*;
+
+public class InvalidPageSizeException extends ChainException {
+  
+  public InvalidPageSizeException(Exception e, String name)
+    { 
+      super(e, name); 
+    }
+}
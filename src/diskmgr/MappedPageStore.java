@@ -0,0 +1,98 @@
+package diskmgr;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Backend that maps the database file in memory.
+ * <br>
+ * Pages are copied straight out of (and into) the mapping, so a page
+ * that is in the OS page cache costs a memcpy instead of a seek and a
+ * read system call. A single mapping is limited to 2 GB, so the file
+ * is mapped in segments of SEGMENT_BYTES; the mapping is redone
+ * whenever the file changes size. Dirty mapped pages are written back
+ * by the OS, and forced to disk on close.
+ */
+class MappedPageStore implements PageStore {
+
+  /** Bytes per mapped segment (1 GB). */
+  private static final int SEGMENT_BYTES = 1 << 30;
+
+  private RandomAccessFile fp;
+  private FileChannel channel;
+  private MappedByteBuffer[] segments;
+  private int page_size;
+  private int segment_pages;
+
+  public MappedPageStore(String fname, int page_size) throws IOException {
+    this.page_size = page_size;
+    segment_pages = SEGMENT_BYTES / page_size;
+    fp = new RandomAccessFile(fname, "rw");
+    channel = fp.getChannel();
+    map((int)(fp.length() / page_size));
+  }
+
+  public void read(int pid, byte[] dst) throws IOException {
+    page(pid).get(dst, 0, page_size);
+  }
+
+  public void read(int pid, int count, byte[][] dst) throws IOException {
+    for(int i = 0; i < count; i++)
+      page(pid + i).get(dst[i], 0, page_size);
+  }
+
+  public void write(int pid, byte[] src) throws IOException {
+    page(pid).put(src, 0, page_size);
+  }
+
+  public void write(int pid, int count, byte[][] src) throws IOException {
+    for(int i = 0; i < count; i++)
+      page(pid + i).put(src[i], 0, page_size);
+  }
+
+  public void setNumPages(int num_pages) throws IOException {
+    force();
+    segments = null;
+    fp.setLength((long)num_pages * page_size);
+    map(num_pages);
+  }
+
+  public void close() throws IOException {
+    force();
+    segments = null;
+    fp.close();
+  }
+
+  /**
+   * Returns a view of the mapping positioned at the page. Views are
+   * independent, so concurrent callers never share a position.
+   */
+  private ByteBuffer page(int pid) throws IOException {
+    int seg = pid / segment_pages;
+    if(segments == null || seg >= segments.length)
+      throw new IOException("Page " + pid + " is past the end of the mapped file");
+    ByteBuffer view = segments[seg].duplicate();
+    view.position((pid % segment_pages) * page_size);
+    return view;
+  }
+
+  private void map(int num_pages) throws IOException {
+    int num_segments = (num_pages + segment_pages - 1) / segment_pages;
+    segments = new MappedByteBuffer[num_segments];
+    for(int i = 0; i < num_segments; i++) {
+      long start = (long)i * segment_pages * page_size;
+      long size = (long)Math.min(segment_pages, num_pages - i * segment_pages) * page_size;
+      segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+    }
+  }
+
+  private void force() {
+    if(segments != null)
+      for(int i = 0; i < segments.length; i++)
+        segments[i].force();
+  }
+
+} // class MappedPageStore
@@ -0,0 +1,14 @@
+package diskmgr;
+
+/**
+ * A page read from disk does not match the checksum stamped when it
+ * was written: the page was corrupted or only partly written.
+ * A FileIOException, so existing callers of read_page still catch it.
+ */
+public class PageChecksumException extends FileIOException {
+  
+  public PageChecksumException(Exception e, String name)
+    { 
+      super(e, name); 
+    }
+}
@@ -0,0 +1,108 @@
+package diskmgr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C checksums of the pages of a database, kept in a side file
+ * (the database name followed by SUFFIX) as one int per page. Pages
+ * themselves stay untouched, so the layers above keep the whole page.
+ * The checksums are loaded in memory when the database is opened:
+ * verifying a read costs one CRC32C of the page, which the JVM computes
+ * with the CPU's CRC instructions, and stamping a write costs the CRC
+ * and a 4 byte write to the side file. 0 means no checksum yet (the
+ * page was never written, or its CRC happens to be 0).
+ */
+class PageChecksums {
+
+  /** Appended to the database name to get the checksum file. */
+  public static final String SUFFIX = ".crc";
+
+  private final RandomAccessFile fp;
+  private final FileChannel channel;
+  private final int page_size;
+  // Replaced, never shrunk, when the database grows
+  private volatile int[] sums;
+
+  public PageChecksums(String fname, int page_size) throws IOException {
+    this.page_size = page_size;
+    fp = new RandomAccessFile(fname + SUFFIX, "rw");
+    channel = fp.getChannel();
+    int count = (int)(fp.length() / 4);
+    sums = new int[count];
+    ByteBuffer buffer = ByteBuffer.allocate(count * 4);
+    while(buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0)
+      ;
+    buffer.flip();
+    buffer.asIntBuffer().get(sums, 0, buffer.remaining() / 4);
+  }
+
+  /** True if the checksum file of database fname exists. */
+  public static boolean exist(String fname) {
+    return new File(fname + SUFFIX).exists();
+  }
+
+  /** Removes the checksum file of database fname. */
+  public static void delete(String fname) {
+    new File(fname + SUFFIX).delete();
+  }
+
+  /** Checks page pid against its checksum. */
+  public boolean verify(int pid, byte[] data) {
+    int[] current = sums;
+    if(pid >= current.length || current[pid] == 0)
+      return true;
+    return current[pid] == checksum(data);
+  }
+
+  /** Records the checksums of the count pages starting at pid. The
+   * CRCs are computed first; storing them and writing them out holds
+   * the lock grow takes, so a concurrent grow cannot copy the array
+   * before they are in it, and the file gets them in the same order as
+   * memory. */
+  public void stamp(int pid, int count, byte[][] pages) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(count * 4);
+    for(int i = 0; i < count; i++)
+      buffer.putInt(checksum(pages[i]));
+    buffer.flip();
+    synchronized(this) {
+      int[] current = grow(pid + count);
+      for(int i = 0; i < count; i++)
+        current[pid + i] = buffer.getInt(i * 4);
+      long position = (long)pid * 4;
+      while(buffer.hasRemaining())
+        channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  /** Forgets the checksums, the file is truncated. */
+  public synchronized void clear() throws IOException {
+    fp.setLength(0);
+    sums = new int[0];
+  }
+
+  public void close() throws IOException {
+    fp.close();
+  }
+
+  private int checksum(byte[] data) {
+    CRC32C crc = new CRC32C();
+    crc.update(data, 0, page_size);
+    return (int)crc.getValue();
+  }
+
+  private synchronized int[] grow(int count) {
+    int[] current = sums;
+    if(count <= current.length)
+      return current;
+    int[] grown = new int[Math.max(count, current.length * 2)];
+    System.arraycopy(current, 0, grown, 0, current.length);
+    sums = grown;
+    return grown;
+  }
+
+} // class PageChecksums
@@ -0,0 +1,32 @@
+package diskmgr;
+
+import java.io.IOException;
+
+/**
+ * Storage backend of a database file.
+ * <br>
+ * A store only moves whole pages between memory and the file; page
+ * numbers are checked by DiskMgr before they get here. Page pid lives
+ * at byte offset pid * page size, the page size of the database.
+ */
+interface PageStore {
+
+  /** Copies page pid into dst. */
+  public void read(int pid, byte[] dst) throws IOException;
+
+  /** Copies the count pages starting at pid into dst[0..count-1]. */
+  public void read(int pid, int count, byte[][] dst) throws IOException;
+
+  /** Copies src into page pid. */
+  public void write(int pid, byte[] src) throws IOException;
+
+  /** Copies src[0..count-1] into the count pages starting at pid. */
+  public void write(int pid, int count, byte[][] src) throws IOException;
+
+  /** Grows or shrinks the file to hold exactly num_pages pages. */
+  public void setNumPages(int num_pages) throws IOException;
+
+  /** Releases the file. */
+  public void close() throws IOException;
+
+} // interface PageStore
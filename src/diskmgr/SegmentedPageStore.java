@@ -0,0 +1,157 @@
+package diskmgr;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * A database stored as a set of segment files of segment_pages pages
+ * each. Page pid lives in segment pid / segment_pages, at page
+ * pid % segment_pages of that file. Segment 0 is the database file
+ * itself, segment k is the file named by segmentName. Each segment file
+ * goes through its own file, mapped, compressed or direct backend, and
+ * runs of pages that cross a segment boundary are split in one I/O per segment.
+ * <br>
+ * Until open is called only segment 0 is known and every page maps to
+ * it, which is how DiskMgr reads the first page of the database.
+ */
+class SegmentedPageStore implements PageStore {
+
+  private final String fname;
+  private final int page_size;
+  private final String storage;
+  private int segment_pages = Integer.MAX_VALUE;
+  // Replaced, never changed in place, when a segment is added
+  private volatile PageStore[] segments;
+
+  /** Opens segment 0 of database fname.
+   *
+   * @param storage DiskMgr.FILE_STORAGE, MAPPED_STORAGE,
+   * COMPRESSED_STORAGE or DIRECT_STORAGE, the backend of every segment
+   * file
+   */
+  public SegmentedPageStore(String fname, int page_size, String storage)
+    throws IOException {
+    this.fname = fname;
+    this.page_size = page_size;
+    this.storage = storage;
+    segments = new PageStore[] { openSegment(0) };
+  }
+
+  /** Name of the file holding segment k of database fname. */
+  public static String segmentName(String fname, int k) {
+    return (k == 0) ? fname : fname + "." + k;
+  }
+
+  /** Sets the segment size and opens the existing segment files of a
+   * database of num_pages pages.
+   *
+   * @exception FileNotFoundException a segment file is missing
+   */
+  public void open(int segment_pages, int num_pages) throws IOException {
+    this.segment_pages = segment_pages;
+    int num_segments = (num_pages + segment_pages - 1) / segment_pages;
+    PageStore[] opened = new PageStore[num_segments];
+    opened[0] = segments[0];
+    for(int k = 1; k < num_segments; k++) {
+      if(!new File(segmentName(fname, k)).exists())
+        throw new FileNotFoundException("Missing segment file " + segmentName(fname, k));
+      opened[k] = openSegment(k);
+    }
+    segments = opened;
+  }
+
+  public void read(int pid, byte[] dst) throws IOException {
+    segment(pid).read(pid % segment_pages, dst);
+  }
+
+  public void read(int pid, int count, byte[][] dst) throws IOException {
+    int done = 0;
+    while(done < count) {
+      int piece = piece(pid + done, count - done);
+      segment(pid + done).read((pid + done) % segment_pages, piece, slice(dst, done, piece));
+      done += piece;
+    }
+  }
+
+  public void write(int pid, byte[] src) throws IOException {
+    segment(pid).write(pid % segment_pages, src);
+  }
+
+  public void write(int pid, int count, byte[][] src) throws IOException {
+    int done = 0;
+    while(done < count) {
+      int piece = piece(pid + done, count - done);
+      segment(pid + done).write((pid + done) % segment_pages, piece, slice(src, done, piece));
+      done += piece;
+    }
+  }
+
+  /** Makes segment 0 a fresh segment of segment_pages pages and adds
+   * the segments needed to hold num_pages pages.
+   */
+  public void create(int segment_pages, int num_pages) throws IOException {
+    this.segment_pages = segment_pages;
+    segments[0].setNumPages(segment_pages);
+    setNumPages(num_pages);
+  }
+
+  /** Adds the segments needed to hold num_pages pages, existing
+   * segments keep their size.
+   */
+  public void setNumPages(int num_pages) throws IOException {
+    int num_segments = (num_pages + segment_pages - 1) / segment_pages;
+    if(num_segments <= segments.length)
+      return;
+    PageStore[] grown = new PageStore[num_segments];
+    System.arraycopy(segments, 0, grown, 0, segments.length);
+    for(int k = segments.length; k < num_segments; k++) {
+      grown[k] = openSegment(k);
+      grown[k].setNumPages(segment_pages);
+    }
+    segments = grown;
+  }
+
+  /** Number of segment files. */
+  public int getNumSegments() {
+    return segments.length;
+  }
+
+  public void close() throws IOException {
+    for(int k = 0; k < segments.length; k++)
+      segments[k].close();
+  }
+
+  private PageStore openSegment(int k) throws IOException {
+    String sname = segmentName(fname, k);
+    if(DiskMgr.MAPPED_STORAGE.equalsIgnoreCase(storage))
+      return new MappedPageStore(sname, page_size);
+    if(DiskMgr.COMPRESSED_STORAGE.equalsIgnoreCase(storage))
+      return new CompressedPageStore(sname, page_size);
+    if(DiskMgr.DIRECT_STORAGE.equalsIgnoreCase(storage))
+      return DirectPageStore.open(sname, page_size);
+    return new FilePageStore(sname, page_size);
+  }
+
+  private PageStore segment(int pid) throws IOException {
+    PageStore[] current = segments;
+    int k = pid / segment_pages;
+    if(k >= current.length)
+      throw new IOException("Page " + pid + " is past the last segment");
+    return current[k];
+  }
+
+  /* Pages of the run that stay in the segment of its first page */
+  private int piece(int pid, int count) {
+    return Math.min(count, segment_pages - pid % segment_pages);
+  }
+
+  private static byte[][] slice(byte[][] pages, int from, int count) {
+    if(from == 0 && count == pages.length)
+      return pages;
+    byte[][] part = new byte[count][];
+    System.arraycopy(pages, from, part, 0, count);
+    return part;
+  }
+
+} // class SegmentedPageStore
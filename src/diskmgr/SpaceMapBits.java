@@ -0,0 +1,72 @@
+package diskmgr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Bit operations on a space-map page, 64 bits at a time.
+ * Bit n of a map page is bit n%8 of byte n/8, so reading the page as
+ * little-endian longs puts bit n at bit n%64 of word n/64. Page sizes
+ * are multiples of 8 bytes, so every page is a whole number of words.
+ */
+class SpaceMapBits {
+
+  private SpaceMapBits() {
+    // static methods only
+  }
+
+  /** Sets (value true) or clears bits [from, to) of the page. */
+  public static void setRange(byte[] pagebuf, int from, int to, boolean value) {
+    if(from >= to)
+      return;
+    ByteBuffer words = wrap(pagebuf);
+    int first = from >>> 6;
+    int last = (to - 1) >>> 6;
+    long firstMask = -1L << (from & 63);
+    long lastMask = -1L >>> (63 - ((to - 1) & 63));
+    if(first == last) {
+      apply(words, first, firstMask & lastMask, value);
+      return;
+    }
+    apply(words, first, firstMask, value);
+    long fill = value ? -1L : 0L;
+    for(int w = first + 1; w < last; w++)
+      words.putLong(w << 3, fill);
+    apply(words, last, lastMask, value);
+  }
+
+  /** Returns the first set bit in [from, to), or to if there is none. */
+  public static int nextSetBit(byte[] pagebuf, int from, int to) {
+    return next(pagebuf, from, to, 0L);
+  }
+
+  /** Returns the first clear bit in [from, to), or to if there is none. */
+  public static int nextClearBit(byte[] pagebuf, int from, int to) {
+    return next(pagebuf, from, to, -1L);
+  }
+
+  /* Word-at-a-time search, flip is xor-ed in to look for clear bits */
+  private static int next(byte[] pagebuf, int from, int to, long flip) {
+    if(from >= to)
+      return to;
+    ByteBuffer words = wrap(pagebuf);
+    int w = from >>> 6;
+    long word = (words.getLong(w << 3) ^ flip) & (-1L << (from & 63));
+    while(word == 0) {
+      w++;
+      if((w << 6) >= to)
+        return to;
+      word = words.getLong(w << 3) ^ flip;
+    }
+    return Math.min((w << 6) + Long.numberOfTrailingZeros(word), to);
+  }
+
+  private static void apply(ByteBuffer words, int w, long mask, boolean value) {
+    long word = words.getLong(w << 3);
+    words.putLong(w << 3, value ? (word | mask) : (word & ~mask));
+  }
+
+  private static ByteBuffer wrap(byte[] pagebuf) {
+    return ByteBuffer.wrap(pagebuf).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
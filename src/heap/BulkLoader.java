@@ -0,0 +1,148 @@
+package heap;
+
+import java.util.ArrayList;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+import chainexception.ChainException;
+
+/*
+    Loads many records into a heap file a page at a time.
+
+    HeapFile.insertRecord looks up a page, pins it, records its free
+    space and rewrites the record count for every record. A BulkLoader
+    keeps the page it fills pinned, goes on to a fresh page when it is
+    full, and writes the Directory Entries of the pages it filled in
+    batches of DIRECTORY_BATCH. The record count is updated once, by
+    close.
+
+    Only the first record goes to a page that already has room; the
+    rest go to pages of their own, filled in order. Records are visible
+    to scans once their Directory Entry is written, so at the latest
+    after close. A loader must be closed, even after an exception, or
+    it keeps its page pinned.
+*/
+public class BulkLoader implements GlobalConst {
+
+    /* Directory Entries written at a time */
+    static final int DIRECTORY_BATCH = 32;
+
+    public BulkLoader(HeapFile file) {
+        this.directory = file.directory;
+    }
+
+    /*
+        1. Check the length of the record, escaped if it looks like a forward.
+        2. If the current page has no room for it, finish the page and
+           start a fresh one.
+        3. Insert the record into the current page.
+    */
+    public RID insert(byte[] record) throws ChainException, java.io.IOException {
+
+        String function_name = "BulkLoader.insert";
+
+        record = RecordForward.stored( record );
+        if( record.length > MAX_TUPSIZE ) {
+            throw new SpaceNotAvailableException( "insertRecord - Tuple too big." );
+        }
+
+        if( page_data == null ) {
+            /* the first record may share a page with earlier ones */
+            startPage( directory.getPageWithCapacity( record.length ) );
+        } else if( page_data.getFreeSpace() <= record.length ) {
+            finishPage();
+            newPage();
+        }
+
+        RID rid = page_data.insertRecord(record);
+        if( rid == null ) {
+            Log.log( LogLevel.MOST, "%s: no room in page [%d] after all\n", function_name, pid_data.pid );
+            finishPage();
+            newPage();
+            rid = page_data.insertRecord(record);
+            if( rid == null ) {
+                Log.log( LogLevel.MOST, "Error inserting record!\n" );
+                return null;
+            }
+        }
+
+        count++;
+        return rid;
+    }
+
+    /*
+        1. Finish the current page.
+        2. Write the Directory Entries that are left.
+        3. Add the records to the record count.
+    */
+    public void close() throws ChainException, java.io.IOException {
+        if( page_data != null )
+            finishPage();
+        flushDirectory();
+        if( count > counted ) {
+            directory.addRecCount( count - counted );
+            counted = count;
+        }
+        Log.log( LogLevel.LESS, "BulkLoader.close: loaded [%d] records\n", count );
+    }
+
+    /* number of records inserted */
+    public int getCount() { return count; }
+
+    private void startPage(PageId pid) throws ChainException {
+        pid_data = pid;
+        freshPage = false;
+        page_data = new HFPage();
+        Minibase.BufferManager.pinPage( pid_data, page_data, false );
+        page_data.setCurPage( pid_data );
+    }
+
+    private void newPage() throws ChainException {
+        String function_name = "BulkLoader.newPage";
+
+        page_data = new HFPage();
+        pid_data = Minibase.BufferManager.newPage(page_data, 1);
+        page_data.init(pid_data);
+        freshPage = true;
+        Log.log( LogLevel.MORE, "%s: filling new page [%d]\n", function_name, pid_data.pid );
+    }
+
+    /*
+        Unpins the current page. A fresh page gets a Directory Entry with
+        its free space, a page of the file gets its free space updated.
+    */
+    private void finishPage() throws ChainException, java.io.IOException {
+        int freeSpace = page_data.getFreeSpace();
+        Minibase.BufferManager.unpinPage( pid_data, true );
+
+        if( freshPage ) {
+            pending.add( new DirectoryEntry( pid_data, freeSpace, 0 ) );
+            if( pending.size() >= DIRECTORY_BATCH )
+                flushDirectory();
+        } else {
+            directory.updateFreeSpace( pid_data, freeSpace );
+        }
+        page_data = null;
+        pid_data = null;
+    }
+
+    private void flushDirectory() throws ChainException, java.io.IOException {
+        if( pending.isEmpty() )
+            return;
+        directory.addDirectoryEntries( pending );
+        pending.clear();
+    }
+
+    private final Directory directory;
+    private HFPage page_data;
+    private PageId pid_data;
+    /* the current page is not in the directory yet */
+    private boolean freshPage;
+    private final ArrayList<DirectoryEntry> pending = new ArrayList<DirectoryEntry>();
+    private int count;
+    /* records already in the record count */
+    private int counted;
+}
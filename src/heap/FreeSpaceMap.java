@@ -0,0 +1,364 @@
+package heap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+
+import bufmgr.PinnedPage;
+
+import chainexception.ChainException;
+
+/*
+    Persistent free-space map of a heap file.
+
+    Every data page of the file has a 5 byte entry: its page id and its
+    free space, rounded down to a bucket of a 256th of the database's
+    page size. Entries are
+    appended to a chain of map pages in the order the data pages were
+    added. The first map page is registered with the disk manager under
+    mapName(file), and its header also points to the last map page.
+
+    Nothing is read when the file is opened but the first map page:
+    - insertRecord looks for room starting from the map page that last
+      had some (the last map page after an open), so a file that is
+      filled in order finds room on the first page it looks at;
+    - map pages that were looked at are summed up in memory by their
+      largest bucket, so a search skips the pages known to be too full;
+    - pid -> entry lookups (delete, update, getRecord) read the map pages
+      in order the first time and remember every entry they pass.
+
+    Map page layout:
+        0  next map page
+        4  number of entries
+        8  last map page (first map page only)
+        12 entries: page id (4 bytes), bucket (1 byte)
+*/
+class FreeSpaceMap implements GlobalConst {
+
+    private static final int NEXT_PAGE = 0;
+    private static final int NUM_ENTRIES = 4;
+    private static final int LAST_PAGE = 8;
+    private static final int FIRST_ENTRY = 12;
+    private static final int ENTRY_SIZE = 5;
+
+    static String mapName(String fileName) {
+        return fileName + ".fsm";
+    }
+
+    /* true if the heap file has a free-space map */
+    static boolean exists(String fileName) throws ChainException, java.io.IOException {
+        PageId pid = Minibase.DiskManager.get_file_entry( mapName(fileName) );
+        return pid != null && pid.pid != INVALID_PAGEID;
+    }
+
+    /*
+        Creates an empty map for a new heap file.  A map left behind under
+        the same name (by a file deleted without its map) is deleted first.
+    */
+    static FreeSpaceMap create(String fileName) throws ChainException, java.io.IOException {
+        String function_name = "FreeSpaceMap.create";
+
+        if( exists(fileName) ) {
+            Log.log( LogLevel.MOST, "%s: deleting stale map of [%s]\n", function_name, fileName );
+            delete(fileName);
+        }
+        return new FreeSpaceMap(fileName);
+    }
+
+    /*
+        Deletes the map of fileName: frees its pages and removes its entry.
+    */
+    static void delete(String fileName) throws ChainException, java.io.IOException {
+        String function_name = "FreeSpaceMap.delete";
+
+        PageId pid = Minibase.DiskManager.get_file_entry( mapName(fileName) );
+        if( pid == null || pid.pid == INVALID_PAGEID )
+            return;
+
+        PinnedPage page = new PinnedPage();
+        int freed = 0;
+        for( int mapPID = pid.pid; mapPID != INVALID_PAGEID; freed++ ) {
+            Minibase.BufferManager.pin( page, new PageId(mapPID), false );
+            int next = Convert.getIntValue( NEXT_PAGE, page.getData() );
+            Minibase.BufferManager.unpin( page );
+            Minibase.BufferManager.freePage( new PageId(mapPID) );
+            mapPID = next;
+        }
+        Minibase.DiskManager.delete_file_entry( mapName(fileName) );
+        Log.log( LogLevel.LESS, "%s: freed [%d] map pages of [%s]\n", function_name, freed, fileName );
+    }
+
+    /*
+        Opens the map of fileName, creating an empty one if it has none.
+    */
+    FreeSpaceMap(String fileName) throws ChainException, java.io.IOException {
+        String function_name = "FreeSpaceMap constructor";
+
+        /* free space is kept in 256 buckets, rounded down so a page never
+           has less room than its bucket says */
+        int pageSize = Minibase.DiskManager.db_page_size();
+        bucketBytes = (pageSize + 255) / 256;
+        entriesPerPage = (pageSize - FIRST_ENTRY) / ENTRY_SIZE;
+
+        PageId pid = Minibase.DiskManager.get_file_entry( mapName(fileName) );
+        if( pid == null || pid.pid == INVALID_PAGEID ) {
+            Log.log( LogLevel.MOST, "%s: creating map for [%s]\n", function_name, fileName );
+            headPID = newMapPage();
+            setLastPage( headPID );
+            Minibase.DiskManager.add_file_entry( mapName(fileName), new PageId(headPID) );
+        } else {
+            headPID = pid.pid;
+        }
+
+        Minibase.BufferManager.pin( handle, new PageId(headPID), false );
+        lastPID = Convert.getIntValue( LAST_PAGE, handle.getData() );
+        Minibase.BufferManager.unpin( handle );
+        hintPID = lastPID;
+    }
+
+    /*
+        Returns a data page with more than needed bytes free, null if
+        every page is too full. Starts at the map page that had room
+        last time, then goes through the chain from the start.
+    */
+    PageId findPage(int needed) throws ChainException, java.io.IOException {
+        PageId found = searchMapPage( hintPID, needed );
+        for( int i = 0; found == null; i++ ) {
+            int pid = mapPageAt(i);
+            if( pid == INVALID_PAGEID )
+                break;
+            if( pid != hintPID )
+                found = searchMapPage( pid, needed );
+        }
+        return found;
+    }
+
+    /*
+        Adds a new data page with freeSpace bytes free, at the end of the
+        last map page or of a new one.
+    */
+    void addPage(PageId pid, int freeSpace) throws ChainException, java.io.IOException {
+        String function_name = "addPage";
+
+        Minibase.BufferManager.pin( handle, new PageId(lastPID), false );
+        int count = Convert.getIntValue( NUM_ENTRIES, handle.getData() );
+        if( count == entriesPerPage ) {
+            /* the last map page is full, chain a new one */
+            int newPID = newMapPage();
+            Convert.setIntValue( newPID, NEXT_PAGE, handle.getData() );
+            handle.setDirty();
+            Minibase.BufferManager.unpin( handle );
+            Log.log( LogLevel.LESS, "%s: new map page [%d]\n", function_name, newPID );
+
+            if( chainComplete )
+                chain.add( newPID );
+            lastPID = newPID;
+            setLastPage( lastPID );
+            Minibase.BufferManager.pin( handle, new PageId(lastPID), false );
+            count = 0;
+        }
+
+        int offset = FIRST_ENTRY + count * ENTRY_SIZE;
+        Convert.setIntValue( pid.pid, offset, handle.getData() );
+        handle.getData()[offset + 4] = (byte) bucketOf(freeSpace);
+        Convert.setIntValue( count + 1, NUM_ENTRIES, handle.getData() );
+        handle.setDirty();
+        Minibase.BufferManager.unpin( handle );
+
+        slots.put( pid.pid, slot(lastPID, count) );
+        noteBucket( lastPID, bucketOf(freeSpace) );
+        hintPID = lastPID;
+    }
+
+    /*
+        Records the new free space of a data page of the file.
+        Returns false if the page is not in the map.
+    */
+    boolean updatePage(PageId pid, int freeSpace) throws ChainException, java.io.IOException {
+        long slot = locate(pid.pid);
+        if( slot < 0 )
+            return false;
+
+        int mapPID = (int)(slot >>> 32);
+        int offset = FIRST_ENTRY + (int)slot * ENTRY_SIZE;
+        int bucket = bucketOf(freeSpace);
+        Minibase.BufferManager.pin( handle, new PageId(mapPID), false );
+        handle.getData()[offset + 4] = (byte) bucket;
+        handle.setDirty();
+        Minibase.BufferManager.unpin( handle );
+
+        /* a page that got room back is worth searching again */
+        Integer max = maxBucket.get(mapPID);
+        if( max != null && bucket > max ) {
+            maxBucket.put( mapPID, bucket );
+            hintPID = mapPID;
+        }
+        return true;
+    }
+
+    /*
+        Takes a freed data page out of the map. Its entry stays, with no
+        page and no room, until the map is rebuilt.
+    */
+    void removePage(PageId pid) throws ChainException, java.io.IOException {
+        long slot = locate(pid.pid);
+        if( slot < 0 )
+            return;
+
+        int mapPID = (int)(slot >>> 32);
+        int offset = FIRST_ENTRY + (int)slot * ENTRY_SIZE;
+        Minibase.BufferManager.pin( handle, new PageId(mapPID), false );
+        Convert.setIntValue( INVALID_PAGEID, offset, handle.getData() );
+        handle.getData()[offset + 4] = 0;
+        handle.setDirty();
+        Minibase.BufferManager.unpin( handle );
+
+        slots.remove( pid.pid );
+    }
+
+    /* true if pid is a data page of the file */
+    boolean containsPage(PageId pid) throws ChainException, java.io.IOException {
+        return locate(pid.pid) >= 0;
+    }
+
+    /*
+        Looks for room in one map page and sums the page up.
+    */
+    private PageId searchMapPage(int mapPID, int needed) throws ChainException, java.io.IOException {
+        Integer max = maxBucket.get(mapPID);
+        if( max != null && max * bucketBytes <= needed )
+            return null;
+
+        PageId found = null;
+        int best = 0;
+        Minibase.BufferManager.pin( handle, new PageId(mapPID), false );
+        byte[] data = handle.getData();
+        int count = Convert.getIntValue( NUM_ENTRIES, data );
+        for( int i = 0; i < count; i++ ) {
+            int offset = FIRST_ENTRY + i * ENTRY_SIZE;
+            int bucket = data[offset + 4] & 0xff;
+            best = Math.max( best, bucket );
+            if( found == null && bucket * bucketBytes > needed ) {
+                found = new PageId( Convert.getIntValue(offset, data) );
+                slots.put( found.pid, slot(mapPID, i) );
+            }
+        }
+        Minibase.BufferManager.unpin( handle );
+
+        if( found != null ) {
+            hintPID = mapPID;
+        } else {
+            maxBucket.put( mapPID, best );
+        }
+        return found;
+    }
+
+    /*
+        Finds the map entry of a data page: (map page << 32 | entry), -1
+        if the page is not in the map. Map pages are read in order, once,
+        remembering every entry.
+    */
+    private long locate(int pid) throws ChainException, java.io.IOException {
+        if( pid == INVALID_PAGEID )
+            return -1;
+        Long slot = slots.get(pid);
+        if( slot != null )
+            return slot;
+
+        while( indexedPages < chain.size() || !chainComplete ) {
+            int mapPID = mapPageAt(indexedPages);
+            if( mapPID == INVALID_PAGEID )
+                break;
+            Minibase.BufferManager.pin( handle, new PageId(mapPID), false );
+            byte[] data = handle.getData();
+            int count = Convert.getIntValue( NUM_ENTRIES, data );
+            for( int i = 0; i < count; i++ )
+                slots.put( Convert.getIntValue(FIRST_ENTRY + i * ENTRY_SIZE, data), slot(mapPID, i) );
+            Minibase.BufferManager.unpin( handle );
+            indexedPages++;
+
+            slot = slots.get(pid);
+            if( slot != null )
+                return slot;
+        }
+        return -1;
+    }
+
+    /*
+        Page id of the i-th map page, reading the chain as far as needed;
+        INVALID_PAGEID past the end.
+    */
+    private int mapPageAt(int i) throws ChainException, java.io.IOException {
+        if( chain.isEmpty() )
+            chain.add( headPID );
+        while( i >= chain.size() && !chainComplete ) {
+            int last = chain.get( chain.size() - 1 );
+            Minibase.BufferManager.pin( handle, new PageId(last), false );
+            int next = Convert.getIntValue( NEXT_PAGE, handle.getData() );
+            Minibase.BufferManager.unpin( handle );
+            if( next == INVALID_PAGEID )
+                chainComplete = true;
+            else
+                chain.add( next );
+        }
+        return i < chain.size() ? chain.get(i) : INVALID_PAGEID;
+    }
+
+    private int newMapPage() throws ChainException, java.io.IOException {
+        PageId pid = Minibase.BufferManager.newPage( handle.getPage(), 1 );
+        Minibase.BufferManager.unpinPage( pid, false );
+
+        Minibase.BufferManager.pin( handle, pid, true );
+        Convert.setIntValue( INVALID_PAGEID, NEXT_PAGE, handle.getData() );
+        Convert.setIntValue( 0, NUM_ENTRIES, handle.getData() );
+        Convert.setIntValue( INVALID_PAGEID, LAST_PAGE, handle.getData() );
+        handle.setDirty();
+        Minibase.BufferManager.unpin( handle );
+        return pid.pid;
+    }
+
+    private void setLastPage(int pid) throws ChainException, java.io.IOException {
+        Minibase.BufferManager.pin( handle, new PageId(headPID), false );
+        Convert.setIntValue( pid, LAST_PAGE, handle.getData() );
+        handle.setDirty();
+        Minibase.BufferManager.unpin( handle );
+    }
+
+    private void noteBucket(int mapPID, int bucket) {
+        Integer max = maxBucket.get(mapPID);
+        if( max != null && bucket > max )
+            maxBucket.put( mapPID, bucket );
+    }
+
+    private int bucketOf(int freeSpace) {
+        return Math.min( 255, Math.max(0, freeSpace) / bucketBytes );
+    }
+
+    private static long slot(int mapPID, int entry) {
+        return ((long)mapPID << 32) | entry;
+    }
+
+    /* bytes per bucket and entries per map page, for the database's page size */
+    private final int bucketBytes;
+    private final int entriesPerPage;
+
+    private final int headPID;
+    private int lastPID;
+    /* map page to start the next search at */
+    private int hintPID;
+    private final PinnedPage handle = new PinnedPage();
+
+    /* map pages in chain order, as far as they were read */
+    private final ArrayList<Integer> chain = new ArrayList<Integer>();
+    private boolean chainComplete;
+    /* map pages whose entries are all in slots */
+    private int indexedPages;
+    /* largest bucket of the map pages searched without success */
+    private final HashMap<Integer, Integer> maxBucket = new HashMap<Integer, Integer>();
+    /* data page -> map entry, for the entries read so far */
+    private final HashMap<Integer, Long> slots = new HashMap<Integer, Long>();
+}
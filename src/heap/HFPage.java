@@ -0,0 +1,218 @@
+package heap;
+
+import java.util.Arrays;
+
+import global.GlobalConst;
+import global.Page;
+import global.PageId;
+import global.RID;
+
+/*
+    A slotted page of records: a view of the bytes of a buffer frame.
+
+    header:   slot count, bytes used by records, prev page, next page, cur page
+    slots:    after the header, one per slot: position and length of a record
+    records:  from the end of the page towards the slots
+
+    A record is at the same slot for as long as it lives, so its RID does
+    not change; a deleted record leaves an empty slot, that a later insert
+    reuses, and the records before it are moved up so the free space is
+    always in one piece, between the slots and the records.  Empty slots at
+    the end are dropped, so a page whose records are all deleted has the
+    free space of a new one.
+
+    Positions are distances from the end of the page and lengths are 16
+    bits, which is enough for the largest page DiskMgr allows.
+
+    The page size is the length of the frame, so HFPage works with any
+    page size of the database.  A page that comes from newPage has what was
+    on the disk before, init() must be called before anything else.
+*/
+public class HFPage extends Page implements GlobalConst {
+
+    private static final int SLOT_CNT  = 0;
+    private static final int USED      = 2;
+    private static final int PREV_PAGE = 4;
+    private static final int NEXT_PAGE = 8;
+    private static final int CUR_PAGE  = 12;
+
+    static final int HEADER_SIZE = 16;
+    static final int SLOT_SIZE = 4;
+
+    /* the length of an empty slot */
+    private static final int EMPTY = 0xffff;
+
+    /* an empty page: no slots, no records, no prev or next page */
+    public void init(PageId pageno) {
+        put( SLOT_CNT, 2, 0 );
+        put( USED, 2, 0 );
+        put( PREV_PAGE, 4, INVALID_PAGEID );
+        put( NEXT_PAGE, 4, INVALID_PAGEID );
+        put( CUR_PAGE, 4, pageno.pid );
+    }
+
+    public PageId getCurPage()  { return new PageId( (int) get(CUR_PAGE, 4) ); }
+    public PageId getPrevPage() { return new PageId( (int) get(PREV_PAGE, 4) ); }
+    public PageId getNextPage() { return new PageId( (int) get(NEXT_PAGE, 4) ); }
+
+    public void setCurPage(PageId pageno)  { put( CUR_PAGE, 4, pageno.pid ); }
+    public void setPrevPage(PageId pageno) { put( PREV_PAGE, 4, pageno.pid ); }
+    public void setNextPage(PageId pageno) { put( NEXT_PAGE, 4, pageno.pid ); }
+
+    /*
+        The largest record an insert can take, with a new slot for it.
+        Inserts that reuse an empty slot can take SLOT_SIZE bytes more.
+    */
+    public int getFreeSpace() {
+        return Math.max( 0, gap() - SLOT_SIZE );
+    }
+
+    /*
+        Inserts a record into an empty slot, or a new one.
+        Returns its RID, null if the page does not have the room.
+    */
+    public RID insertRecord(byte[] record) {
+        int slotCnt = slotCount();
+        int slot = 0;
+        while( slot < slotCnt && length(slot) != EMPTY )
+            slot++;
+
+        int needed = record.length + ( slot == slotCnt ? SLOT_SIZE : 0 );
+        if( needed > gap() )
+            return null;
+
+        int used = (int) get( USED, 2 ) + record.length;
+        System.arraycopy( record, 0, data, data.length - used, record.length );
+        put( USED, 2, used );
+        if( slot == slotCnt )
+            put( SLOT_CNT, 2, slotCnt + 1 );
+        setSlot( slot, used, record.length );
+        return new RID( getCurPage(), slot );
+    }
+
+    /* a copy of the record at rid */
+    public byte[] selectRecord(RID rid) {
+        checkRID( rid );
+        int offset = offset( rid.slotno );
+        return Arrays.copyOfRange( data, offset, offset + length(rid.slotno) );
+    }
+
+    /* overwrites the record at rid with a record of the same length */
+    public void updateRecord(RID rid, Tuple record) {
+        checkRID( rid );
+        if( record.getLength() != length(rid.slotno) )
+            throw new IllegalArgumentException( "updateRecord - record length [" + record.getLength()
+                    + "] for a record of [" + length(rid.slotno) + "] bytes" );
+        System.arraycopy( record.getTupleByteArray(), 0, data, offset(rid.slotno), record.getLength() );
+    }
+
+    /*
+        1. Move the records before the record at rid up over it.
+        2. Move the position of their slots by as much.
+        3. Empty the slot and drop the empty slots at the end.
+    */
+    public void deleteRecord(RID rid) {
+        checkRID( rid );
+        int offset = offset( rid.slotno );
+        int length = length( rid.slotno );
+        int used = (int) get( USED, 2 );
+        int start = data.length - used;
+
+        System.arraycopy( data, start, data, start + length, offset - start );
+        int slotCnt = slotCount();
+        for( int slot = 0; slot < slotCnt; slot++ ) {
+            if( length(slot) != EMPTY && offset(slot) < offset )
+                setSlot( slot, data.length - offset(slot) - length, length(slot) );
+        }
+        put( USED, 2, used - length );
+
+        setSlot( rid.slotno, 0, EMPTY );
+        while( slotCnt > 0 && length(slotCnt - 1) == EMPTY )
+            slotCnt--;
+        put( SLOT_CNT, 2, slotCnt );
+    }
+
+    /* true if rid is a record of this page */
+    public boolean hasRecord(RID rid) {
+        return rid.pageno.pid == (int) get( CUR_PAGE, 4 )
+                && rid.slotno >= 0 && rid.slotno < slotCount() && length(rid.slotno) != EMPTY;
+    }
+
+    /* the first record of the page, null if it has none */
+    public RID firstRecord() {
+        return recordFrom( 0 );
+    }
+
+    /* the record after rid, null if it is the last */
+    public RID nextRecord(RID rid) {
+        return recordFrom( rid.slotno + 1 );
+    }
+
+    public boolean hasNext(RID rid) {
+        return nextRecord( rid ) != null;
+    }
+
+    public void print() {
+        int slotCnt = slotCount();
+        System.out.printf( "page [%d] prev [%d] next [%d] slots [%d] used [%d] free [%d]\n",
+                (int) get(CUR_PAGE, 4), (int) get(PREV_PAGE, 4), (int) get(NEXT_PAGE, 4),
+                slotCnt, get(USED, 2), getFreeSpace() );
+        for( int slot = 0; slot < slotCnt; slot++ ) {
+            if( length(slot) == EMPTY )
+                System.out.printf( "  slot [%d] empty\n", slot );
+            else
+                System.out.printf( "  slot [%d] offset [%d] length [%d]\n", slot, offset(slot), length(slot) );
+        }
+    }
+
+    private RID recordFrom(int slot) {
+        int slotCnt = slotCount();
+        for( ; slot < slotCnt; slot++ ) {
+            if( length(slot) != EMPTY )
+                return new RID( getCurPage(), slot );
+        }
+        return null;
+    }
+
+    private void checkRID(RID rid) {
+        if( !hasRecord(rid) )
+            throw new IllegalArgumentException( "no record at page [" + rid.pageno.pid
+                    + "] slot [" + rid.slotno + "] of page [" + get(CUR_PAGE, 4) + "]" );
+    }
+
+    /* the free bytes between the slots and the records */
+    private int gap() {
+        return data.length - HEADER_SIZE - slotCount() * SLOT_SIZE - (int) get( USED, 2 );
+    }
+
+    private int slotCount() {
+        return (int) get( SLOT_CNT, 2 );
+    }
+
+    private int offset(int slot) {
+        return data.length - (int) get( HEADER_SIZE + slot * SLOT_SIZE, 2 );
+    }
+
+    private int length(int slot) {
+        return (int) get( HEADER_SIZE + slot * SLOT_SIZE + 2, 2 );
+    }
+
+    /* distance is from the end of the page to the record */
+    private void setSlot(int slot, int distance, int length) {
+        put( HEADER_SIZE + slot * SLOT_SIZE, 2, distance );
+        put( HEADER_SIZE + slot * SLOT_SIZE + 2, 2, length );
+    }
+
+    /* big-endian, like Convert, without its checked exceptions */
+    private long get(int offset, int bytes) {
+        long value = 0;
+        for( int i = 0; i < bytes; i++ )
+            value = (value << 8) | (data[offset + i] & 0xff);
+        return value;
+    }
+
+    private void put(int offset, int bytes, long value) {
+        for( int i = 0; i < bytes; i++ )
+            data[offset + i] = (byte)(value >>> (8 * (bytes - 1 - i)));
+    }
+}
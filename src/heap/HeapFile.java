@@ -1,7 +1,7 @@
 /*
 TODO:
 
-- In memory structure for checking capacity of pages
+- In memory structure for checking capacity of pages: DONE (free-space map)
 - Saving and re-running: is this required??
 - Exceptions
 - Update and Delete
@@ -25,16 +25,20 @@ NOTES:
 - We may want to think of more test cases.  For example, I had forgotten to update the free
   space in both the in memory as well as the disk structures!
 - We may want to do some testing with the number of records, for example.
-- Current updateRecord disallows updates with different lengths than what is present currently in the DB.
+- updateRecord moves records that change length and leaves a forward at their RID (RecordForward).
 
 */
 package heap;
 
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import global.RID;
 import global.Minibase;
@@ -67,7 +71,7 @@ class DirectoryEntry {
         this.data = new byte[getRecSize()];
     }
 
-    public DirectoryEntry(byte [] ba) {
+    public DirectoryEntry(byte [] ba) throws java.io.IOException {
         String function_name = "DirectoryEntry(byte[] ba)";
         this.data = ba;
         if( ba.length != getRecSize() ) {
@@ -123,7 +127,7 @@ class RecCountEntry {
         data = new byte[getRecSize()];
     }
 
-    public RecCountEntry(byte[] ba) {
+    public RecCountEntry(byte[] ba) throws java.io.IOException {
         String function_name = "RecCountEntry Constructor";
 
         if( ba.length != getRecSize() ) {
@@ -152,19 +156,14 @@ class RecCountEntry {
     private byte[] data;
 };
 
-class ComparePIDDirectoryEntry implements Comparator<DirectoryEntry> {
-    public int compare(DirectoryEntry dirent1, DirectoryEntry dirent2) {
-        return( dirent1.getPageId().pid - dirent2.getPageId().pid );
-    }
-}
-
 class Directory implements global.GlobalConst {
-    public Directory(String name) throws java.io.IOException {
+    public Directory(String name) throws ChainException, java.io.IOException {
 
         String function_name = "Directory constructor";
         Log.log(LogLevel.MOST, "%s: checking if file [%s] exists\n", function_name, name );
 
         initialize();
+        this.name = name;
 
         PageId pid = Minibase.DiskManager.get_file_entry( name );
 
@@ -172,28 +171,27 @@ class Directory implements global.GlobalConst {
 
         if( pid == null || pid.pid == -1 ) {
             createFile(name);
+        } else if( FreeSpaceMap.exists(name) ) {
+            openFile(pid, name);
         } else {
-            readFile(pid);
+            readFile(pid, name);
         }
     }
 
     private void initialize() throws java.io.IOException {
-        /* create our tree to manage the capacity */
-        page_capacity_tree = new TreeMap<Integer, LinkedList<DirectoryEntry>>();
-        page_id_tree = new TreeSet<DirectoryEntry> ( new ComparePIDDirectoryEntry() );
-
         /* remember the number of records */
         reccount = 0;
     }
 
-    private void createFile(String name) throws java.io.IOException {
+    private void createFile(String name) throws ChainException, java.io.IOException {
 
         String function_name = "createFile";
         Log.log( LogLevel.MOST, "%s: creating file [%s]\n", function_name, name );
         /* create a new page for the Directory */
         HFPage page = new HFPage();
         PageId pid = Minibase.BufferManager.newPage(page, 1);
-        Minibase.BufferManager.unpinPage(pid, false);
+        page.init(pid);
+        Minibase.BufferManager.unpinPage(pid, true);
 
         Log.log( LogLevel.MOST, "Initializing Heapfile - allocating a new page [%d]\n", pid.pid ) ;
 
@@ -206,20 +204,48 @@ class Directory implements global.GlobalConst {
 
         /* insert a zero record entry */
         insertRecCount();
+
+        /* and an empty free-space map, never one left behind by an older file */
+        free_space_map = FreeSpaceMap.create(name);
+    }
+
+    /*
+        Opens a file that has a free-space map: only the record count is
+        read, the map is read as inserts, deletes and updates need it.
+    */
+    private void openFile( PageId startingPID, String name ) throws ChainException, java.io.IOException {
+
+        String function_name = "openFile";
+        Log.log( LogLevel.MOST, "%s: opening file [%s]\n", function_name, name );
+
+        this.startingPID = startingPID;
+
+        HFPage page_dir = new HFPage();
+        Minibase.BufferManager.pinPage( startingPID, page_dir, false );
+        page_dir.setCurPage( startingPID );
+        readRecCount(page_dir);
+        Minibase.BufferManager.unpinPage( startingPID, false );
+
+        free_space_map = new FreeSpaceMap(name);
     }
 
     /*
+        Files written before there was a free-space map get one, once.
+
         1. Go through all Directory Pages.
         2. For each Directory Page, read all the records.
         3. If it is the first Directory Page, read the record count as well.
+        4. Add the page of every Directory Entry to the free-space map.
     */
-    protected void readFile( PageId startingPID ) {
+    protected void readFile( PageId startingPID, String name ) throws ChainException, java.io.IOException {
 
         String function_name = "readFile";
 
         /* remember the starting pid */
         this.startingPID = startingPID;
 
+        free_space_map = new FreeSpaceMap(name);
+
         /* outer loop goes through the linked list of Directory Page Entries */
         /* start with the root */
         for( PageId pid = startingPID; pid.pid != -1; ) 
@@ -246,12 +272,7 @@ class Directory implements global.GlobalConst {
                 byte[] ba = page_dir.selectRecord(rid);
                 DirectoryEntry dirent = new DirectoryEntry(ba);
 
-                /* save the RID */
-                dirent.rid = new RID();
-                dirent.rid.copyRID(rid);
-
-                /* update in memory structures */
-                updateDirectoryEntryInMemory(dirent);
+                free_space_map.addPage( dirent.getPageId(), dirent.getPageCapacity() );
             }
             PageId pid_next = page_dir.getNextPage();
             Minibase.BufferManager.unpinPage(pid, false);
@@ -260,44 +281,42 @@ class Directory implements global.GlobalConst {
         Log.log( LogLevel.MOST, "%s: Done reading file!\n", function_name );
     }
     /*
-        1) Check if we can locate a page that has enough capacity.
-        2) If yes, return the Directory Entry that corresponds to this page.
+        1) Check the free-space map for a page that has enough capacity.
+        2) If there is one, return it.
         3) If no, go to 4.
         4) Create a new data page.
         5) Create a new Directory Entry to hold this page.
         6) Get a Directory Page to add this Directory Entry.
         7) Insert the newly created Directory Entry in this Directory Page.
         8) Unpin the Directory Page.
-        9) Add the Directory Entry to the in memory data structures
-        10) Return this Directory Entry.
+        9) Add the page to the free-space map.
+        10) Return the page.
 
         TBD:
         - some inefficiency since we create a new page but do not return it.
-        - we could return the page and take DirectoryEntry as a parameter.
     */
-    public DirectoryEntry getDirectoryEntryWithCapacity(int size) 
-                throws java.io.IOException {
+    public PageId getPageWithCapacity(int size) 
+                throws ChainException, java.io.IOException {
 
-        String function_name = "getDirectoryEntryWithCapacity";
-        /* search in the tree for the Directory Entries with the closest size */
+        String function_name = "getPageWithCapacity";
 
-        Log.log( LogLevel.MOST, "%s: Searching for a Directory Entry more than [%d]\n", function_name, size );
-        DirectoryEntry dirent = getFirstGreaterThan(size);
-        if( dirent != null ) {
-            return dirent;
+        Log.log( LogLevel.MOST, "%s: Searching for a page with more than [%d]\n", function_name, size );
+        PageId pid_found = free_space_map.findPage(size);
+        if( pid_found != null ) {
+            return pid_found;
         }
 
         /* page does not exist.  create new data page */
         HFPage page_data = new HFPage();
         PageId pid_data = Minibase.BufferManager.newPage(page_data, 1);
-        page_data.setCurPage(pid_data);
+        page_data.init(pid_data);
         Log.log( LogLevel.MOST, "%s: Directory Entry does not exist - creating new page [%d]\n", 
                         function_name, pid_data.pid );
 
         /* create a new Directory Entry to hold this page */
         Log.log( LogLevel.MOST, "%s: creating DirectoryEntry with pageno [%d] and free space [%d]\n", 
                     function_name, pid_data.pid, page_data.getFreeSpace() );
-        dirent = new DirectoryEntry(page_data.getCurPage(), page_data.getFreeSpace(), 0);
+        DirectoryEntry dirent = new DirectoryEntry(page_data.getCurPage(), page_data.getFreeSpace(), 0);
         Minibase.BufferManager.unpinPage(pid_data, true);
 
         HeapFileUtil.printNumPinnedPages( function_name );
@@ -325,17 +344,17 @@ class Directory implements global.GlobalConst {
         /* Unpin this Directory Page - indicate that the page is Dirty */
         Minibase.BufferManager.unpinPage(page_dir.getCurPage(), true);
 
-        /* The Directory Entry needs to remember where it came from */
-        dirent.setRID( rid );
+        free_space_map.addPage( pid_data, dirent.getPageCapacity() );
 
-        Log.log( LogLevel.MOST, "%s: Returning Directory Entry successfully!\n", function_name );
-        /* This dirent is added to in memory once the capacity is updated */
-        return dirent;
+        Log.log( LogLevel.MOST, "%s: Returning new page successfully!\n", function_name );
+        return pid_data;
     }
 
     /*
         Returns a HFPage that can hold one Directory Entry.
-        1) Start from the root of the Directory.
+        1) Start from the last Directory Page we added to (the root the first time).
+           The pages before it are full: only reclaimEmptyPages removes Directory
+           Entries, and it moves this page back to the first one it removed from.
         2) Check the free space;  if it is more than the size of the Directory Entry, return this page.
         3) Otherwise, go to the next Directory page, following the linked list.
         4) Do 2, 3 until done.  Return page if we find a page that has the capacity.
@@ -343,11 +362,11 @@ class Directory implements global.GlobalConst {
         6) Create a new page.  Connect this with the last page in the Directory Pages Linked List.
         7) Return this new page.
     */
-    public HFPage getDirectoryPageForNewDirectoryEntry() {
+    public HFPage getDirectoryPageForNewDirectoryEntry() throws ChainException, java.io.IOException {
         String function_name = "getDirectoryPageForNewDirectoryEntry";
 
-        Log.log( LogLevel.MOST, "%s: starting from starting page [%d]\n", function_name, startingPID.pid );
-        PageId pid = startingPID;
+        PageId pid = (lastDirectoryPID != null) ? lastDirectoryPID : startingPID;
+        Log.log( LogLevel.MOST, "%s: starting from page [%d]\n", function_name, pid.pid );
         HFPage page = new HFPage();
 
         /* Go through the Directory Pages, starting from the Root */
@@ -357,6 +376,7 @@ class Directory implements global.GlobalConst {
             if( page.getFreeSpace() >= DirectoryEntry.getRecSize() ) {
                 Log.log( LogLevel.MOST, "%s: Found Directory Page [%d] for Directory Entry\n", function_name, pid.pid );
                 /* found it */
+                lastDirectoryPID = pid;
                 /* caller needs to unpin the page */
                 return page;
             } else {
@@ -376,7 +396,7 @@ class Directory implements global.GlobalConst {
 
         HFPage newPage = new HFPage();
         PageId newPID = Minibase.BufferManager.newPage(newPage, 1);
-        newPage.setCurPage(newPID);
+        newPage.init(newPID);
         
         Log.log( LogLevel.MOST, "%s: created directory page [%d]\n", function_name, newPID.pid );
 
@@ -385,120 +405,55 @@ class Directory implements global.GlobalConst {
 
         Minibase.BufferManager.unpinPage(pid, true);
 
+        lastDirectoryPID = newPID;
         /* caller needs to unpin this */
         return newPage;
     }
 
-    public void updateDirectoryEntryInMemory(DirectoryEntry dirent) { 
-        /* add in page id tree */
-        page_id_tree.add(dirent);
-        /* add in page capacity tree */
-        Map.Entry<Integer, LinkedList<DirectoryEntry>> entry;
-        entry = page_capacity_tree.ceilingEntry(dirent.getPageCapacity());
-        LinkedList<DirectoryEntry> list = null;
-        if(entry != null && 
-           entry.getKey() == dirent.getPageCapacity()) {
-          /* If there is already an entry with the same page capacity key in the 
-           * tree, then append to exiting linked list value. Note that a Linked List
-           * is as this TreeMap value because TreeMaps don't allow repetitions. 
-           * Also note that Addition and search are still O(log n) because 
-           * insertion/addition to the head of a list is O(1)
-           */
-           list = entry.getValue();
-           list.addFirst(dirent);
-        }
-        else {
-        	/* If there is no entry in the tree with this exact capacity key then
-        	 * create a new K,V entry for future insertions with this same
-        	 * capacity key.
-        	 */
-        	list = new LinkedList<DirectoryEntry>();
-        	list.add(dirent);
-        	page_capacity_tree.put(dirent.getPageCapacity(), new LinkedList<DirectoryEntry>(list));
-        }
-    }
-
     /*
-     * O(log n) for searching the tree plus O(1) for removing from head of list
-     * equals O(log n) performance.
-     */
-    public DirectoryEntry getFirstGreaterThan(int capacity) {
-        String function_name = "getFirstGreaterThan";
-        Log.log( LogLevel.MOST, "%s: Number of Directory Entries [%d]\n", 
-                function_name, page_capacity_tree.size() );
-
-        DirectoryEntry resultDirent = null;
-        Map.Entry<Integer, LinkedList<DirectoryEntry>> entry;
-        entry = page_capacity_tree.ceilingEntry(capacity);
-        /* Check if such key was found in the tree.
-         * Important Note: CeilingEntry returns an entry
-         * that is greater or equal to the key (capacity). 
-         * However, we want to restrict the search to strictly 
-         * greater because we need to account for the space needed 
-         * for storing not only the record but also the RID
-         * in the heap page (4 extra bytes).        
-         */
-        if(entry != null && entry.getKey() > capacity ) {
-            LinkedList<DirectoryEntry> list = entry.getValue();
-            resultDirent = list.removeFirst();
-            /* Remove key from tree if this was the only value 
-             * in the linked list.
-             */
-            if(list.isEmpty()) {
-            	page_capacity_tree.remove(entry.getKey());
+        Adds the Directory Entries of pages filled by a BulkLoader.
+
+        1) Get a Directory Page that can hold a Directory Entry.
+        2) Insert Directory Entries into it for as long as they fit.
+        3) Unpin it and go to 1) for the rest.
+        4) Add the pages to the free-space map with their capacity.
+    */
+    public void addDirectoryEntries(List<DirectoryEntry> dirents)
+                throws ChainException, java.io.IOException {
+        String function_name = "addDirectoryEntries";
+
+        Log.log( LogLevel.MOST, "%s: adding [%d] Directory Entries\n", function_name, dirents.size() );
+        HFPage page_dir = null;
+        for( DirectoryEntry dirent : dirents ) {
+            if( page_dir != null && page_dir.getFreeSpace() < DirectoryEntry.getRecSize() ) {
+                Minibase.BufferManager.unpinPage(page_dir.getCurPage(), true);
+                page_dir = null;
             }
-            /* to be consistent, we will remove it from the page_id_tree as well */
-            page_id_tree.remove(resultDirent);
-            return resultDirent;
+            if( page_dir == null )
+                page_dir = getDirectoryPageForNewDirectoryEntry();
+
+            RID rid = page_dir.insertRecord( dirent.getByteArray() );
+            dirent.setRID( rid );
+            free_space_map.addPage( dirent.getPageId(), dirent.getPageCapacity() );
         }
-        else 
-        	return null;
+        if( page_dir != null )
+            Minibase.BufferManager.unpinPage(page_dir.getCurPage(), true);
     }
 
     /*
-        Updates the Directory Entry;  this happens when capacity changes.
-
-        1. Update the database.
-        2. Update the internal memory structure.
+        Records the free space of a data page after a change to it.
+        The Directory Entry keeps the capacity the page had when it was
+        added; the free-space map is what inserts go by.
     */
-    public void updateDirectoryEntry(DirectoryEntry dirent) 
-                throws java.io.IOException { 
-        String function_name = "updateDirectoryEntry";
-
-        Log.log( LogLevel.MOST, "%s:Setting up the Directory Page\n", function_name );
-        /* update the directory with the new Directory Entry */
-        HFPage page_dir = new HFPage();
-        Log.log( LogLevel.MOST, "%s: Pinnning page [%d]\n", function_name, 
-                            dirent.getOriginDirectoryPage().pid );
-        Minibase.BufferManager.pinPage( dirent.getOriginDirectoryPage(), page_dir, false );
-        page_dir.setCurPage( dirent.getOriginDirectoryPage() );
-
-        if( Log.IsVerbose() ) {
-            Log.log( LogLevel.VERBOSE, "%s: printing the Directory Page\n", function_name );
-            page_dir.print();
-        }
-
-        /* insert the record */
-        Tuple t = dirent.getTuple();
-        RID rid = dirent.getRID();
-        Log.log( LogLevel.MOST, "%s: length of tuple [%d]\n", function_name, t.getLength() );
-        Log.log( LogLevel.MOST, "%s: RID for update: pid [%d] slot [%d]\n", function_name, rid.pageno.pid, rid.slotno );
-        page_dir.updateRecord( dirent.getRID(), dirent.getTuple() );
-
-        Log.log( LogLevel.MOST, "%s: Unpinning page [%d]\n", function_name, 
-                            page_dir.getCurPage().pid );
-        Minibase.BufferManager.unpinPage(page_dir.getCurPage(), true );
-
-        Log.log( LogLevel.MOST, "%s: Updating In Memory Structures\n", function_name );
-
-        updateDirectoryEntryInMemory(dirent);
+    public void updateFreeSpace(PageId pid, int freeSpace) throws ChainException, java.io.IOException {
+        free_space_map.updatePage( pid, freeSpace );
     }
 
-    public boolean doesPageIDExist(PageId pid) {
-        return page_id_tree.contains( new DirectoryEntry(pid,-1,-1) );
+    public boolean doesPageIDExist(PageId pid) throws ChainException, java.io.IOException {
+        return free_space_map.containsPage( pid );
     }
 
-    public void insertRecCount() throws java.io.IOException { 
+    public void insertRecCount() throws ChainException, java.io.IOException { 
         String function_name = "insertRecCount";
 
         Log.log( LogLevel.MOST, "%s: inserting Record Count of zero\n", function_name );
@@ -510,7 +465,7 @@ class Directory implements global.GlobalConst {
         Minibase.BufferManager.unpinPage(startingPID, true);
     }
 
-    public void updateRecCount() throws java.io.IOException { 
+    public void updateRecCount() throws ChainException, java.io.IOException { 
         String function_name = "updateRecCount";
 
         Log.log( LogLevel.MOST, "%s: Updating RecCount to [%d]\n", function_name, reccount );
@@ -525,7 +480,7 @@ class Directory implements global.GlobalConst {
     /*
         reads the record count from the file
     */
-    private void readRecCount(HFPage page_dir) {
+    private void readRecCount(HFPage page_dir) throws ChainException, java.io.IOException {
         String function_name = "readRecCount";
 
         Log.log( LogLevel.MOST, "%s: page id [%d]\n", function_name, page_dir.getCurPage().pid );
@@ -543,16 +498,21 @@ class Directory implements global.GlobalConst {
         Log.log( LogLevel.LESS, "%s: read count from file [%d]\n", function_name,  this.reccount );
     }
 
-    public void incRecCount() throws java.io.IOException { 
+    public void incRecCount() throws ChainException, java.io.IOException { 
         reccount++;
         updateRecCount();
     }
 
-    public void decRecCount() throws java.io.IOException { 
+    public void decRecCount() throws ChainException, java.io.IOException { 
         reccount--;
         updateRecCount();
     }
 
+    public void addRecCount(int count) throws ChainException, java.io.IOException { 
+        reccount += count;
+        updateRecCount();
+    }
+
     /*
         Ideally we need to validate that the rid_dir belongs to the set of 
         Directory Pages - we will assume so now.
@@ -563,7 +523,7 @@ class Directory implements global.GlobalConst {
         4. Unpin HFPage
         5. Return the page id.
     */
-    public PageId getPageIdFromDirectoryRID(RID rid_dir) {
+    public PageId getPageIdFromDirectoryRID(RID rid_dir) throws ChainException, java.io.IOException {
         HFPage page = new HFPage();
         Minibase.BufferManager.pinPage(rid_dir.pageno, page, false);
         page.setCurPage(rid_dir.pageno);
@@ -581,7 +541,7 @@ class Directory implements global.GlobalConst {
         4. If no, check if there is a next page in the Directory 
         5. Repeat 2.
     */
-    public RID getNextDirectoryRID( RID rid_dir ) {
+    public RID getNextDirectoryRID( RID rid_dir ) throws ChainException, java.io.IOException {
         String function_name = "getNextDirectoryRID";
 
         RID rid = null;
@@ -615,10 +575,12 @@ class Directory implements global.GlobalConst {
 
             /* check if there is a single record in this Directory Page */
             rid = page_dir.firstRecord();
+            PageId pid_next = page_dir.getNextPage();
+            Minibase.BufferManager.unpinPage(next_pid, false);
             if( rid != null ) {
-                Minibase.BufferManager.unpinPage(next_pid, false);
                 return rid;
             }
+            next_pid = pid_next;
         }
 
         Log.log( LogLevel.MOST, "%s: Done with all directory entries\n", function_name );
@@ -627,48 +589,49 @@ class Directory implements global.GlobalConst {
     }
 
     /*
-        1. Locate the Page with this RID in the Directory using the In Memory Tree.
+        1. Locate the Page with this RID in the free-space map.
         2. If not found - error.
-        3. Remove the data from the Page first.  This may make the Page empty, but we are not cleaning it.
-        4. Update Directory Entry with the appropriate space.
-           Note that this needs to be done for In Memory as well as the database.
-        5. Decrement the number of objects and update Entry.
+        3. Remove the data from the Page first.  This may make the Page empty; reclaimEmptyPages
+           gives empty pages back.
+        4. If the record was a forward, remove its moved copy as well.
+        5. Update the free-space map with the appropriate space.
+        6. Decrement the number of objects and update Entry.
     */
-    public boolean deleteRecord( RID rid ) throws java.io.IOException {
+    public boolean deleteRecord( RID rid ) throws ChainException, java.io.IOException {
         String function_name = "deleteRecord";
 
-        DirectoryEntry dirent = page_id_tree.ceiling( new DirectoryEntry( rid.pageno, -1, -1 ) );
-        if( dirent == null  || (dirent.getPageId().pid != rid.pageno.pid) ) {
+        if( !doesPageIDExist(rid.pageno) ) {
             /* TBD - need to raise an exception */
             Log.log( LogLevel.MOST, "%s: could not find [%d] to delete\n", function_name, rid.pageno.pid );
             return false;
         }
 
-        Log.log( LogLevel.MOST, "%s: Found the Directory Entry for RID\n", function_name  );
+        Log.log( LogLevel.MOST, "%s: Found the page of the RID\n", function_name  );
 
         /* now, delete the entry in the data page */
         HFPage page_data = new HFPage();
         Minibase.BufferManager.pinPage( rid.pageno, page_data, false );
         page_data.setCurPage(rid.pageno);
+        byte[] ba = page_data.selectRecord( rid );
         page_data.deleteRecord( rid );
+        noteEmptyPage( page_data, rid.pageno );
 
         /* save the new free space */
-        dirent.setCapacity( page_data.getFreeSpace() );
+        int freeSpace = page_data.getFreeSpace();
 
         Minibase.BufferManager.unpinPage( rid.pageno, true );
         Log.log( LogLevel.MORE, "%s: Deleted record [%d] slotno [%d]\n", 
                 function_name, rid.pageno.pid, rid.slotno );
 
-        /* now update the Directory Entry with the available space */
-        HFPage page_dir = new HFPage();
-        Minibase.BufferManager.pinPage( dirent.getOriginDirectoryPage(), page_dir, false );
-        page_dir.setCurPage( dirent.getOriginDirectoryPage() );
+        if( RecordForward.isForward(ba) ) {
+            deleteMoved( RecordForward.target(ba) );
+        }
 
-        page_dir.updateRecord( dirent.getRID(), dirent.getTuple() );
+        /* now update the free-space map with the available space */
+        updateFreeSpace( rid.pageno, freeSpace );
 
-        Log.log( LogLevel.MORE, "%s: Updated directory entry [%d] slotno [%d] with new freespace [%d]\n", 
-                function_name, dirent.getRID().pageno.pid, dirent.getRID().slotno, dirent.getPageCapacity() );
-        Minibase.BufferManager.unpinPage( dirent.getOriginDirectoryPage(), true );
+        Log.log( LogLevel.MORE, "%s: Updated free space of page [%d] to [%d]\n", 
+                function_name, rid.pageno.pid, freeSpace );
 
         /* finally, decrement the counter for the number of records */
         decRecCount();
@@ -677,54 +640,564 @@ class Directory implements global.GlobalConst {
     }
 
     /*
-        1. Make sure this is a page we manage from the Directory.
-        2. Check if the lengths are OK and then update the record.
-        3. Nothing to update in the Directory Header or Record Count!
+        Deletes many records, a page at a time.
+
+        1. Sort the RIDs by page.
+        2. Check that every RID is a record of the file, once.
+        3. For each page: pin it once, delete its records, unpin it and
+           update its free space once.
+        4. Delete the moved copies of the records that were forwards the same way.
+        5. Update the record count once.
 
-        We are not handling record sizes that are of different sizes i.e. you cannot 
-        update a record with a different size for now.
+        If a RID is not a record of the file, nothing is deleted and a
+        HeapFileException is thrown.  Returns the number of records deleted.
+    */
+    public int deleteRecords( List<RID> rids ) throws ChainException, java.io.IOException {
+        String function_name = "deleteRecords";
+
+        RID[] sorted = sortByPage( rids );
+        checkDeletes( sorted );
+
+        List<RID> moved = new ArrayList<RID>();
+        int deleted = deleteSorted( sorted, moved );
+        deleteSorted( sortByPage(moved), null );
+
+        if( deleted > 0 ) {
+            reccount -= deleted;
+            updateRecCount();
+        }
+        Log.log( LogLevel.LESS, "%s: deleted [%d] records\n", function_name, deleted );
+        return deleted;
+    }
+
+    /*
+        Checks sorted RIDs a page at a time, before any of them is deleted:
+        each must be a record of the file, and be there once.
+    */
+    private void checkDeletes( RID[] rids ) throws ChainException, java.io.IOException {
+        String function_name = "checkDeletes";
+
+        for( int first = 0; first < rids.length; ) {
+            PageId pid = rids[first].pageno;
+            int last = first;
+            while( last < rids.length && rids[last].pageno.pid == pid.pid )
+                last++;
+
+            if( !doesPageIDExist(pid) ) {
+                Log.log( LogLevel.MOST, "%s: could not find [%d] to delete\n", function_name, pid.pid );
+                throw new HeapFileException( null, "deleteRecords - no data page [" + pid.pid + "]" );
+            }
+
+            HFPage page_data = new HFPage();
+            Minibase.BufferManager.pinPage( pid, page_data, false );
+            try {
+                page_data.setCurPage( pid );
+                for( int i = first; i < last; i++ ) {
+                    if( !page_data.hasRecord(rids[i]) || (i > first && rids[i].slotno == rids[i-1].slotno) ) {
+                        Log.log( LogLevel.MOST, "%s: cannot delete [%d] slotno [%d]\n", 
+                                function_name, pid.pid, rids[i].slotno );
+                        throw new HeapFileException( null, "deleteRecords - no record at page [" 
+                                + pid.pid + "] slot [" + rids[i].slotno + "], or it is there twice" );
+                    }
+                }
+            } finally {
+                Minibase.BufferManager.unpinPage( pid, false );
+            }
+            first = last;
+        }
+    }
+
+    /*
+        Deletes sorted RIDs, checked already, a page at a time and collects
+        the targets of forwards into moved (moved copies are deleted with
+        moved == null).
+    */
+    private int deleteSorted( RID[] rids, List<RID> moved ) throws ChainException, java.io.IOException {
+        int deleted = 0;
+        for( int first = 0; first < rids.length; ) {
+            PageId pid = rids[first].pageno;
+            int last = first;
+            while( last < rids.length && rids[last].pageno.pid == pid.pid )
+                last++;
+
+            HFPage page_data = new HFPage();
+            Minibase.BufferManager.pinPage( pid, page_data, false );
+            int freeSpace;
+            try {
+                page_data.setCurPage( pid );
+                for( int i = first; i < last; i++ ) {
+                    if( moved != null ) {
+                        byte[] ba = page_data.selectRecord( rids[i] );
+                        if( RecordForward.isForward(ba) )
+                            moved.add( RecordForward.target(ba) );
+                    }
+                    page_data.deleteRecord( rids[i] );
+                }
+                noteEmptyPage( page_data, pid );
+                freeSpace = page_data.getFreeSpace();
+            } finally {
+                Minibase.BufferManager.unpinPage( pid, true );
+            }
+
+            updateFreeSpace( pid, freeSpace );
+            deleted += last - first;
+            first = last;
+        }
+        return deleted;
+    }
+
+    /*
+        Updates many records, a page at a time.
+
+        1. Sort the updates by page.
+        2. Check that every update can be done, once per page.
+        3. For each page: pin it once and update in place the records that
+           keep their length.
+        4. Update the others one at a time (updateRecord moves them).
+
+        If an update cannot be done, nothing is updated and an
+        InvalidUpdateException is thrown.  Same-length updates do not
+        change the free space of a page, so the free-space map is not
+        touched for them.
+    */
+    public void updateRecords( List<RID> rids, List<byte[]> records )
+                throws ChainException, java.io.IOException {
+        String function_name = "updateRecords";
+
+        if( records.size() != rids.size() ) {
+            Log.log( LogLevel.MOST, "%s: [%d] records for [%d] RIDs\n", function_name, records.size(), rids.size() );
+            throw new InvalidUpdateException();
+        }
+
+        Integer[] order = new Integer[rids.size()];
+        for( int i = 0; i < order.length; i++ )
+            order[i] = i;
+        final List<RID> ridList = rids;
+        Arrays.sort( order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return RID_ORDER.compare( ridList.get(a), ridList.get(b) );
+            }
+        });
+
+        checkUpdates( rids, records, order );
+
+        List<Integer> slow = new ArrayList<Integer>();
+        for( int first = 0; first < order.length; ) {
+            PageId pid = rids.get(order[first]).pageno;
+            int last = first;
+            while( last < order.length && rids.get(order[last]).pageno.pid == pid.pid )
+                last++;
+
+            HFPage page_data = new HFPage();
+            Minibase.BufferManager.pinPage( pid, page_data, false );
+            boolean dirty = false;
+            try {
+                page_data.setCurPage( pid );
+                for( int i = first; i < last; i++ ) {
+                    RID rid = rids.get(order[i]);
+                    byte[] record = RecordForward.stored( records.get(order[i]) );
+                    byte[] ba = page_data.selectRecord( rid );
+                    if( !RecordForward.isForward(ba) && ba.length == record.length ) {
+                        page_data.updateRecord( rid, new Tuple(record, 0, record.length) );
+                        dirty = true;
+                    } else {
+                        slow.add( order[i] );
+                    }
+                }
+            } finally {
+                Minibase.BufferManager.unpinPage( pid, dirty );
+            }
+            first = last;
+        }
+
+        for( int i : slow ) {
+            byte[] record = records.get(i);
+            updateRecord( rids.get(i), new Tuple(record, 0, record.length) );
+        }
+        Log.log( LogLevel.LESS, "%s: updated [%d] records, [%d] one at a time\n", 
+                function_name, order.length, slow.size() );
+    }
+
+    /*
+        Checks updates in page order, before any of them is done: each RID
+        must be a record of the file, and updateRecord must be able to give
+        it its new length.
+    */
+    private void checkUpdates( List<RID> rids, List<byte[]> records, Integer[] order )
+                throws ChainException, java.io.IOException {
+        String function_name = "checkUpdates";
+
+        for( int first = 0; first < order.length; ) {
+            PageId pid = rids.get(order[first]).pageno;
+            int last = first;
+            while( last < order.length && rids.get(order[last]).pageno.pid == pid.pid )
+                last++;
+
+            if( !doesPageIDExist(pid) ) {
+                Log.log( LogLevel.MOST, "%s: could not find [%d] to update\n", function_name, pid.pid );
+                throw new InvalidUpdateException();
+            }
+
+            HFPage page_data = new HFPage();
+            Minibase.BufferManager.pinPage( pid, page_data, false );
+            try {
+                page_data.setCurPage( pid );
+                for( int i = first; i < last; i++ ) {
+                    RID rid = rids.get(order[i]);
+                    if( !page_data.hasRecord(rid) 
+                        || !canUpdate( page_data.selectRecord(rid), records.get(order[i]) ) ) {
+                        Log.log( LogLevel.MOST, "%s: cannot update [%d] slotno [%d]\n", 
+                                function_name, pid.pid, rid.slotno );
+                        throw new InvalidUpdateException();
+                    }
+                }
+            } finally {
+                Minibase.BufferManager.unpinPage( pid, false );
+            }
+            first = last;
+        }
+    }
+
+    /* true if updateRecord can replace the stored record ba with data */
+    private static boolean canUpdate( byte[] ba, byte[] data ) {
+        boolean fits = RecordForward.HEADER_SIZE + data.length <= MAX_TUPSIZE;
+        if( RecordForward.isForward(ba) )
+            return fits;
+        if( ba.length == RecordForward.stored(data).length )
+            return true;
+        return ba.length >= RecordForward.HEADER_SIZE && fits;
+    }
+
+    private static RID[] sortByPage( List<RID> rids ) {
+        RID[] sorted = rids.toArray( new RID[rids.size()] );
+        Arrays.sort( sorted, RID_ORDER );
+        return sorted;
+    }
+
+    /* by page, then by slot */
+    private static final Comparator<RID> RID_ORDER = new Comparator<RID>() {
+        public int compare(RID a, RID b) {
+            if( a.pageno.pid != b.pageno.pid )
+                return a.pageno.pid < b.pageno.pid ? -1 : 1;
+            return a.slotno < b.slotno ? -1 : (a.slotno == b.slotno ? 0 : 1);
+        }
+    };
+
+    /*
+        1. Make sure this is a page we manage from the free-space map.
+        2. If the record was moved, update the moved copy and we are done.
+        3. If the length is the same, update the record in place.
+        4. Otherwise move the record: write a moved copy with the new data and
+           overwrite the record with a forward to it, of the same length.
+        5. Nothing to update in the Directory Header or Record Count!
+
+        The RID of the record never changes.  A record shorter than a forward
+        (RecordForward.HEADER_SIZE) cannot change its length.
     */
     public void updateRecord(RID rid, Tuple t)
-    		throws InvalidUpdateException {
+    		throws ChainException, java.io.IOException {
         String function_name = "updateRecord";
 
-        DirectoryEntry dirent = page_id_tree.ceiling( new DirectoryEntry( rid.pageno, -1, -1 ) );
-        if( dirent == null  || (dirent.getPageId().pid != rid.pageno.pid) ) {
+        if( !doesPageIDExist(rid.pageno) ) {
             /* TBD - need to raise an exception */
-            Log.log( LogLevel.MOST, "%s: could not find [%d] to delete\n", function_name, rid.pageno.pid );
+            Log.log( LogLevel.MOST, "%s: could not find [%d] to update\n", function_name, rid.pageno.pid );
             throw new InvalidUpdateException();
         }
 
-        Log.log( LogLevel.MOST, "%s: Found the Directory Entry for RID\n", function_name  );
+        Log.log( LogLevel.MOST, "%s: Found the page of the RID\n", function_name  );
 
         /* now, update the entry in the data page */
         HFPage page_data = new HFPage();
         Minibase.BufferManager.pinPage( rid.pageno, page_data, false );
         page_data.setCurPage(rid.pageno);
 
-        /* check for length */
         byte[] ba = page_data.selectRecord(rid);
-        if( ba.length != t.getLength() ) {
+        if( RecordForward.isForward(ba) ) {
+            Minibase.BufferManager.unpinPage( rid.pageno, false );
+            RID target = updateMoved( rid, RecordForward.target(ba), t );
+            if( target != null ) {
+                /* the moved copy moved again, point the forward at it */
+                writeForward( rid, target, ba.length );
+            }
+            return;
+        }
+
+        /* check for length, of the record as it is stored */
+        byte[] record = RecordForward.stored( t.getTupleByteArray() );
+        if( ba.length == record.length ) {
+            page_data.updateRecord( rid, new Tuple(record, 0, record.length) );
+            Minibase.BufferManager.unpinPage( rid.pageno, true );
+            Log.log( LogLevel.MORE, "%s: Updated record [%d] slotno [%d]\n", 
+                    function_name, rid.pageno.pid, rid.slotno );
+            return;
+        }
+        Minibase.BufferManager.unpinPage( rid.pageno, false );
+
+        if( ba.length < RecordForward.HEADER_SIZE ) {
             Log.log( LogLevel.MOST, "%s: different record lengths: original: [%d], new: [%d]\n",
                     function_name, ba.length, t.getLength() );
             throw new InvalidUpdateException();
         }
 
-        page_data.updateRecord( rid, t );
+        RID target = insertMoved( rid, t.getTupleByteArray() );
+        writeForward( rid, target, ba.length );
+        Log.log( LogLevel.MORE, "%s: Moved record [%d] slotno [%d] to [%d] slotno [%d]\n", 
+                function_name, rid.pageno.pid, rid.slotno, target.pageno.pid, target.slotno );
+    }
 
-        Minibase.BufferManager.unpinPage( rid.pageno, true );
-        Log.log( LogLevel.MORE, "%s: Deleted record [%d] slotno [%d]\n", 
-                function_name, rid.pageno.pid, rid.slotno );
+    /*
+        Returns the data of the record at rid, following a forward.
+    */
+    public byte[] selectRecord(RID rid) throws ChainException, java.io.IOException {
+        HFPage page_data = new HFPage();
+        Minibase.BufferManager.pinPage( rid.pageno, page_data, false ); 
+        page_data.setCurPage(rid.pageno);
+        byte[] ba = page_data.selectRecord(rid);
+        Minibase.BufferManager.unpinPage( rid.pageno, false );
+
+        if( RecordForward.isForward(ba) ) {
+            return selectMoved( RecordForward.target(ba) );
+        }
+        return RecordForward.data(ba);
+    }
+
+    /* the data of the moved copy at target */
+    byte[] selectMoved(RID target) throws ChainException, java.io.IOException {
+        HFPage page_data = new HFPage();
+        Minibase.BufferManager.pinPage( target.pageno, page_data, false ); 
+        page_data.setCurPage(target.pageno);
+        byte[] moved = page_data.selectRecord(target);
+        Minibase.BufferManager.unpinPage( target.pageno, false );
+        return RecordForward.movedData(moved);
+    }
+
+    /*
+        Writes the moved copy of the record at home on a page with room.
+        Returns its RID.
+    */
+    private RID insertMoved(RID home, byte[] data) throws ChainException, java.io.IOException {
+        byte[] moved = RecordForward.moved( home, data );
+        if( moved.length > MAX_TUPSIZE ) {
+            throw new InvalidUpdateException();
+        }
+
+        PageId pid = getPageWithCapacity( moved.length );
+        HFPage page_data = new HFPage();
+        Minibase.BufferManager.pinPage( pid, page_data, false );
+        page_data.setCurPage( pid );
+        RID target = page_data.insertRecord( moved );
+        int freeSpace = page_data.getFreeSpace();
+        Minibase.BufferManager.unpinPage( pid, true );
+
+        updateFreeSpace( pid, freeSpace );
+        return target;
+    }
+
+    /*
+        Updates the moved copy at target of the record at home.  Returns
+        the RID of the new moved copy if it had to move again, null if it
+        was updated in place.
+    */
+    private RID updateMoved(RID home, RID target, Tuple t) throws ChainException, java.io.IOException {
+        HFPage page_data = new HFPage();
+        Minibase.BufferManager.pinPage( target.pageno, page_data, false );
+        page_data.setCurPage( target.pageno );
+        byte[] moved = page_data.selectRecord( target );
+        if( moved.length == RecordForward.HEADER_SIZE + t.getLength() ) {
+            byte[] ba = RecordForward.moved( home, t.getTupleByteArray() );
+            page_data.updateRecord( target, new Tuple(ba, 0, ba.length) );
+            Minibase.BufferManager.unpinPage( target.pageno, true );
+            return null;
+        }
+        Minibase.BufferManager.unpinPage( target.pageno, false );
+
+        RID newTarget = insertMoved( home, t.getTupleByteArray() );
+        deleteMoved( target );
+        return newTarget;
+    }
+
+    private void deleteMoved(RID target) throws ChainException, java.io.IOException {
+        HFPage page_data = new HFPage();
+        Minibase.BufferManager.pinPage( target.pageno, page_data, false );
+        page_data.setCurPage( target.pageno );
+        page_data.deleteRecord( target );
+        noteEmptyPage( page_data, target.pageno );
+        int freeSpace = page_data.getFreeSpace();
+        Minibase.BufferManager.unpinPage( target.pageno, true );
+
+        updateFreeSpace( target.pageno, freeSpace );
+    }
+
+    /* remembers a data page a delete left with no record, for reclaimEmptyPages */
+    private void noteEmptyPage(HFPage page_data, PageId pid) {
+        if( page_data.firstRecord() == null )
+            empty_pages.add( pid.pid );
+    }
+
+    /* overwrites the record at home, length bytes long, with a forward to target */
+    private void writeForward(RID home, RID target, int length) throws ChainException, java.io.IOException {
+        byte[] ba = RecordForward.forward( target, length );
+        HFPage page_data = new HFPage();
+        Minibase.BufferManager.pinPage( home.pageno, page_data, false );
+        page_data.setCurPage( home.pageno );
+        page_data.updateRecord( home, new Tuple(ba, 0, ba.length) );
+        Minibase.BufferManager.unpinPage( home.pageno, true );
+    }
+
+    /*
+        Returns the data pages of the file, in directory order.
+
+        1. Go through all Directory Pages.
+        2. Collect the page of every Directory Entry, skipping the record count.
+    */
+    public PageId[] getDataPages() throws ChainException, java.io.IOException {
+        String function_name = "getDataPages";
+
+        ArrayList<PageId> pages = new ArrayList<PageId>();
+        for( PageId pid = startingPID; pid.pid != -1; ) 
+        {
+            HFPage page_dir = new HFPage();
+            Minibase.BufferManager.pinPage( pid, page_dir, false );
+            page_dir.setCurPage( pid );
+
+            RID rid = ( pid.pid == startingPID.pid ) ? page_dir.nextRecord(rid_reccount) : page_dir.firstRecord();
+            for( ; rid != null; rid = page_dir.nextRecord(rid) ) {
+                DirectoryEntry dirent = new DirectoryEntry( page_dir.selectRecord(rid) );
+                pages.add( dirent.getPageId() );
+            }
+
+            PageId pid_next = page_dir.getNextPage();
+            Minibase.BufferManager.unpinPage( pid, false );
+            pid = pid_next;
+        }
+
+        Log.log( LogLevel.MOST, "%s: [%d] data pages\n", function_name, pages.size() );
+        return pages.toArray( new PageId[pages.size()] );
+    }
+
+    /*
+        Gives the data pages that deletes left with no record back to the
+        disk manager.
+
+        1. Go through the Directory Pages until the Directory Entries of
+           all the pages in empty_pages were found.
+        2. For each of them, check that its data page still has no record:
+           an insert may have used it since.
+        3. If so, delete the Directory Entry, take the page out of the
+           free-space map and free the page.
+        4. If a Directory Page before the one new Directory Entries go to
+           lost an entry, new Directory Entries start from that page.
+
+        Only the data pages in empty_pages are pinned.  Pages left empty
+        before the file was opened are not known here, and stay.  Must not
+        run while the file is scanned.  Returns the number of pages freed.
+    */
+    public int reclaimEmptyPages() throws ChainException, java.io.IOException {
+        String function_name = "reclaimEmptyPages";
+
+        int freed = 0;
+        /* first Directory Page that lost an entry, while before lastDirectoryPID */
+        PageId reopened = null;
+        boolean pastLast = ( lastDirectoryPID == null );
+        for( PageId pid = startingPID; pid.pid != -1 && !empty_pages.isEmpty(); ) 
+        {
+            HFPage page_dir = new HFPage();
+            Minibase.BufferManager.pinPage( pid, page_dir, false );
+            page_dir.setCurPage( pid );
+
+            boolean dirty = false;
+            RID rid = ( pid.pid == startingPID.pid ) ? page_dir.nextRecord(rid_reccount) : page_dir.firstRecord();
+            while( rid != null ) {
+                RID rid_next = page_dir.nextRecord(rid);
+                DirectoryEntry dirent = new DirectoryEntry( page_dir.selectRecord(rid) );
+                PageId pid_data = dirent.getPageId();
+
+                if( empty_pages.remove( pid_data.pid ) ) {
+                    HFPage page_data = new HFPage();
+                    Minibase.BufferManager.pinPage( pid_data, page_data, false );
+                    page_data.setCurPage( pid_data );
+                    boolean empty = ( page_data.firstRecord() == null );
+                    Minibase.BufferManager.unpinPage( pid_data, false );
+
+                    if( empty ) {
+                        page_dir.deleteRecord( rid );
+                        dirty = true;
+                        if( reopened == null && !pastLast )
+                            reopened = pid;
+                        free_space_map.removePage( pid_data );
+                        Minibase.BufferManager.freePage( pid_data );
+                        freed++;
+                        Log.log( LogLevel.MORE, "%s: freed data page [%d]\n", function_name, pid_data.pid );
+                    }
+                }
+                rid = rid_next;
+            }
+
+            if( lastDirectoryPID != null && pid.pid == lastDirectoryPID.pid )
+                pastLast = true;
+            PageId pid_next = page_dir.getNextPage();
+            Minibase.BufferManager.unpinPage( pid, dirty );
+            pid = pid_next;
+        }
+        empty_pages.clear();
+
+        if( reopened != null ) {
+            Log.log( LogLevel.MORE, "%s: new Directory Entries start from page [%d] again\n", 
+                    function_name, reopened.pid );
+            lastDirectoryPID = reopened;
+        }
+
+        Log.log( LogLevel.LESS, "%s: freed [%d] data pages\n", function_name, freed );
+        return freed;
+    }
+
+    /*
+        Deletes the file.
+
+        1. Go through all Directory Pages.
+        2. Free the data page of every Directory Entry, then the Directory Page.
+        3. Remove the file entry and delete the free-space map.
+    */
+    public void deleteFile() throws ChainException, java.io.IOException {
+        String function_name = "deleteFile";
+
+        int freed = 0;
+        for( PageId pid = startingPID; pid.pid != -1; ) 
+        {
+            HFPage page_dir = new HFPage();
+            Minibase.BufferManager.pinPage( pid, page_dir, false );
+            page_dir.setCurPage( pid );
+
+            RID rid = ( pid.pid == startingPID.pid ) ? page_dir.nextRecord(rid_reccount) : page_dir.firstRecord();
+            for( ; rid != null; rid = page_dir.nextRecord(rid) ) {
+                DirectoryEntry dirent = new DirectoryEntry( page_dir.selectRecord(rid) );
+                Minibase.BufferManager.freePage( dirent.getPageId() );
+                freed++;
+            }
+
+            PageId pid_next = page_dir.getNextPage();
+            Minibase.BufferManager.unpinPage( pid, false );
+            Minibase.BufferManager.freePage( pid );
+            pid = pid_next;
+        }
+
+        Minibase.DiskManager.delete_file_entry( name );
+        FreeSpaceMap.delete( name );
+        Log.log( LogLevel.LESS, "%s: deleted [%s] and its [%d] data pages\n", function_name, name, freed );
     }
 
     public int getRecCount()    { return reccount; }
     PageId getStartingPID()        { return startingPID; }
 
+    private String name;
     private int reccount;
     private RID rid_reccount;
     private PageId startingPID;
-    private TreeSet<DirectoryEntry> page_id_tree;
-    private TreeMap<Integer, LinkedList<DirectoryEntry>> page_capacity_tree;
+    /* the Directory Page a Directory Entry was last added to */
+    private PageId lastDirectoryPID;
+    private FreeSpaceMap free_space_map;
+    /* data pages deletes left with no record, since the last reclaimEmptyPages */
+    private final HashSet<Integer> empty_pages = new HashSet<Integer>();
 }
 
 public class HeapFile implements global.GlobalConst {
@@ -732,7 +1205,7 @@ public class HeapFile implements global.GlobalConst {
         - create a PageId object for page 0 - this is our Directory Page
         - create a file entry in the DB using DiskMgr.
     */
-    public HeapFile(String name) throws java.io.IOException {
+    public HeapFile(String name) throws ChainException, java.io.IOException {
         String function_name = "HeapFile constructor";
         Log.log(LogLevel.MOST, "%s: checking if file [%s] exists\n", function_name, name );
 
@@ -751,39 +1224,37 @@ public class HeapFile implements global.GlobalConst {
         Log.log( LogLevel.MOST, "%s: looking for Directory Entry with capacity [%d]\n", 
                     function_name, record.length );
 
-        /* check for the length of the record */
+        /* check for the length of the record, escaped if it looks like a forward */
+        record = RecordForward.stored( record );
         if( record.length > MAX_TUPSIZE ) {
             throw new SpaceNotAvailableException( "insertRecord - Tuple too big." );
             //throw new HeapFileException(null, "hey");
         }
 
-        /* get the DirectoryEntry that points to the page we want */
-        DirectoryEntry dirent = directory.getDirectoryEntryWithCapacity( record.length );
+        /* get the page we want from the free-space map */
+        PageId pid_data = directory.getPageWithCapacity( record.length );
 
         HeapFileUtil.printNumPinnedPages( function_name );
 
         /* load the page from disk through the buffer manager */
-        Log.log( LogLevel.MOST, "%s: Loading Data Page [%d]\n", function_name, dirent.getPageId().pid );
+        Log.log( LogLevel.MOST, "%s: Loading Data Page [%d]\n", function_name, pid_data.pid );
         HFPage page_data = new HFPage();
-        Minibase.BufferManager.pinPage( dirent.getPageId(), page_data, false );
-        page_data.setCurPage( dirent.getPageId() );
+        Minibase.BufferManager.pinPage( pid_data, page_data, false );
+        page_data.setCurPage( pid_data );
 
         /* insert the data */
         RID rid =  page_data.insertRecord(record);
         if( rid == null ) 
         {
             Log.log( LogLevel.MOST, "Error inserting record!\n" );
-            Minibase.BufferManager.unpinPage( dirent.getPageId(), true );
+            Minibase.BufferManager.unpinPage( pid_data, true );
             return null;
         } else {
             Log.log( LogLevel.MOST, "%s: After insertRecord RID.pid [%d] RID.slotno [%d]\n", 
                         function_name, rid.pageno.pid, rid.slotno );
         }
 
-        /* update the Directory Entry with the new information */
-        Log.log( LogLevel.MOST, "%s: Setting new capacity in Directory Entry [%d]\n", 
-                        function_name, page_data.getFreeSpace() );
-        dirent.setCapacity( page_data.getFreeSpace() );
+        int freeSpace = page_data.getFreeSpace();
 
         if( Log.IsVerbose() ) {
             Log.log( LogLevel.VERBOSE, "%s: Printing the data page\n", function_name );
@@ -793,14 +1264,15 @@ public class HeapFile implements global.GlobalConst {
         /* unpin the data page */
         //HeapFileUtil.releaseHFPage(hfp_data, true);
 
-        Log.log( LogLevel.MOST, "%s: Updating Directory Entry\n", function_name );
-        directory.updateDirectoryEntry(dirent);
+        /* update the free-space map with the new information */
+        Log.log( LogLevel.MOST, "%s: Setting new free space [%d]\n", function_name, freeSpace );
+        directory.updateFreeSpace( pid_data, freeSpace );
 
         /* increment the number of records */
         directory.incRecCount();
 
-        Log.log( LogLevel.MOST, "%s: Unpinning page [%d]\n", function_name, dirent.getPageId().pid );
-        Minibase.BufferManager.unpinPage( dirent.getPageId(), true );
+        Log.log( LogLevel.MOST, "%s: Unpinning page [%d]\n", function_name, pid_data.pid );
+        Minibase.BufferManager.unpinPage( pid_data, true );
 
         return rid;
     }
@@ -822,6 +1294,8 @@ public class HeapFile implements global.GlobalConst {
             success = true;
         } catch( InvalidUpdateException e ) {
             throw(new InvalidUpdateException());
+        } catch( java.io.IOException e) {
+            throw new HeapFileException(e, "Update Record Failed." );
         }
 
         return success;
@@ -842,24 +1316,129 @@ public class HeapFile implements global.GlobalConst {
         return success;
     }
 
+    /*
+        Deletes many records with one pin per data page and one update of
+        the record count; see Directory.deleteRecords.
+    */
+    public int deleteRecords(List<RID> rids) throws ChainException {
+        try {
+            return directory.deleteRecords(rids);
+        } catch( java.io.IOException e) {
+            throw new HeapFileException(e, "Delete Records Failed." );
+        }
+    }
+
+    /*
+        Updates many records with one pin per data page for the records
+        that keep their length; see Directory.updateRecords.
+    */
+    public void updateRecords(List<RID> rids, List<byte[]> records) throws ChainException {
+        try {
+            directory.updateRecords(rids, records);
+        } catch( java.io.IOException e) {
+            throw new HeapFileException(e, "Update Records Failed." );
+        }
+    }
+
     /*
         1. check if we have the PageID in our directory.
-        2. If yes, make a HFPage out of the PageID and get the record.
+        2. If yes, get the record from its page, following a forward.
     */
-    public Tuple getRecord(RID rid) {
-        if( !directory.doesPageIDExist(rid.pageno) ) 
-            return null;
+    public Tuple getRecord(RID rid) throws ChainException {
+        byte[] byteArray;
+        try {
+            if( !directory.doesPageIDExist(rid.pageno) ) 
+                return null;
 
-        HFPage page_data = new HFPage();
-        Minibase.BufferManager.pinPage( rid.pageno, page_data, false ); 
-        byte[] byteArray = page_data.selectRecord(rid);
-        Minibase.BufferManager.unpinPage( rid.pageno, false );
+            byteArray = directory.selectRecord(rid);
+        } catch( java.io.IOException e) {
+            throw new HeapFileException(e, "Get Record Failed." );
+        }
 
         return new Tuple(byteArray, 0, byteArray.length);
     }
 
-    public HeapScan openScan() { 
-        return new HeapScan(this);
+    /*
+        Frees the data pages deletes left empty since the last call; see
+        Directory.reclaimEmptyPages.
+    */
+    public int reclaimEmptyPages() throws ChainException {
+        try {
+            return directory.reclaimEmptyPages();
+        } catch( java.io.IOException e) {
+            throw new HeapFileException(e, "Reclaim Empty Pages Failed." );
+        }
+    }
+
+    /*
+        Inserts all the records of an iterator through a BulkLoader and
+        returns how many there were.
+    */
+    public int bulkInsert(Iterator<byte[]> records) throws ChainException, java.io.IOException {
+        BulkLoader loader = new BulkLoader(this);
+        try {
+            while( records.hasNext() )
+                loader.insert( records.next() );
+        } finally {
+            loader.close();
+        }
+        return loader.getCount();
+    }
+
+    /*
+        Deletes the file, its pages and its free-space map; see
+        Directory.deleteFile.  The HeapFile must not be used afterwards.
+    */
+    public void deleteFile() throws ChainException {
+        try {
+            directory.deleteFile();
+        } catch( java.io.IOException e) {
+            throw new HeapFileException(e, "Delete File Failed." );
+        }
+    }
+
+    public HeapScan openScan() throws ChainException { 
+        try {
+            return new HeapScan(this);
+        } catch( java.io.IOException e) {
+            throw new HeapFileException(e, "Open Scan Failed." );
+        }
+    }
+
+    /*
+        Returns a spliterator over the records of the file that splits by
+        ranges of data pages; see HeapSpliterator.  Every split must be
+        read to the end, or it keeps its scan ring; stream() handles that.
+    */
+    public Spliterator<Tuple> spliterator() throws ChainException {
+        return newSpliterator();
+    }
+
+    /*
+        Returns the records of the file as a stream.  A parallel stream
+        reads ranges of data pages on the workers of the common fork/join
+        pool.  The file must not be changed while the stream is used, and
+        a stream that is not read to the end must be closed.
+    */
+    public Stream<Tuple> stream(boolean parallel) throws ChainException {
+        final HeapSpliterator records = newSpliterator();
+        return StreamSupport.stream( records, parallel ).onClose( new Runnable() {
+            public void run() {
+                records.close();
+            }
+        });
+    }
+
+    private HeapSpliterator newSpliterator() throws ChainException {
+        PageId[] pages;
+        try {
+            pages = directory.getDataPages();
+        } catch( java.io.IOException e) {
+            throw new HeapFileException(e, "Open Spliterator Failed." );
+        }
+        int recordsPerPage = pages.length == 0 ? 0 : 
+                (directory.getRecCount() + pages.length - 1) / pages.length;
+        return new HeapSpliterator( pages, recordsPerPage );
     }
 
     protected Directory directory;
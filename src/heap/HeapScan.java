@@ -6,11 +6,17 @@ import global.Minibase;
 import global.PageId;
 import heap.Tuple;
 import heap.HFPage;
+import bufmgr.PinnedPage;
+import bufmgr.ScanRing;
 
 import chainexception.ChainException;
 
 public class HeapScan {
-    public HeapScan(HeapFile hf) {
+    /* data pages are read through a ring of this many frames, so a scan
+       does not push the pages of other clients out of the buffer pool */
+    public static final int SCAN_RING_FRAMES = 32;
+
+    public HeapScan(HeapFile hf) throws ChainException, java.io.IOException {
         heapFile = hf;
         initialized = false;
         pinnedDirectoryHeader = false;
@@ -37,11 +43,12 @@ public class HeapScan {
         return next_ridData == null ? false : true;
     }
 
-    public void cleanup() { 
+    public void cleanup() throws ChainException { 
         unpinDirectoryPage();
-        if( next_ridData != null ) {
-            Minibase.BufferManager.unpinPage(next_ridData.pageno, false);
+        if( dataPin.isPinned() ) {
+            Minibase.BufferManager.unpin(dataPin);
         }
+        Minibase.BufferManager.releaseScanRing(ring);
 
         next_ridData = null;
         next_ridDirectory = null;
@@ -51,7 +58,7 @@ public class HeapScan {
         heapFile = null;
     }
 
-    public void unpinDirectoryPage() {
+    public void unpinDirectoryPage() throws ChainException {
         if( pinnedDirectoryHeader ) {
             String function_name = "unpinDirectoryPage";
 
@@ -73,7 +80,7 @@ public class HeapScan {
            And this could be null.
         8. Set the page data.
     */
-    public Tuple getNext(RID rid) {
+    public Tuple getNext(RID rid) throws ChainException, java.io.IOException {
         String function_name = "getNext";
 
         // get the data and move the pointer:
@@ -101,6 +108,12 @@ public class HeapScan {
         printRIDs();
 
         byte[] ba = next_pageData.selectRecord(next_ridData);
+        if( RecordForward.isForward(ba) ) {
+            /* the record was moved, return its data under its own RID */
+            ba = heapFile.directory.selectMoved( RecordForward.target(ba) );
+        } else {
+            ba = RecordForward.data(ba);
+        }
         Tuple t =  new Tuple(ba, 0, ba.length);
 
         Log.log( LogLevel.VERBOSE, "%s: Returning data [%s]\n", function_name, 
@@ -112,8 +125,24 @@ public class HeapScan {
         return t;
     }
 
-    void gotoNext() {
-        String function_name = "gotoNext";
+    /*
+        Moves to the next record, skipping the moved copies of records:
+        those are returned where their forward is.
+    */
+    void gotoNext() throws ChainException, java.io.IOException {
+        advance();
+        skipMovedRecords();
+    }
+
+    private void skipMovedRecords() throws ChainException, java.io.IOException {
+        while( next_ridData != null 
+               && RecordForward.isMoved( next_pageData.selectRecord(next_ridData) ) ) {
+            advance();
+        }
+    }
+
+    private void advance() throws ChainException, java.io.IOException {
+        String function_name = "advance";
 
         /* if there is another record in the same page, we are done */
         if( next_pageData.hasNext(next_ridData) ) {
@@ -121,7 +150,7 @@ public class HeapScan {
             /* next_pageData remains the same! */
         } else {
             /* unpin the current page since we are done */
-            Minibase.BufferManager.unpinPage(next_pageData.getCurPage(), false);
+            Minibase.BufferManager.unpin(dataPin);
             Log.log( LogLevel.LESS, "%s: Done with Data Page [%d]\n", function_name, next_ridData.pageno.pid );
             next_pageData = null;
             next_ridData = null;
@@ -139,7 +168,7 @@ public class HeapScan {
         5. If we do, we are done.  If not, go to next step.
         6. We will go to the next directory and continue the process.
     */
-    private void setNextPageData() {
+    private void setNextPageData() throws ChainException, java.io.IOException {
         String function_name = "setNextPageData";
 
         while( next_ridDirectory != null ) {
@@ -148,12 +177,17 @@ public class HeapScan {
             Log.log( LogLevel.MORE, "%s: Setting current data page to [%d]\n", 
                         function_name, pid.pid );
 
-            next_pageData = new HFPage();
-            Minibase.BufferManager.pinPage(pid, next_pageData, false);
+            /* data pages are mostly allocated one after the other, so ask the
+               buffer manager to bring this page and the next ones in one I/O */
+            Minibase.BufferManager.prefetchPages(pid, Minibase.BufferManager.getLookAheadSize());
+
+            /* the same HFPage views every data page, pinning allocates nothing */
+            Minibase.BufferManager.pin(dataPin, pid, false, ring);
+            next_pageData = (HFPage) dataPin.getPage();
             next_pageData.setCurPage(pid);
             next_ridData = next_pageData.firstRecord();
             if( next_ridData == null ) {
-                Minibase.BufferManager.unpinPage(pid, false);
+                Minibase.BufferManager.unpin(dataPin);
                 next_pageData = null;
 
                 next_ridDirectory = heapFile.directory.getNextDirectoryRID( next_ridDirectory );
@@ -185,7 +219,7 @@ public class HeapScan {
            This is useful to handle the case of empty data pages.
         4. Unpin the Directory Page.
     */
-    private void initialize() {
+    private void initialize() throws ChainException, java.io.IOException {
         if( initialized ) {
             return;
         }
@@ -210,6 +244,7 @@ public class HeapScan {
         if( page_dir.hasNext(first) ) { 
             next_ridDirectory = page_dir.nextRecord(first);
             setNextPageData();
+            skipMovedRecords();
         }
         else {
             /* we are done */
@@ -233,5 +268,7 @@ public class HeapScan {
     private RID next_ridData;
     private RID next_ridDirectory;
     private HFPage next_pageData;
+    private final PinnedPage dataPin = new PinnedPage(new HFPage());
+    private final ScanRing ring = Minibase.BufferManager.createScanRing(SCAN_RING_FRAMES);
 };
 
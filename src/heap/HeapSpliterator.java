@@ -0,0 +1,194 @@
+package heap;
+
+import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+import bufmgr.ScanRing;
+
+import chainexception.ChainException;
+
+/*
+    Spliterator over the records of a heap file, for parallel scans.
+
+    The data pages are listed from the directory once, when the scan is
+    created, and the spliterator covers a range of that list. trySplit
+    hands the first half of the range to a new spliterator, so a
+    parallel stream gives each fork/join worker pages of its own.
+
+    A page is pinned while its records are read into a buffer and
+    unpinned before they are passed on, so a slow consumer never holds a
+    pin. Like HeapScan, a spliterator returns moved records where their
+    forward is and skips the moved copies. The file must not be changed
+    during the scan.
+
+    Like HeapScan, each split reads its data pages through a ScanRing of
+    its own, so a parallel scan does not push the pages of other clients
+    out of the buffer pool. The ring is created when the split reads its
+    first page and released when it has read its last. The rings of the
+    splits a stream dropped early are released by close.
+*/
+class HeapSpliterator implements Spliterator<Tuple> {
+
+    /* a split unpins each page before it reads the next, a few frames
+       are enough, and many splits at a time still leave the pool to others */
+    static final int SPLIT_RING_FRAMES = 4;
+
+    HeapSpliterator(PageId[] pages, int recordsPerPage) {
+        this( pages, 0, pages.length, recordsPerPage, new ArrayList<ScanRing>() );
+    }
+
+    private HeapSpliterator(PageId[] pages, int first, int end, int recordsPerPage, 
+                            ArrayList<ScanRing> rings) {
+        this.pages = pages;
+        this.next = first;
+        this.end = end;
+        this.recordsPerPage = recordsPerPage;
+        this.rings = rings;
+    }
+
+    public boolean tryAdvance(Consumer<? super Tuple> action) {
+        while( buffered == buffer.size() ) {
+            if( next == end ) {
+                releaseRing();
+                return false;
+            }
+            readPage( pages[next++] );
+        }
+        action.accept( buffer.get(buffered++) );
+        return true;
+    }
+
+    public void forEachRemaining(Consumer<? super Tuple> action) {
+        while( buffered < buffer.size() )
+            action.accept( buffer.get(buffered++) );
+        while( next < end ) {
+            readPage( pages[next++] );
+            while( buffered < buffer.size() )
+                action.accept( buffer.get(buffered++) );
+        }
+        releaseRing();
+    }
+
+    /*
+        Releases the rings of every split of this scan that still has
+        one, for a stream that was closed before all of them were read.
+    */
+    void close() {
+        synchronized( rings ) {
+            for( ScanRing r : rings )
+                Minibase.BufferManager.releaseScanRing( r );
+            rings.clear();
+        }
+        ring = null;
+    }
+
+    /*
+        Splits off the first half of the pages not read yet; the records
+        already buffered stay here.
+    */
+    public Spliterator<Tuple> trySplit() {
+        int remaining = end - next;
+        if( remaining < 2 )
+            return null;
+
+        int middle = next + remaining / 2;
+        HeapSpliterator prefix = new HeapSpliterator( pages, next, middle, recordsPerPage, rings );
+        next = middle;
+        return prefix;
+    }
+
+    public long estimateSize() {
+        return (long)(end - next) * recordsPerPage + (buffer.size() - buffered);
+    }
+
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    /* a Spliterator cannot throw the checked exceptions of the buffer manager */
+    private void readPage(PageId pid) {
+        try {
+            readRecords( pid );
+        } catch( ChainException e ) {
+            throw new IllegalStateException( "HeapSpliterator: cannot read page [" + pid.pid + "]", e );
+        }
+    }
+
+    /*
+        1. Pin the page, through the ring of this split.
+        2. Read every record into the buffer, following forwards and
+           skipping moved copies.
+        3. Unpin the page, then read the moved records.
+    */
+    private void readRecords(PageId pid) throws ChainException {
+        buffer.clear();
+        buffered = 0;
+
+        if( ring == null ) {
+            ring = Minibase.BufferManager.createScanRing( SPLIT_RING_FRAMES );
+            synchronized( rings ) {
+                rings.add( ring );
+            }
+        }
+
+        ArrayList<RID> forwards = null;
+        Minibase.BufferManager.pinPage( pid, page_data, false, ring );
+        page_data.setCurPage( pid );
+        for( RID rid = page_data.firstRecord(); rid != null; rid = page_data.nextRecord(rid) ) {
+            byte[] ba = page_data.selectRecord( rid );
+            if( RecordForward.isMoved(ba) )
+                continue;
+            if( RecordForward.isForward(ba) ) {
+                if( forwards == null )
+                    forwards = new ArrayList<RID>();
+                forwards.add( RecordForward.target(ba) );
+                continue;
+            }
+            ba = RecordForward.data( ba );
+            buffer.add( new Tuple(ba, 0, ba.length) );
+        }
+        Minibase.BufferManager.unpinPage( pid, false );
+
+        if( forwards != null ) {
+            for( RID target : forwards ) {
+                Minibase.BufferManager.pinPage( target.pageno, page_data, false );
+                page_data.setCurPage( target.pageno );
+                byte[] ba = RecordForward.movedData( page_data.selectRecord(target) );
+                Minibase.BufferManager.unpinPage( target.pageno, false );
+                buffer.add( new Tuple(ba, 0, ba.length) );
+            }
+        }
+    }
+
+    private void releaseRing() {
+        if( ring == null )
+            return;
+        synchronized( rings ) {
+            /* close may have released it already */
+            if( rings.remove( ring ) )
+                Minibase.BufferManager.releaseScanRing( ring );
+        }
+        ring = null;
+    }
+
+    private final PageId[] pages;
+    /* the range of pages not read yet */
+    private int next;
+    private final int end;
+    private final int recordsPerPage;
+
+    /* this split's ring, null before its first page and once it is done */
+    private ScanRing ring;
+    /* the rings of all the splits of the scan that have one */
+    private final ArrayList<ScanRing> rings;
+
+    private final HFPage page_data = new HFPage();
+    /* records of the page read last, and how many were passed on */
+    private final ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private int buffered;
+}
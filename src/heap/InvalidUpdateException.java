@@ -0,0 +1,13 @@
+package heap;
+
+import chainexception.ChainException;
+
+public class InvalidUpdateException extends ChainException {
+    public InvalidUpdateException() {
+        super(null,"Invalid update.");
+    }
+
+    public InvalidUpdateException(Exception e, String s) {
+        super(e,s);
+    }
+}
@@ -0,0 +1,115 @@
+package heap;
+
+import java.util.Arrays;
+
+import global.PageId;
+import global.RID;
+
+/*
+    Forwarding of records that change length.
+
+    HFPage can only update a record in place with the same length, and
+    the RID of a record must not change (indexes hold it). So a record
+    that grows or shrinks is moved: its new bytes go to a moved copy,
+    anywhere in the file, and the record at its own RID is overwritten
+    with a forward of the same length pointing to the copy.
+
+    forward:     FORWARD tag, pid and slot of the moved copy, padding
+    moved copy:  MOVED tag, pid and slot of the record's own RID, data
+    escaped:     ESCAPED tag, data
+
+    Scans skip moved copies and follow forwards, so every record is seen
+    once, under its own RID. A record shorter than HEADER_SIZE cannot
+    hold a forward and keeps its length.
+
+    The tags are in the record bytes, so data that happens to start with
+    one is stored escaped at its own RID: stored() adds an ESCAPED tag in
+    front of it and data() takes it off. The data in a moved copy comes
+    after the header and is never escaped.
+*/
+class RecordForward {
+
+    private static final long FORWARD = 0x4846_4657_4452_2d3eL;
+    private static final long MOVED   = 0x4846_4d4f_5645_443cL;
+    private static final long ESCAPED = 0x4846_4553_4341_5045L;
+
+    static final int HEADER_SIZE = 8 + 4 + 4;
+    private static final int TAG_SIZE = 8;
+
+    static boolean isForward(byte[] record) {
+        return record.length >= HEADER_SIZE && tag(record) == FORWARD;
+    }
+
+    static boolean isMoved(byte[] record) {
+        return record.length >= HEADER_SIZE && tag(record) == MOVED;
+    }
+
+    /* the bytes to store at its own RID for data */
+    static byte[] stored(byte[] data) {
+        if( data.length < TAG_SIZE )
+            return data;
+        long tag = tag(data);
+        if( tag != FORWARD && tag != MOVED && tag != ESCAPED )
+            return data;
+
+        byte[] record = new byte[TAG_SIZE + data.length];
+        put( record, 0, TAG_SIZE, ESCAPED );
+        System.arraycopy( data, 0, record, TAG_SIZE, data.length );
+        return record;
+    }
+
+    /* the data of a record stored at its own RID, neither forward nor moved copy */
+    static byte[] data(byte[] record) {
+        if( record.length < TAG_SIZE || tag(record) != ESCAPED )
+            return record;
+        return Arrays.copyOfRange( record, TAG_SIZE, record.length );
+    }
+
+    /* a forward to target, length bytes long */
+    static byte[] forward(RID target, int length) {
+        byte[] record = new byte[length];
+        writeHeader( record, FORWARD, target );
+        return record;
+    }
+
+    /* the moved copy of data, for the record at home */
+    static byte[] moved(RID home, byte[] data) {
+        byte[] record = new byte[HEADER_SIZE + data.length];
+        writeHeader( record, MOVED, home );
+        System.arraycopy( data, 0, record, HEADER_SIZE, data.length );
+        return record;
+    }
+
+    /* the RID a forward or a moved copy points to */
+    static RID target(byte[] record) {
+        return new RID( new PageId( (int) get(record, 8, 4) ), (int) get(record, 12, 4) );
+    }
+
+    /* the data of a moved copy */
+    static byte[] movedData(byte[] moved) {
+        return Arrays.copyOfRange( moved, HEADER_SIZE, moved.length );
+    }
+
+    private static long tag(byte[] record) {
+        return get( record, 0, TAG_SIZE );
+    }
+
+    private static void writeHeader(byte[] record, long tag, RID rid) {
+        put( record, 0, TAG_SIZE, tag );
+        put( record, 8, 4, rid.pageno.pid );
+        put( record, 12, 4, rid.slotno );
+    }
+
+    /* big-endian, like Convert, without its checked exceptions */
+    private static long get(byte[] record, int offset, int bytes) {
+        long value = 0;
+        for( int i = 0; i < bytes; i++ )
+            value = (value << 8) | (record[offset + i] & 0xff);
+        return value;
+    }
+
+    private static void put(byte[] record, int offset, int bytes, long value) {
+        for( int i = 0; i < bytes; i++ )
+            record[offset + i] = (byte)(value >>> (8 * (bytes - 1 - i)));
+    }
+}
@@ -0,0 +1,9 @@
+package heap;
+
+import chainexception.ChainException;
+
+public class SpaceNotAvailableException extends ChainException {
+    public SpaceNotAvailableException(String s) {
+        super(null,s);
+    }
+}
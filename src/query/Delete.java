@@ -119,11 +119,11 @@ class Delete implements Plan {
        } /* End of is delete candidate */     
     }
     
-    /* do the actual deletion of records from Table here */
-    for(int i = 0; i < deleteRecordsArray.size(); i++)
-    {
-    	fileHandle.deleteRecord(deleteRecordsArray.get(i));
-    }
+    /* do the actual deletion of records from Table here, a page at a time */
+    fileHandle.deleteRecords(deleteRecordsArray);
+    
+    /* give the pages left empty back to the database */
+    fileHandle.reclaimEmptyPages();
     
     /* Update catalog statistics */
     int tuplesCount;
@@ -26,6 +26,11 @@ public class Optimizer implements MiniSqlTreeConstants {
    */
   public static Plan evaluate(AST_Start tree) throws QueryException {
 
+    // the stats command has no statement node
+    if (tree.isStats) {
+      return new Stats();
+    }
+
     // dispatch optimizing to the individual classes
     switch (tree.getType()) {
 
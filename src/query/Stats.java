@@ -0,0 +1,19 @@
+package query;
+
+import global.Minibase;
+
+/**
+ * Execution plan for the STATS command: prints the buffer pool metrics.
+ */
+class Stats implements Plan {
+
+  /**
+   * Executes the plan and prints applicable output.
+   */
+  public void execute() {
+
+    System.out.print(Minibase.BufferManager.getStats());
+
+  } // public void execute()
+
+} // class Stats implements Plan
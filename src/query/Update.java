@@ -96,7 +96,11 @@ class Update implements Plan {
     IndexDesc[] indexs = Minibase.SystemCatalog.getIndexes(fileName);
     HashIndex hashIndex = null;
     
-    /* Tuples that qualify predicates are updated */
+    /* Tuples that qualify predicates are updated; the new records are
+     * written to the table after the scan, a page at a time
+     */
+    ArrayList<RID> updateRecordsArray = new ArrayList<RID>();
+    ArrayList<byte[]> updateDataArray = new ArrayList<byte[]>();
     int updatedRows = 0;
     while( scanner.hasNext() ) {
         Tuple t = scanner.getNext();
@@ -145,13 +149,17 @@ class Update implements Plan {
         	/* Update all the fields that need to be updated */
         	for(int k = 0; k < fieldNumbers.length; k++)
         	   t.setField(fieldNumbers[k], values[k]);
-        	/* Update record using updated tuple */
-        	fileHandle.updateRecord(rid, t.getData());
+        	/* Save the updated tuple for later update */
+        	updateRecordsArray.add(rid);
+        	updateDataArray.add(t.getData());
             /* Count the number of rows affected */
             updatedRows++;
         }
     }
     
+    /* do the actual update of records in Table here */
+    fileHandle.updateRecords(updateRecordsArray, updateDataArray);
+    
     /* Assuming there are no STATS update to make because
      * the row count for this table remains the same.
      */
@@ -4,6 +4,7 @@ import global.AttrType;
 import global.SearchKey;
 import global.RID;
 
+import heap.BulkLoader;
 import heap.HeapFile;
 import index.HashIndex;
 
@@ -66,10 +67,15 @@ class IndexScanCreator {
             this.hashIndex = new HashIndex(null);
             ownHashIndex = true;
 
-            while( iter.hasNext() ) {
-                Tuple t = iter.getNext();
-                RID rid = heapFile.insertRecord( t.getData() );
-                this.hashIndex.insertEntry( new SearchKey( t.getField(colIndex) ), rid );
+            BulkLoader loader = new BulkLoader(heapFile);
+            try {
+                while( iter.hasNext() ) {
+                    Tuple t = iter.getNext();
+                    RID rid = loader.insert( t.getData() );
+                    this.hashIndex.insertEntry( new SearchKey( t.getField(colIndex) ), rid );
+                }
+            } finally {
+                loader.close();
             }
 
             indexScan = new IndexScan(iter.getSchema(), hashIndex, heapFile);
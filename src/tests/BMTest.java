@@ -6,7 +6,19 @@ import global.Minibase;
 import global.Page;
 import global.PageId;
 
+import bufmgr.BufMgr;
+import bufmgr.BufMgrStats;
+import bufmgr.PinnedPage;
+import bufmgr.ScanRing;
+import diskmgr.DiskMgr;
+import diskmgr.DiskMgrException;
+import diskmgr.FileIOException;
+import diskmgr.InvalidPageNumberException;
+
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
 
 import chainexception.ChainException;
 
@@ -117,6 +129,24 @@ class BMDriver extends TestDriver implements GlobalConst {
 		if (!test4()) { _passAll = FAIL; }
 		if (!test5()) { _passAll = FAIL; }
 		if (!test6()) { _passAll = FAIL; }
+		if (!test7()) { _passAll = FAIL; }
+		if (!test8()) { _passAll = FAIL; }
+		if (!test9()) { _passAll = FAIL; }
+		if (!test10()) { _passAll = FAIL; }
+		if (!test11()) { _passAll = FAIL; }
+		if (!test12()) { _passAll = FAIL; }
+		if (!test13()) { _passAll = FAIL; }
+		if (!test14()) { _passAll = FAIL; }
+		if (!test15()) { _passAll = FAIL; }
+		if (!test16()) { _passAll = FAIL; }
+		if (!test17()) { _passAll = FAIL; }
+		if (!test18()) { _passAll = FAIL; }
+		if (!test19()) { _passAll = FAIL; }
+		if (!test20()) { _passAll = FAIL; }
+		if (!test21()) { _passAll = FAIL; }
+		if (!test22()) { _passAll = FAIL; }
+		if (!test23()) { _passAll = FAIL; }
+		if (!test24()) { _passAll = FAIL; }
 
 		return _passAll;
 	}
@@ -597,7 +627,104 @@ class BMDriver extends TestDriver implements GlobalConst {
 	 */
 	protected boolean test4 () {
 
-		return true;
+		System.out.print("\n  Test 4 exercises read-ahead in the buffer manager\n");
+
+		int numPages = BUF_SIZE + LAH_SIZE;
+		Page pg = new Page();
+		PageId pid = new PageId();
+		PageId firstPid = new PageId();
+		boolean status = OK;
+
+		System.out.print("  - Allocate and dirty more pages than there are frames\n");
+
+		try {
+			firstPid = Minibase.BufferManager.newPage( pg, numPages );
+			Minibase.BufferManager.unpinPage( firstPid, false );
+		}
+		catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print (" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				Convert.setIntValue (pid.pid + 99999, 0, pg.getpage());
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not write page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK )
+			System.out.print ("  - Read ahead runs of pages and read them back\n");
+
+		for ( int start = firstPid.pid; status == OK && start < firstPid.pid + numPages;
+		start += LAH_SIZE ) {
+
+			int howmany = Math.min(LAH_SIZE, firstPid.pid + numPages - start);
+			int fetched;
+			try {
+				fetched = Minibase.BufferManager.prefetchPages( new PageId(start), howmany );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+				break;
+			}
+			if ( fetched < 0 || fetched > howmany ) {
+				status = FAIL;
+				System.err.print("*** Read ahead " + fetched + " pages out of " 
+						+ howmany + "\n");
+			}
+
+			for ( pid.pid = start; status == OK && pid.pid < start + howmany;
+			pid.pid = pid.pid + 1 ) {
+				try {
+					Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+					if ( Convert.getIntValue (0, pg.getpage()) != pid.pid + 99999 ) {
+						status = FAIL;
+						System.err.print("*** Read wrong data back from page " 
+								+ pid.pid + "\n");
+					}
+					Minibase.BufferManager.unpinPage( pid, /*dirty:*/ false );
+				}
+				catch (Exception e) {
+					status = FAIL;
+					System.err.print("*** Could not read page " + pid.pid + "\n");
+					e.printStackTrace();
+				}
+			}
+		}
+
+		if ( status == OK && Minibase.BufferManager.getNumUnpinned() 
+				!= Minibase.BufferManager.getNumBuffers() ) {
+			status = FAIL;
+			System.err.print("*** Read-ahead left frames pinned\n");
+		}
+
+		for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.freePage( pid );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK )
+			System.out.print("  Test 4 completed successfully.\n");
+
+		return status;
 	}
 
 	/**
@@ -607,7 +734,83 @@ class BMDriver extends TestDriver implements GlobalConst {
 	 */
 	protected boolean test5 () {
 
-		return true;
+		System.out.print("\n  Test 5 runs normal buffer manager operations "
+				+ "with every replacement policy\n");
+
+		String[] policies = { "LIRS", "LRU", "MRU", "Clock", "2Q", "ARC" };
+		int numPages = BUF_SIZE + 20;
+		BufMgr saved = Minibase.BufferManager;
+		boolean status = OK;
+
+		for ( int p = 0; status == OK && p < policies.length; p++ ) {
+
+			System.out.print("  - " + policies[p] + "\n");
+			Page pg = new Page();
+			PageId pid = new PageId();
+			PageId firstPid = new PageId();
+
+			try {
+				Minibase.BufferManager = new BufMgr( BUF_SIZE, LAH_SIZE, policies[p] );
+				firstPid = Minibase.BufferManager.newPage( pg, numPages );
+				Minibase.BufferManager.unpinPage( firstPid, false );
+			}
+			catch (Exception e) {
+				System.err.print("*** Could not allocate " + numPages);
+				System.err.print (" new pages in the database.\n");
+				e.printStackTrace();
+				Minibase.BufferManager = saved;
+				return false;
+			}
+
+			// Write every page, then read them back forwards and backwards
+			for ( int pass = 0; status == OK && pass < 3; pass++ ) {
+				for ( int i = 0; status == OK && i < numPages; i++ ) {
+					pid.pid = (pass == 2) ? firstPid.pid + numPages - 1 - i 
+							: firstPid.pid + i;
+					try {
+						Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+						if ( pass == 0 ) {
+							Convert.setIntValue (pid.pid + 88888, 0, pg.getpage());
+						} else if ( Convert.getIntValue (0, pg.getpage()) != pid.pid + 88888 ) {
+							status = FAIL;
+							System.err.print("*** Read wrong data back from page " 
+									+ pid.pid + "\n");
+						}
+						Minibase.BufferManager.unpinPage( pid, /*dirty:*/ pass == 0 );
+					}
+					catch (Exception e) {
+						status = FAIL;
+						System.err.print("*** Could not access page " + pid.pid + "\n");
+						e.printStackTrace();
+					}
+				}
+			}
+
+			if ( status == OK && Minibase.BufferManager.getNumUnpinned() 
+					!= Minibase.BufferManager.getNumBuffers() ) {
+				status = FAIL;
+				System.err.print("*** " + policies[p] + " left frames pinned\n");
+			}
+
+			for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+			pid.pid = pid.pid + 1 ) {
+				try {
+					Minibase.BufferManager.freePage( pid );
+				}
+				catch (Exception e) {
+					status = FAIL;
+					System.err.print("*** Error freeing page " + pid.pid + "\n");
+					e.printStackTrace();
+				}
+			}
+		}
+
+		Minibase.BufferManager = saved;
+
+		if ( status == OK )
+			System.out.print("  Test 5 completed successfully.\n");
+
+		return status;
 	}
 
 	/**
@@ -617,9 +820,1859 @@ class BMDriver extends TestDriver implements GlobalConst {
 	 */
 	protected boolean test6 () {
 
-		return true;
+		System.out.print("\n  Test 6 runs the buffer manager on a memory-mapped "
+				+ "database\n");
+
+		String mappedpath = dbpath + ".mmap";
+		int numPages = BUF_SIZE + 20;
+		Page pg = new Page();
+		PageId pid = new PageId();
+		PageId firstPid = new PageId();
+		boolean status = OK;
+
+		System.out.print("  - Create the database and write some pages through\n");
+
+		try {
+			useManagers( new DiskMgr( DiskMgr.MAPPED_STORAGE ), new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			Minibase.DiskManager.openDB( mappedpath, DB_SIZE );
+			firstPid = Minibase.BufferManager.newPage( pg, numPages );
+			Minibase.BufferManager.unpinPage( firstPid, false );
+		}
+		catch (Exception e) {
+			System.err.print("*** Could not create a memory-mapped database\n");
+			e.printStackTrace();
+			restoreManagers();
+			return false;
+		}
+
+		for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				Convert.setIntValue (pid.pid + 77777, 0, pg.getpage());
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+				Minibase.BufferManager.flushPage( pid );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not write page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK )
+			System.out.print("  - Reopen the database and read the pages back\n");
+
+		try {
+			Minibase.BufferManager.flushAllPages();
+			Minibase.DiskManager.closeDB();
+			useManagers( new DiskMgr( DiskMgr.MAPPED_STORAGE ), new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			Minibase.DiskManager.openDB( mappedpath );
+		}
+		catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Could not reopen the memory-mapped database\n");
+			e.printStackTrace();
+		}
+
+		for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				if ( Convert.getIntValue (0, pg.getpage()) != pid.pid + 77777 ) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page " 
+							+ pid.pid + "\n");
+				}
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ false );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not read page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			Minibase.DiskManager.DBDestroy();
+		}
+		catch (IOException e) {
+			status = FAIL;
+			System.err.print("*** Could not destroy the memory-mapped database\n");
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 6 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Checks that flushAllPages writes runs of dirty pages that can be
+	 * read back with a multi-page read
+	 *
+	 * @return whether test7 has passed
+	 */
+	protected boolean test7 () {
+
+		System.out.print("\n  Test 7 exercises multi-page reads and writes\n");
+
+		int numPages = BUF_SIZE / 2;
+		Page pg = new Page();
+		PageId pid = new PageId();
+		PageId firstPid = new PageId();
+		boolean status = OK;
+
+		System.out.print("  - Dirty a run of pages and flush them all\n");
+
+		try {
+			firstPid = Minibase.BufferManager.newPage( pg, numPages );
+			Minibase.BufferManager.unpinPage( firstPid, false );
+		}
+		catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print (" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				Convert.setIntValue (pid.pid + 66666, 0, pg.getpage());
+				// Leave holes so the flush has several runs to write
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ pid.pid % 7 != 3 );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not write page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			if ( status == OK )
+				Minibase.BufferManager.flushAllPages();
+		}
+		catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Could not flush the buffer pool\n");
+			e.printStackTrace();
+		}
+
+		if ( status == OK )
+			System.out.print("  - Read the run back from disk in one call\n");
+
+		Page[] pages = new Page[numPages];
+		for ( int i = 0; i < numPages; i++ )
+			pages[i] = new Page();
+		try {
+			if ( status == OK )
+				Minibase.DiskManager.read_pages( firstPid, numPages, pages );
+		}
+		catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Could not read the pages back\n");
+			e.printStackTrace();
+		}
+
+		for ( int i = 0; status == OK && i < numPages; i++ ) {
+			int p = firstPid.pid + i;
+			try {
+				// Pages left clean hold whatever was on disk before
+				if ( p % 7 != 3 
+						&& Convert.getIntValue (0, pages[i].getpage()) != p + 66666 ) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page " + p + "\n");
+				}
+			}
+			catch (IOException e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.freePage( pid );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK )
+			System.out.print("  Test 7 completed successfully.\n");
+
+		return status;
 	}
 
+	/**
+	 * Creates a database with a larger page size, reopens it and checks
+	 * that the page size and the pages survived
+	 *
+	 * @return whether test8 has passed
+	 */
+	protected boolean test8 () {
+
+		System.out.print("\n  Test 8 runs the buffer manager on a database with "
+				+ "8 KB pages\n");
+
+		int pageSize = 8 * 1024;
+		String sizedpath = dbpath + ".8k";
+		int numPages = BUF_SIZE + 20;
+		Page pg = new Page();
+		PageId pid = new PageId();
+		PageId firstPid = new PageId();
+		boolean status = OK;
+
+		System.out.print("  - Create the database and fill whole pages\n");
+
+		try {
+			useManagers( new DiskMgr(), new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			Minibase.DiskManager.openDB( sizedpath, DB_SIZE, pageSize );
+			firstPid = Minibase.BufferManager.newPage( pg, numPages );
+			Minibase.BufferManager.unpinPage( firstPid, false );
+		}
+		catch (Exception e) {
+			System.err.print("*** Could not create a database with 8 KB pages\n");
+			e.printStackTrace();
+			restoreManagers();
+			return false;
+		}
+
+		for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				if ( pg.getpage().length != pageSize ) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid + " has " 
+							+ pg.getpage().length + " bytes\n");
+				}
+				else {
+					Convert.setIntValue (pid.pid + 55555, 0, pg.getpage());
+					Convert.setIntValue (pid.pid + 44444, pageSize - 4, pg.getpage());
+				}
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not write page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK )
+			System.out.print("  - Reopen the database and read the pages back\n");
+
+		try {
+			Minibase.BufferManager.flushAllPages();
+			Minibase.DiskManager.closeDB();
+			useManagers( new DiskMgr(), new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			Minibase.DiskManager.openDB( sizedpath );
+			if ( Minibase.DiskManager.db_page_size() != pageSize ) {
+				status = FAIL;
+				System.err.print("*** Reopened with a page size of " 
+						+ Minibase.DiskManager.db_page_size() + "\n");
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Could not reopen the database\n");
+			e.printStackTrace();
+		}
+
+		for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				if ( Convert.getIntValue (0, pg.getpage()) != pid.pid + 55555 
+						|| Convert.getIntValue (pageSize - 4, pg.getpage()) != pid.pid + 44444 ) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page " 
+							+ pid.pid + "\n");
+				}
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ false );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not read page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			Minibase.DiskManager.DBDestroy();
+		}
+		catch (IOException e) {
+			status = FAIL;
+			System.err.print("*** Could not destroy the database\n");
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 8 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Lets the background writer clean dirty pages, then keeps dirtying
+	 * pages while it runs and checks that no older copy of a page ever
+	 * overwrites a newer one on disk
+	 *
+	 * @return whether test9 has passed
+	 */
+	protected boolean test9 () {
+
+		System.out.print("\n  Test 9 exercises the background page writer\n");
+
+		int numPages = BUF_SIZE / 2;
+		Page pg = new Page();
+		// Disk reads go to their own page, pg shares the frames' buffers
+		Page disk = new Page();
+		PageId pid = new PageId();
+		PageId firstPid = new PageId();
+		boolean status = OK;
+
+		try {
+			firstPid = Minibase.BufferManager.newPage( pg, numPages );
+			Minibase.BufferManager.unpinPage( firstPid, false );
+		}
+		catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print (" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Dirty some pages and wait for the writer to clean them\n");
+
+		Minibase.BufferManager.startPageWriter( 1.0, 5, 20 );
+
+		int[] expected = new int[numPages];
+		for ( int round = 1; status == OK && round <= 20; round++ ) {
+			for ( int i = 0; status == OK && i < numPages; i++ ) {
+				pid.pid = firstPid.pid + i;
+				try {
+					Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+					expected[i] = pid.pid * 100 + round;
+					Convert.setIntValue (expected[i], 0, pg.getpage());
+					Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+				}
+				catch (Exception e) {
+					status = FAIL;
+					System.err.print("*** Could not write page " + pid.pid + "\n");
+					e.printStackTrace();
+				}
+			}
+			// After the first round, give the writer time to catch up
+			if ( round == 1 || round == 20 ) {
+				boolean clean = false;
+				for ( int wait = 0; status == OK && !clean && wait < 500; wait++ ) {
+					clean = true;
+					for ( int i = 0; clean && i < numPages; i++ ) {
+						try {
+							Minibase.DiskManager.read_page( new PageId(firstPid.pid + i), disk );
+							clean = ( Convert.getIntValue (0, disk.getpage()) == expected[i] );
+						}
+						catch (Exception e) {
+							status = FAIL;
+							e.printStackTrace();
+						}
+					}
+					if ( !clean ) {
+						try { Thread.sleep(10); } catch (InterruptedException e) { }
+					}
+				}
+				if ( status == OK && !clean ) {
+					status = FAIL;
+					System.err.print("*** The page writer did not clean the pages\n");
+				}
+			}
+		}
+
+		Minibase.BufferManager.stopPageWriter();
+
+		if ( status == OK )
+			System.out.print("  - Flush and check that the newest data is on disk\n");
+
+		try {
+			Minibase.BufferManager.flushAllPages();
+			for ( int i = 0; status == OK && i < numPages; i++ ) {
+				Minibase.DiskManager.read_page( new PageId(firstPid.pid + i), disk );
+				if ( Convert.getIntValue (0, disk.getpage()) != expected[i] ) {
+					status = FAIL;
+					System.err.print("*** Page " + (firstPid.pid + i) 
+							+ " has stale data on disk\n");
+				}
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.freePage( pid );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK )
+			System.out.print("  Test 9 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Several threads pin, update and unpin pages at the same time. Each
+	 * thread owns a slice of the pages and keeps a counter in them, and
+	 * every thread also reads all the pages, so misses on the same page
+	 * race each other and pages keep getting evicted under the writers.
+	 *
+	 * @return whether test10 has passed
+	 */
+	protected boolean test10 () {
+
+		System.out.print("\n  Test 10 pins pages from several threads at once\n");
+
+		final int numThreads = 4;
+		final int rounds = 25;
+		final int numPages = BUF_SIZE * 2;
+		Page pg = new Page();
+		Page disk = new Page();
+		PageId pid = new PageId();
+		final PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = Minibase.BufferManager.newPage( pg, numPages );
+			Minibase.BufferManager.unpinPage( firstPid, false );
+		}
+		catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print (" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Stamp every page with its page number\n");
+
+		for ( int i = 0; status == OK && i < numPages; i++ ) {
+			pid.pid = firstPid.pid + i;
+			try {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				Convert.setIntValue (0, 0, pg.getpage());
+				Convert.setIntValue (pid.pid, 4, pg.getpage());
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not write page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+		if ( status == FAIL )
+			return status;
+
+		System.out.print("  - Update and read the pages from " + numThreads + " threads\n");
+
+		final boolean[] failed = new boolean[numThreads];
+		Thread[] threads = new Thread[numThreads];
+		for ( int t = 0; t < numThreads; t++ ) {
+			final int self = t;
+			threads[t] = new Thread() {
+				public void run() {
+					Page page = new Page();
+					PageId id = new PageId();
+					try {
+						for ( int round = 0; round < rounds; round++ ) {
+							for ( int i = 0; i < numPages; i++ ) {
+								id.pid = firstPid.pid + (i + self * 7) % numPages;
+								Minibase.BufferManager.pinPage( id, page, false );
+								boolean mine = ( (id.pid - firstPid.pid) % numThreads == self );
+								if ( Convert.getIntValue (4, page.getpage()) != id.pid ) {
+									failed[self] = true;
+									System.err.print("*** Page " + id.pid + " has the wrong stamp\n");
+								}
+								if ( mine ) {
+									int count = Convert.getIntValue (0, page.getpage());
+									Convert.setIntValue (count + 1, 0, page.getpage());
+								}
+								Minibase.BufferManager.unpinPage( id, mine );
+							}
+						}
+					}
+					catch (Exception e) {
+						failed[self] = true;
+						System.err.print("*** Thread " + self + " failed on page " + id.pid + "\n");
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for ( int t = 0; t < numThreads; t++ ) {
+			try {
+				threads[t].join();
+			}
+			catch (InterruptedException e) {
+				status = FAIL;
+			}
+			if ( failed[t] )
+				status = FAIL;
+		}
+
+		if ( status == OK ) {
+			System.out.print("  - Flush and check every update made it to disk\n");
+			if ( Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumBuffers() ) {
+				status = FAIL;
+				System.err.print("*** Pages were left pinned\n");
+			}
+		}
+
+		try {
+			Minibase.BufferManager.flushAllPages();
+			for ( int i = 0; status == OK && i < numPages; i++ ) {
+				Minibase.DiskManager.read_page( new PageId(firstPid.pid + i), disk );
+				if ( Convert.getIntValue (0, disk.getpage()) != rounds 
+						|| Convert.getIntValue (4, disk.getpage()) != firstPid.pid + i ) {
+					status = FAIL;
+					System.err.print("*** Page " + (firstPid.pid + i) 
+							+ " lost updates\n");
+				}
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.freePage( pid );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK )
+			System.out.print("  Test 10 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Reads more pages than the buffer pool holds and checks what the
+	 * buffer pool metrics report, directly and through JMX
+	 *
+	 * @return whether test11 has passed
+	 */
+	protected boolean test11 () {
+
+		System.out.print("\n  Test 11 checks the buffer pool metrics\n");
+
+		int numPages = BUF_SIZE + 10;
+		Page pg = new Page();
+		PageId pid = new PageId();
+		PageId firstPid = new PageId();
+		BufMgrStats stats = Minibase.BufferManager.getStats();
+		boolean status = OK;
+
+		try {
+			firstPid = Minibase.BufferManager.newPage( pg, numPages );
+			Minibase.BufferManager.unpinPage( firstPid, false );
+		}
+		catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print (" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Dirty every page, then read them all twice\n");
+
+		for ( int pass = 0; status == OK && pass < 3; pass++ ) {
+			if ( pass == 1 )
+				stats.reset();
+			for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+			pid.pid = pid.pid + 1 ) {
+				try {
+					Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+					if ( stats.getPinnedCount() != 1 ) {
+						status = FAIL;
+						System.err.print("*** Pinned count is " + stats.getPinnedCount() + "\n");
+					}
+					Minibase.BufferManager.unpinPage( pid, /*dirty:*/ pass == 0 );
+				}
+				catch (Exception e) {
+					status = FAIL;
+					System.err.print("*** Could not access page " + pid.pid + "\n");
+					e.printStackTrace();
+				}
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.print("  - Check the counters\n");
+			if ( stats.getHits() + stats.getMisses() != 2 * numPages ) {
+				status = FAIL;
+				System.err.print("*** " + stats.getHits() + " hits and " + stats.getMisses() 
+						+ " misses for " + 2 * numPages + " pins\n");
+			}
+			if ( stats.getEvictions() == 0 || stats.getDirtyWrites() == 0 ) {
+				status = FAIL;
+				System.err.print("*** Pages were evicted and written back, but the metrics "
+						+ "report " + stats.getEvictions() + " evictions and " 
+						+ stats.getDirtyWrites() + " dirty writes\n");
+			}
+			if ( stats.getPinMissLatency().getCount() != stats.getMisses() 
+					|| stats.getDiskReadLatency().getCount() == 0 
+					|| stats.getDiskWriteLatency().getCount() == 0 ) {
+				status = FAIL;
+				System.err.print("*** Latencies were not recorded\n");
+			}
+			if ( stats.getPinnedCount() != 0 ) {
+				status = FAIL;
+				System.err.print("*** Pinned count is " + stats.getPinnedCount() + "\n");
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.print("  - Read the metrics through JMX\n");
+			try {
+				ObjectName name = stats.registerMBean( "buftest" );
+				Object hits = ManagementFactory.getPlatformMBeanServer()
+						.getAttribute( name, "Hits" );
+				if ( ((Long)hits).longValue() != stats.getHits() ) {
+					status = FAIL;
+					System.err.print("*** JMX reports " + hits + " hits\n");
+				}
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not register the metrics MBean\n");
+				e.printStackTrace();
+			}
+		}
+
+		for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+		pid.pid = pid.pid + 1 ) {
+			try {
+				Minibase.BufferManager.freePage( pid );
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK )
+			System.out.print("  Test 11 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Allocates and frees runs of pages and checks that the free extent
+	 * index fills holes with the best fitting run and agrees with the
+	 * space map once the database is opened again
+	 *
+	 * @return whether test12 has passed
+	 */
+	protected boolean test12 () {
+
+		System.out.print("\n  Test 12 allocates pages from the free extent index\n");
+
+		String extentpath = dbpath + ".extents";
+		DiskMgr disk = new DiskMgr();
+		PageId run = new PageId();
+		PageId hole = new PageId();
+		PageId page = new PageId();
+		boolean status = OK;
+
+		try {
+			useManagers( disk, new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			disk.openDB( extentpath, DB_SIZE );
+
+			System.out.print("  - Allocate a run of 8 pages and punch a hole in it\n");
+			long before = disk.db_num_free_pages();
+			disk.allocate_page( run, 8 );
+			if ( disk.db_num_free_pages() != before - 8 ) {
+				status = FAIL;
+				System.err.print("*** " + (before - disk.db_num_free_pages()) 
+						+ " pages taken for a run of 8\n");
+			}
+			hole.pid = run.pid + 3;
+			disk.deallocate_page( hole, 2 );
+
+			System.out.print("  - Single pages go into the hole\n");
+			for ( int i = 0; status == OK && i < 2; i++ ) {
+				disk.allocate_page( page );
+				if ( page.pid != hole.pid + i ) {
+					status = FAIL;
+					System.err.print("*** Got page " + page.pid + " instead of " 
+							+ (hole.pid + i) + "\n");
+				}
+			}
+
+			System.out.print("  - Allocate a run that spans two space map pages\n");
+			PageId big = new PageId();
+			int bigSize = DB_SIZE - 1000;
+			disk.allocate_page( big, bigSize );
+			if ( status == OK && disk.db_num_free_pages() != before - 8 - bigSize ) {
+				status = FAIL;
+				System.err.print("*** " + disk.db_num_free_pages() + " free pages left after "
+						+ "allocating " + bigSize + "\n");
+			}
+			Minibase.BufferManager.flushAllPages();
+			DiskMgr reopened = new DiskMgr();
+			reopened.openDB( extentpath );
+			if ( status == OK && reopened.db_num_free_pages() != disk.db_num_free_pages() ) {
+				status = FAIL;
+				System.err.print("*** The reopened database has " + reopened.db_num_free_pages()
+						+ " free pages instead of " + disk.db_num_free_pages() + "\n");
+			}
+			reopened.closeDB();
+			disk.deallocate_page( big, bigSize );
+
+			System.out.print("  - Free everything, then reopen and compare\n");
+			disk.deallocate_page( run, 8 );
+			if ( status == OK && disk.db_num_free_pages() != before ) {
+				status = FAIL;
+				System.err.print("*** " + disk.db_num_free_pages() + " free pages instead of " 
+						+ before + "\n");
+			}
+
+			Minibase.BufferManager.flushAllPages();
+			reopened = new DiskMgr();
+			reopened.openDB( extentpath );
+			if ( status == OK && reopened.db_num_free_pages() != disk.db_num_free_pages() ) {
+				status = FAIL;
+				System.err.print("*** The reopened database has " + reopened.db_num_free_pages()
+						+ " free pages instead of " + disk.db_num_free_pages() + "\n");
+			}
+			reopened.closeDB();
+			disk.DBDestroy();
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 12 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Adds enough file entries to fill several directory pages, deletes
+	 * some and checks every lookup, before and after reopening the
+	 * database
+	 *
+	 * @return whether test13 has passed
+	 */
+	protected boolean test13 () {
+
+		System.out.print("\n  Test 13 exercises the file directory\n");
+
+		int numFiles = 1000;
+		String dirpath = dbpath + ".dir";
+		DiskMgr disk = new DiskMgr();
+		boolean status = OK;
+
+		try {
+			useManagers( disk, new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			disk.openDB( dirpath, DB_SIZE );
+
+			System.out.print("  - Add " + numFiles + " file entries\n");
+			for ( int i = 0; i < numFiles; i++ )
+				disk.add_file_entry( "file" + i, new PageId(100 + i) );
+			try {
+				disk.add_file_entry( "file7", new PageId(100) );
+				status = FAIL;
+				System.err.print("*** A duplicate file entry was added\n");
+			}
+			catch (diskmgr.DuplicateEntryException e) {
+				// expected
+			}
+
+			System.out.print("  - Delete every third entry and add them back elsewhere\n");
+			for ( int i = 0; i < numFiles; i += 3 )
+				disk.delete_file_entry( "file" + i );
+			for ( int i = 0; status == OK && i < numFiles; i++ ) {
+				PageId start = disk.get_file_entry( "file" + i );
+				if ( (i % 3 == 0) != (start == null) ) {
+					status = FAIL;
+					System.err.print("*** Wrong lookup for deleted file" + i + "\n");
+				}
+			}
+			for ( int i = 0; i < numFiles; i += 3 )
+				disk.add_file_entry( "file" + i, new PageId(5000 + i) );
+
+			System.out.print("  - Reopen and look every entry up\n");
+			Minibase.BufferManager.flushAllPages();
+			DiskMgr reopened = new DiskMgr();
+			reopened.openDB( dirpath );
+			for ( int i = 0; status == OK && i < numFiles; i++ ) {
+				PageId start = reopened.get_file_entry( "file" + i );
+				int expected = (i % 3 == 0) ? 5000 + i : 100 + i;
+				if ( start == null || start.pid != expected ) {
+					status = FAIL;
+					System.err.print("*** file" + i + " starts at " 
+							+ (start == null ? "nothing" : "" + start.pid) + "\n");
+				}
+			}
+			if ( status == OK && reopened.get_file_entry( "nofile" ) != null ) {
+				status = FAIL;
+				System.err.print("*** Found a file that was never added\n");
+			}
+			reopened.closeDB();
+			disk.DBDestroy();
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 13 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Creates a database of several segment files, writes pages on both
+	 * sides of a segment boundary and lets allocations grow it by whole
+	 * segments
+	 *
+	 * @return whether test14 has passed
+	 */
+	protected boolean test14 () {
+
+		System.out.print("\n  Test 14 spreads a database over segment files\n");
+
+		int segmentPages = 3000;
+		String spacepath = dbpath + ".space";
+		DiskMgr disk = new DiskMgr();
+		Page pg = new Page();
+		PageId pid = new PageId();
+		boolean status = OK;
+
+		try {
+			useManagers( disk, new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+
+			System.out.print("  - Create two segments of " + segmentPages + " pages\n");
+			disk.openDB( spacepath, 2 * segmentPages, PAGE_SIZE, segmentPages );
+			if ( disk.db_num_pages() != 2 * segmentPages 
+					|| !new java.io.File(spacepath + ".1").exists() ) {
+				status = FAIL;
+				System.err.print("*** The database has " + disk.db_num_pages() 
+						+ " pages or its second segment file is missing\n");
+			}
+
+			// Page segmentPages holds the space map of the second segment
+			System.out.print("  - Write pages around the segment boundary\n");
+			for ( pid.pid = segmentPages - 10; status == OK && pid.pid < segmentPages + 10;
+			pid.pid = pid.pid + 1 ) {
+				if ( pid.pid == segmentPages )
+					continue;
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				Convert.setIntValue (pid.pid + 12345, 0, pg.getpage());
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+			}
+			Minibase.BufferManager.flushAllPages();
+			Page[] run = new Page[20];
+			for ( int i = 0; i < run.length; i++ )
+				run[i] = new Page();
+			disk.read_pages( new PageId(segmentPages - 10), run.length, run );
+			for ( int i = 0; status == OK && i < run.length; i++ ) {
+				if ( i != 10 
+						&& Convert.getIntValue (0, run[i].getpage()) != segmentPages - 10 + i + 12345 ) {
+					status = FAIL;
+					System.err.print("*** Page " + (segmentPages - 10 + i) 
+							+ " read back wrong data\n");
+				}
+			}
+
+			System.out.print("  - Allocate until the database has grown to four segments\n");
+			disk.set_auto_extend( 4 * segmentPages );
+			for ( int i = 0; i < 4; i++ )
+				disk.allocate_page( pid, 2500 );
+			if ( status == OK && disk.db_num_pages() != 4 * segmentPages ) {
+				status = FAIL;
+				System.err.print("*** The database has " + disk.db_num_pages() + " pages\n");
+			}
+			try {
+				disk.allocate_page( pid, 2500 );
+				status = FAIL;
+				System.err.print("*** The database grew past its limit\n");
+			}
+			catch (diskmgr.OutOfSpaceException e) {
+				// expected
+			}
+
+			System.out.print("  - Reopen the grown database\n");
+			Minibase.BufferManager.flushAllPages();
+			DiskMgr reopened = new DiskMgr();
+			reopened.openDB( spacepath );
+			if ( status == OK && (reopened.db_num_pages() != disk.db_num_pages()
+					|| reopened.db_num_free_pages() != disk.db_num_free_pages()) ) {
+				status = FAIL;
+				System.err.print("*** The reopened database has " + reopened.db_num_pages()
+						+ " pages and " + reopened.db_num_free_pages() + " free\n");
+			}
+			reopened.closeDB();
+			disk.DBDestroy();
+			if ( status == OK && new java.io.File(spacepath + ".3").exists() ) {
+				status = FAIL;
+				System.err.print("*** Segment files were left behind\n");
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 14 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Creates a database with page checksums, corrupts a page behind the
+	 * disk manager's back and checks that reading it fails
+	 *
+	 * @return whether test15 has passed
+	 */
+	protected boolean test15 () {
+
+		System.out.print("\n  Test 15 detects corrupted pages with checksums\n");
+
+		int numPages = 50;
+		String crcpath = dbpath + ".checked";
+		DiskMgr disk = new DiskMgr();
+		Page pg = new Page();
+		PageId pid = new PageId();
+		boolean status = OK;
+
+		try {
+			useManagers( disk, new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			disk.set_checksums( true );
+			disk.openDB( crcpath, DB_SIZE );
+
+			System.out.print("  - Write " + numPages + " pages and flush them\n");
+			PageId first = disk.allocate_page( numPages );
+			for ( pid.pid = first.pid; pid.pid < first.pid + numPages; pid.pid = pid.pid + 1 ) {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ true );
+				Convert.setIntValue (pid.pid + 777, 0, pg.getpage());
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+			}
+			Minibase.BufferManager.flushAllPages();
+
+			System.out.print("  - Read them back from disk\n");
+			Page[] run = new Page[numPages];
+			for ( int i = 0; i < run.length; i++ )
+				run[i] = new Page();
+			disk.read_pages( first, numPages, run );
+			for ( int i = 0; status == OK && i < numPages; i++ ) {
+				if ( Convert.getIntValue (0, run[i].getpage()) != first.pid + i + 777 ) {
+					status = FAIL;
+					System.err.print("*** Page " + (first.pid + i) + " read back wrong data\n");
+				}
+			}
+
+			System.out.print("  - Flip a byte of one page in the file\n");
+			int bad = first.pid + numPages / 2;
+			java.io.RandomAccessFile file = new java.io.RandomAccessFile( crcpath, "rw" );
+			file.seek( (long)bad * PAGE_SIZE + 100 );
+			int b = file.read();
+			file.seek( (long)bad * PAGE_SIZE + 100 );
+			file.write( b ^ 0x40 );
+			file.close();
+
+			try {
+				disk.read_page( new PageId(bad), new Page() );
+				status = FAIL;
+				System.err.print("*** The corrupted page was read without error\n");
+			}
+			catch (diskmgr.PageChecksumException e) {
+				// expected
+			}
+			try {
+				disk.read_pages( first, numPages, run );
+				status = FAIL;
+				System.err.print("*** A run with a corrupted page was read without error\n");
+			}
+			catch (diskmgr.PageChecksumException e) {
+				// expected
+			}
+			disk.read_page( new PageId(bad - 1), new Page() );
+
+			System.out.print("  - Reopen the database, checksums stay on\n");
+			DiskMgr reopened = new DiskMgr();
+			reopened.openDB( crcpath );
+			try {
+				reopened.read_page( new PageId(bad), new Page() );
+				status = FAIL;
+				System.err.print("*** The reopened database read the corrupted page\n");
+			}
+			catch (diskmgr.PageChecksumException e) {
+				// expected
+			}
+			reopened.closeDB();
+			disk.DBDestroy();
+			if ( status == OK && new java.io.File(crcpath + ".crc").exists() ) {
+				status = FAIL;
+				System.err.print("*** The checksum file was left behind\n");
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 15 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Stores a database compressed: pages of padded records shrink on
+	 * disk, pages that do not compress and pages that grow move around,
+	 * and a reopened database reads them all back
+	 *
+	 * @return whether test16 has passed
+	 */
+	protected boolean test16 () {
+
+		System.out.print("\n  Test 16 stores the pages of a database compressed\n");
+
+		int numPages = 200;
+		String zippath = dbpath + ".deflate";
+		DiskMgr disk = new DiskMgr( DiskMgr.COMPRESSED_STORAGE );
+		java.util.Random random = new java.util.Random(16);
+		Page pg = new Page();
+		PageId pid = new PageId();
+		boolean status = OK;
+
+		try {
+			useManagers( disk, new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			disk.openDB( zippath, DB_SIZE );
+
+			System.out.print("  - Fill " + numPages + " pages with padded records\n");
+			PageId first = disk.allocate_page( numPages );
+			for ( pid.pid = first.pid; pid.pid < first.pid + numPages; pid.pid = pid.pid + 1 ) {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ true );
+				for ( int off = 0; off + 64 <= PAGE_SIZE; off += 64 )
+					Convert.setStringValue( "name" + pid.pid + "-" + off, off, pg.getpage() );
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+			}
+			Minibase.BufferManager.flushAllPages();
+			long stored = new java.io.File( zippath ).length();
+			if ( stored > (long)numPages * PAGE_SIZE / 4 ) {
+				status = FAIL;
+				System.err.print("*** " + numPages + " padded pages take " + stored + " bytes\n");
+			}
+
+			System.out.print("  - Overwrite every other page with random bytes\n");
+			byte[][] expected = new byte[numPages][];
+			for ( pid.pid = first.pid; pid.pid < first.pid + numPages; pid.pid = pid.pid + 1 ) {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				if ( (pid.pid - first.pid) % 2 == 0 ) {
+					random.nextBytes( pg.getpage() );
+					Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+				}
+				else
+					Minibase.BufferManager.unpinPage( pid, /*dirty:*/ false );
+				expected[pid.pid - first.pid] = pg.getpage().clone();
+			}
+			Minibase.BufferManager.flushAllPages();
+
+			System.out.print("  - Shrink the random pages again and reuse their room\n");
+			for ( pid.pid = first.pid; pid.pid < first.pid + numPages; pid.pid = pid.pid + 4 ) {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				java.util.Arrays.fill( pg.getpage(), 100, PAGE_SIZE, (byte)0 );
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+				expected[pid.pid - first.pid] = pg.getpage().clone();
+			}
+			Minibase.BufferManager.flushAllPages();
+
+			System.out.print("  - Reopen the database and read every page back\n");
+			DiskMgr reopened = new DiskMgr();
+			reopened.openDB( zippath );
+			Page back = new Page();
+			for ( pid.pid = first.pid; status == OK && pid.pid < first.pid + numPages; 
+			pid.pid = pid.pid + 1 ) {
+				reopened.read_page( pid, back );
+				if ( !java.util.Arrays.equals( back.getpage(), expected[pid.pid - first.pid] ) ) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid + " read back wrong data\n");
+				}
+			}
+			reopened.read_page( new PageId(DB_SIZE - 1), back );
+			for ( int i = 0; status == OK && i < PAGE_SIZE; i++ ) {
+				if ( back.getpage()[i] != 0 ) {
+					status = FAIL;
+					System.err.print("*** A page never written is not zero\n");
+				}
+			}
+			reopened.closeDB();
+			disk.DBDestroy();
+			if ( status == OK && new java.io.File( zippath + ".cmap" ).exists() ) {
+				status = FAIL;
+				System.err.print("*** The page map was left behind\n");
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 16 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Runs the buffer manager on the direct I/O backend, with 8 KB pages
+	 * that are transferred directly and with 1 KB pages that are smaller
+	 * than a file system block and fall back to the file backend
+	 *
+	 * @return whether test17 has passed
+	 */
+	protected boolean test17 () {
+
+		System.out.print("\n  Test 17 reads and writes pages with direct I/O\n");
+
+		int numPages = BUF_SIZE + 20;
+		int[] pageSizes = { 8 * 1024, PAGE_SIZE };
+		String directpath = dbpath + ".direct";
+		PageId pid = new PageId();
+		boolean status = OK;
+
+		for ( int s = 0; status == OK && s < pageSizes.length; s++ ) {
+			int pageSize = pageSizes[s];
+			try {
+				System.out.print("  - Write " + numPages + " pages of " + pageSize + " bytes\n");
+				DiskMgr disk = new DiskMgr( DiskMgr.DIRECT_STORAGE );
+				useManagers( disk, new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+				disk.openDB( directpath, DB_SIZE, pageSize );
+				Page pg = new Page();
+				PageId first = Minibase.BufferManager.newPage( pg, numPages );
+				Minibase.BufferManager.unpinPage( first, false );
+				for ( pid.pid = first.pid; pid.pid < first.pid + numPages; pid.pid = pid.pid + 1 ) {
+					Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+					Convert.setIntValue (pid.pid + 31337, 0, pg.getpage());
+					Convert.setIntValue (pid.pid + 73313, pageSize - 4, pg.getpage());
+					Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+				}
+				Minibase.BufferManager.flushAllPages();
+				disk.closeDB();
+
+				System.out.print("  - Reopen the database and read the pages back\n");
+				disk = new DiskMgr( DiskMgr.DIRECT_STORAGE );
+				useManagers( disk, new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+				disk.openDB( directpath );
+				Page[] run = new Page[numPages];
+				for ( int i = 0; i < numPages; i++ )
+					run[i] = new Page( new byte[pageSize] );
+				disk.read_pages( first, numPages, run );
+				for ( int i = 0; status == OK && i < numPages; i++ ) {
+					byte[] data = run[i].getpage();
+					if ( Convert.getIntValue (0, data) != first.pid + i + 31337
+							|| Convert.getIntValue (pageSize - 4, data) != first.pid + i + 73313 ) {
+						status = FAIL;
+						System.err.print("*** Read wrong data back from page " 
+								+ (first.pid + i) + "\n");
+					}
+				}
+				disk.DBDestroy();
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 17 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Checkpoints a pool with more dirty pages than the writer copies at
+	 * once, and checks that every page reached the disk exactly once
+	 *
+	 * @return whether test18 has passed
+	 */
+	protected boolean test18 () {
+
+		System.out.print("\n  Test 18 checkpoints more pages than one batch of copies\n");
+
+		int numBufs = 300;
+		int numPages = 250;
+		String copypath = dbpath + ".copies";
+		DiskMgr disk = new DiskMgr();
+		Page pg = new Page();
+		PageId pid = new PageId();
+		boolean status = OK;
+
+		try {
+			BufMgr bufmgr = new BufMgr( numBufs, LAH_SIZE, "LIRS" );
+			useManagers( disk, bufmgr );
+			disk.openDB( copypath, DB_SIZE );
+			PageId first = disk.allocate_page( numPages );
+
+			System.out.print("  - Dirty " + numPages + " pages from the last one down\n");
+			for ( pid.pid = first.pid + numPages - 1; pid.pid >= first.pid; pid.pid = pid.pid - 1 ) {
+				bufmgr.pinPage( pid, pg, /*emptyPage:*/ true );
+				Convert.setIntValue (pid.pid + 4242, 0, pg.getpage());
+				bufmgr.unpinPage( pid, /*dirty:*/ true );
+			}
+
+			System.out.print("  - Checkpoint, then flush what is left\n");
+			long before = bufmgr.getStats().getDirtyWrites();
+			bufmgr.checkpoint();
+			long written = bufmgr.getStats().getDirtyWrites() - before;
+			bufmgr.flushAllPages();
+			long rewritten = bufmgr.getStats().getDirtyWrites() - before - written;
+			// The directory and space map pages are dirty too
+			if ( written < numPages || rewritten != 0 ) {
+				status = FAIL;
+				System.err.print("*** The checkpoint wrote " + written 
+						+ " pages and the flush " + rewritten + " more\n");
+			}
+
+			Page back = new Page();
+			for ( pid.pid = first.pid; status == OK && pid.pid < first.pid + numPages;
+			pid.pid = pid.pid + 1 ) {
+				disk.read_page( pid, back );
+				if ( Convert.getIntValue (0, back.getpage()) != pid.pid + 4242 ) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid + " is wrong on disk\n");
+				}
+			}
+			disk.DBDestroy();
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 18 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Pins pages through one reusable handle and checks the pin contract
+	 *
+	 * @return whether test19 has passed
+	 */
+	protected boolean test19 () {
+
+		System.out.print("\n  Test 19 pins pages through a reusable handle\n");
+
+		int numPages = BUF_SIZE + 10;
+		BufMgr bufmgr = Minibase.BufferManager;
+		PinnedPage handle = new PinnedPage();
+		Page view = handle.getPage();
+		PageId pid = new PageId();
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			Page pg = new Page();
+			firstPid = bufmgr.newPage( pg, numPages );
+			bufmgr.unpinPage( firstPid, false );
+		}
+		catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages + " new pages\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			System.out.print("  - Write every page through the same handle\n");
+			int unpinned = bufmgr.getNumUnpinned();
+			for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+			pid.pid = pid.pid + 1 ) {
+				bufmgr.pin( handle, pid, /*emptyPage:*/ false );
+				if ( handle.getPage() != view || handle.getPid() != pid.pid ) {
+					status = FAIL;
+					System.err.print("*** The handle changed its view or page\n");
+				}
+				Convert.setIntValue (pid.pid + 191919, 0, handle.getData());
+				handle.setDirty();
+				bufmgr.unpin( handle );
+			}
+			if ( status == OK && bufmgr.getNumUnpinned() != unpinned ) {
+				status = FAIL;
+				System.err.print("*** The handle left pages pinned\n");
+			}
+
+			System.out.print("  - Read them back with pinPage\n");
+			Page pg = new Page();
+			for ( pid.pid = firstPid.pid; status == OK && pid.pid < firstPid.pid + numPages;
+			pid.pid = pid.pid + 1 ) {
+				bufmgr.pinPage( pid, pg, /*emptyPage:*/ false );
+				if ( Convert.getIntValue (0, pg.getpage()) != pid.pid + 191919 ) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid + " lost what the handle wrote\n");
+				}
+				bufmgr.unpinPage( pid, /*dirty:*/ false );
+			}
+
+			System.out.print("  - Misuse the handle\n");
+			bufmgr.pin( handle, firstPid, /*emptyPage:*/ false );
+			try {
+				bufmgr.pin( handle, firstPid, /*emptyPage:*/ false );
+				status = FAIL;
+				System.err.print("*** A handle took a second pin\n");
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+			bufmgr.unpin( handle );
+			try {
+				bufmgr.unpin( handle );
+				status = FAIL;
+				System.err.print("*** An empty handle was unpinned\n");
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+
+			for ( pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1 )
+				bufmgr.freePage( pid );
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if ( status == OK )
+			System.out.print("  Test 19 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Scans many pages through a scan ring and checks that the hot pages
+	 * of the pool survive it, that pages written by the scan reach the
+	 * disk and that the ring's frames go back to the pool
+	 *
+	 * @return whether test20 has passed
+	 */
+	protected boolean test20 () {
+
+		System.out.print("\n  Test 20 protects hot pages from a scan with a ring\n");
+
+		int numBufs = 100;
+		int hotPages = 40;
+		int scanPages = 400;
+		String ringpath = dbpath + ".ring";
+		DiskMgr disk = new DiskMgr();
+		Page pg = new Page();
+		PageId pid = new PageId();
+		boolean status = OK;
+
+		try {
+			// LRU keeps nothing from a plain scan, which shows the ring at work
+			BufMgr bufmgr = new BufMgr( numBufs, 0, "LRU" );
+			useManagers( disk, bufmgr );
+			disk.openDB( ringpath, DB_SIZE );
+			PageId hot = disk.allocate_page( hotPages );
+			PageId scanned = disk.allocate_page( scanPages );
+			for ( int pass = 0; pass < 2; pass++ ) {
+				for ( pid.pid = hot.pid; pid.pid < hot.pid + hotPages; pid.pid = pid.pid + 1 ) {
+					bufmgr.pinPage( pid, pg, /*emptyPage:*/ false );
+					bufmgr.unpinPage( pid, /*dirty:*/ false );
+				}
+			}
+
+			System.out.print("  - Write " + scanPages + " pages through a ring of 8 frames\n");
+			ScanRing ring = bufmgr.createScanRing( 8 );
+			for ( pid.pid = scanned.pid; pid.pid < scanned.pid + scanPages; pid.pid = pid.pid + 1 ) {
+				bufmgr.pinPage( pid, pg, /*emptyPage:*/ false, ring );
+				Convert.setIntValue (pid.pid + 2020, 0, pg.getpage());
+				bufmgr.unpinPage( pid, /*dirty:*/ true );
+			}
+
+			long misses = bufmgr.getStats().getMisses();
+			for ( pid.pid = hot.pid; pid.pid < hot.pid + hotPages; pid.pid = pid.pid + 1 ) {
+				bufmgr.pinPage( pid, pg, /*emptyPage:*/ false );
+				bufmgr.unpinPage( pid, /*dirty:*/ false );
+			}
+			if ( bufmgr.getStats().getMisses() != misses ) {
+				status = FAIL;
+				System.err.print("*** The scan pushed " + (bufmgr.getStats().getMisses() - misses)
+						+ " hot pages out\n");
+			}
+
+			System.out.print("  - Pin a page of the ring from outside the scan\n");
+			PageId last = new PageId(scanned.pid + scanPages - 1);
+			bufmgr.pinPage( last, pg, /*emptyPage:*/ false );
+			bufmgr.unpinPage( last, /*dirty:*/ false );
+			bufmgr.releaseScanRing( ring );
+			if ( status == OK && bufmgr.getNumUnpinned() != numBufs ) {
+				status = FAIL;
+				System.err.print("*** " + bufmgr.getNumUnpinned() + " of " + numBufs
+						+ " frames are back in the pool\n");
+			}
+
+			System.out.print("  - Read the scanned pages back from disk\n");
+			bufmgr.flushAllPages();
+			Page back = new Page();
+			for ( pid.pid = scanned.pid; status == OK && pid.pid < scanned.pid + scanPages;
+			pid.pid = pid.pid + 1 ) {
+				disk.read_page( pid, back );
+				if ( Convert.getIntValue (0, back.getpage()) != pid.pid + 2020 ) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid + " is wrong on disk\n");
+				}
+			}
+			disk.DBDestroy();
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 20 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Reopens a 4 KB database with more files than a 1 KB first page
+	 * holds, one of them starting at page 1024
+	 *
+	 * @return whether test21 has passed
+	 */
+	protected boolean test21 () {
+
+		System.out.print("\n  Test 21 reopens a database with many file entries\n");
+
+		int pageSize = 4 * 1024;
+		int numFiles = 40;
+		String entrypath = dbpath + ".entries";
+		boolean status = OK;
+
+		try {
+			System.out.print("  - Create a database of " + pageSize + " byte pages and "
+					+ numFiles + " files\n");
+			DiskMgr disk = useManagers( new DiskMgr(), new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			disk.openDB( entrypath, 2048, pageSize );
+			for ( int i = 0; i < numFiles; i++ )
+				disk.add_file_entry( "file" + i, new PageId( startPage(i) ) );
+			Minibase.BufferManager.flushAllPages();
+			disk.closeDB();
+
+			System.out.print("  - Reopen it and look the files up\n");
+			disk = useManagers( new DiskMgr(), new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			disk.openDB( entrypath );
+			if ( disk.db_page_size() != pageSize ) {
+				status = FAIL;
+				System.err.print("*** Reopened with " + disk.db_page_size() + " byte pages\n");
+			}
+			for ( int i = 0; status == OK && i < numFiles; i++ ) {
+				PageId start = disk.get_file_entry( "file" + i );
+				if ( start == null || start.pid != startPage(i) ) {
+					status = FAIL;
+					System.err.print("*** File file" + i + " starts at "
+							+ (start == null ? "nothing" : "" + start.pid) + "\n");
+				}
+			}
+			disk.DBDestroy();
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 21 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Rewrites checksummed pages on some threads while others make the
+	 * checksum array grow, and reads every page back
+	 *
+	 * @return whether test22 has passed
+	 */
+	protected boolean test22 () {
+
+		System.out.print("\n  Test 22 stamps checksums from several threads\n");
+
+		final int numPages = 64;
+		final int rounds = 20;
+		String crcpath = dbpath + ".stamped";
+		boolean status = OK;
+
+		try {
+			final DiskMgr disk = useManagers( new DiskMgr(), new BufMgr( BUF_SIZE, LAH_SIZE, "LIRS" ) );
+			disk.set_checksums( true );
+			disk.openDB( crcpath, 4096 );
+			final PageId first = disk.allocate_page( numPages );
+			for ( int i = 0; i < numPages; i++ )
+				disk.write_page( new PageId( first.pid + i ), stampedPage( first.pid + i, 0 ) );
+
+			System.out.print("  - Rewrite " + numPages + " pages while other threads grow the file\n");
+			final Exception[] failure = new Exception[1];
+			Thread[] threads = new Thread[4];
+			for ( int t = 0; t < threads.length; t++ ) {
+				final int id = t;
+				threads[t] = new Thread() {
+					public void run() {
+						try {
+							for ( int r = 1; r <= rounds; r++ ) {
+								if ( id < 2 ) {
+									for ( int i = id; i < numPages; i += 2 )
+										disk.write_page( new PageId( first.pid + i ), 
+												stampedPage( first.pid + i, r ) );
+								}
+								else {
+									// pages past the end of the checksum array
+									int pid = first.pid + numPages + (r * 2 + id - 2) * 64;
+									disk.write_page( new PageId( pid ), stampedPage( pid, r ) );
+								}
+							}
+						}
+						catch (Exception e) {
+							synchronized ( failure ) { failure[0] = e; }
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for ( int t = 0; t < threads.length; t++ )
+				threads[t].join();
+			if ( failure[0] != null ) {
+				status = FAIL;
+				failure[0].printStackTrace();
+			}
+
+			System.out.print("  - Read the pages back and check them\n");
+			Page back = new Page();
+			for ( int i = 0; status == OK && i < numPages; i++ ) {
+				disk.read_page( new PageId( first.pid + i ), back );
+				if ( Convert.getIntValue (4, back.getpage()) != rounds ) {
+					status = FAIL;
+					System.err.print("*** Page " + (first.pid + i) + " read back wrong data\n");
+				}
+			}
+			disk.DBDestroy();
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 22 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Reads ahead while the dirty pages it has to evict cannot be written
+	 *
+	 * @return whether test23 has passed
+	 */
+	protected boolean test23 () {
+
+		System.out.print("\n  Test 23 reads ahead when write-backs fail\n");
+
+		final int numbufs = 8;
+		final boolean[] failWrites = new boolean[1];
+		String failpath = dbpath + ".failing";
+		boolean status = OK;
+
+		try {
+			DiskMgr disk = useManagers( new DiskMgr() {
+				public void write_page ( PageId pageno, Page apage ) 
+						throws InvalidPageNumberException, FileIOException, IOException {
+					if ( failWrites[0] )
+						throw new FileIOException( null, "write refused by the test" );
+					super.write_page( pageno, apage );
+				}
+			}, new BufMgr( numbufs, 0, "LIRS" ) );
+			disk.openDB( failpath, 200 );
+
+			System.out.print("  - Dirty as many pages as there are frames\n");
+			Page pg = new Page();
+			PageId first = Minibase.BufferManager.newPage( pg, 2 * numbufs );
+			Minibase.BufferManager.unpinPage( first, false );
+			PageId pid = new PageId();
+			for ( pid.pid = first.pid; pid.pid < first.pid + numbufs; pid.pid++ ) {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ true );
+				Convert.setIntValue (pid.pid + 99999, 0, pg.getpage());
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+			}
+
+			System.out.print("  - Read ahead while the disk refuses writes\n");
+			failWrites[0] = true;
+			try {
+				Minibase.BufferManager.prefetchPages( new PageId( first.pid + numbufs ), 4 );
+				status = FAIL;
+				System.err.print("*** Read ahead hid a failed write-back\n");
+			}
+			catch (DiskMgrException e) {
+				// expected
+			}
+			failWrites[0] = false;
+			if ( status == OK && Minibase.BufferManager.getStats().getFailedWrites() == 0 ) {
+				status = FAIL;
+				System.err.print("*** The failed write-back was not counted\n");
+			}
+			if ( status == OK && Minibase.BufferManager.getNumUnpinned() != numbufs ) {
+				status = FAIL;
+				System.err.print("*** " + Minibase.BufferManager.getNumUnpinned() 
+						+ " frames left after the failed read ahead\n");
+			}
+
+			System.out.print("  - Read ahead again and read the dirty pages back\n");
+			if ( status == OK 
+					&& Minibase.BufferManager.prefetchPages( new PageId( first.pid + numbufs ), 4 ) != 4 ) {
+				status = FAIL;
+				System.err.print("*** Could not read ahead once writes work again\n");
+			}
+			for ( pid.pid = first.pid; status == OK && pid.pid < first.pid + numbufs; pid.pid++ ) {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				if ( Convert.getIntValue (0, pg.getpage()) != pid.pid + 99999 ) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid + " lost its data\n");
+				}
+				Minibase.BufferManager.unpinPage( pid, false );
+			}
+			Minibase.BufferManager.flushAllPages();
+
+			System.out.print("  - Pin on a sequential miss while the disk refuses writes\n");
+			useManagers( disk, new BufMgr( numbufs, 4, "LIRS" ) );
+			// Dirty all frames but one, last pins first (first + 1 is the next in sequence)
+			int[] dirtied = new int[numbufs - 1];
+			for ( int i = 0; i < dirtied.length; i++ )
+				dirtied[i] = ( i < dirtied.length - 1 ) ? first.pid + 2 * numbufs - 1 - i : first.pid;
+			for ( int i = 0; i < dirtied.length; i++ ) {
+				pid.pid = dirtied[i];
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				Convert.setIntValue (pid.pid + 88888, 0, pg.getpage());
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+			}
+			long failed = Minibase.BufferManager.getStats().getFailedWrites();
+			failWrites[0] = true;
+			pid.pid = first.pid + 1;
+			try {
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				Minibase.BufferManager.unpinPage( pid, false );
+			}
+			catch (DiskMgrException e) {
+				status = FAIL;
+				System.err.print("*** The read ahead of a pin failed the pin\n");
+				e.printStackTrace();
+			}
+			failWrites[0] = false;
+			if ( status == OK && Minibase.BufferManager.getStats().getFailedWrites() == failed ) {
+				status = FAIL;
+				System.err.print("*** The read ahead did not run into a failed write-back\n");
+			}
+			if ( status == OK && Minibase.BufferManager.getNumUnpinned() != numbufs ) {
+				status = FAIL;
+				System.err.print("*** " + Minibase.BufferManager.getNumUnpinned() 
+						+ " frames left after the pin\n");
+			}
+			for ( int i = 0; status == OK && i < dirtied.length; i++ ) {
+				pid.pid = dirtied[i];
+				Minibase.BufferManager.pinPage( pid, pg, /*emptyPage:*/ false );
+				if ( Convert.getIntValue (0, pg.getpage()) != pid.pid + 88888 ) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid + " lost its data\n");
+				}
+				Minibase.BufferManager.unpinPage( pid, false );
+			}
+			Minibase.BufferManager.flushAllPages();
+			disk.DBDestroy();
+		}
+		catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		restoreManagers();
+
+		if ( status == OK )
+			System.out.print("  Test 23 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Frees a dirty page that is still in the buffer pool and checks
+	 * that whoever gets the page id next sees none of its old contents
+	 *
+	 * @return whether test24 has passed
+	 */
+	protected boolean test24 () {
+
+		System.out.print("\n  Test 24 reuses the id of a freed dirty page\n");
+
+		String[] policies = { "LIRS", "LRU", "MRU", "Clock", "2Q", "ARC" };
+		String freedpath = dbpath + ".freed";
+		boolean status = OK;
+
+		for ( int p = 0; status == OK && p < policies.length; p++ ) {
+			System.out.print("  - Free a dirty page and allocate it again with "
+					+ policies[p] + "\n");
+			try {
+				DiskMgr disk = useManagers( new DiskMgr(), new BufMgr( BUF_SIZE, 0, policies[p] ) );
+				disk.openDB( freedpath, DB_SIZE );
+				Page pg = new Page();
+				PageId pid = Minibase.BufferManager.newPage( pg, 1 );
+				Convert.setIntValue (pid.pid + 55555, 0, pg.getpage());
+				Minibase.BufferManager.unpinPage( pid, /*dirty:*/ true );
+				Minibase.BufferManager.freePage( pid );
+
+				PageId again = Minibase.BufferManager.newPage( pg, 1 );
+				if ( again.pid != pid.pid ) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid + " was not handed out again, got "
+							+ again.pid + "\n");
+				}
+				else if ( Convert.getIntValue (0, pg.getpage()) == pid.pid + 55555 ) {
+					status = FAIL;
+					System.err.print("*** The new owner of page " + pid.pid 
+							+ " got the old contents\n");
+				}
+				Convert.setIntValue (again.pid + 66666, 0, pg.getpage());
+				Minibase.BufferManager.unpinPage( again, /*dirty:*/ true );
+				Minibase.BufferManager.flushAllPages();
+
+				Page onDisk = new Page();
+				disk.read_page( again, onDisk );
+				if ( status == OK && Convert.getIntValue (0, onDisk.getpage()) != again.pid + 66666 ) {
+					status = FAIL;
+					System.err.print("*** An old write-back landed on page " + again.pid + "\n");
+				}
+				if ( status == OK && Minibase.BufferManager.getNumUnpinned() 
+						!= Minibase.BufferManager.getNumBuffers() ) {
+					status = FAIL;
+					System.err.print("*** " + Minibase.BufferManager.getNumUnpinned() 
+							+ " frames unpinned out of " + Minibase.BufferManager.getNumBuffers() + "\n");
+				}
+				disk.DBDestroy();
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+			restoreManagers();
+		}
+
+		if ( status == OK )
+			System.out.print("  Test 24 completed successfully.\n");
+
+		return status;
+	}
+
+	/* A page holding its id and a version */
+	private static Page stampedPage ( int pid, int version ) throws IOException {
+		Page page = new Page();
+		Convert.setIntValue (pid, 0, page.getpage());
+		Convert.setIntValue (version, 4, page.getpage());
+		return page;
+	}
+
+	/* Start page of file i in test21; the 19th starts at page 1024 */
+	private static int startPage ( int i ) {
+		return i == 18 ? 1024 : 100 + i;
+	}
+
+	/**
+	 * Makes a disk manager and a buffer manager of a test's own the
+	 * current ones, keeping the first ones for restoreManagers
+	 *
+	 * @return the disk manager
+	 */
+	protected DiskMgr useManagers ( DiskMgr disk, BufMgr bufmgr ) {
+		if ( savedDisk == null ) {
+			savedDisk = Minibase.DiskManager;
+			savedBuf = Minibase.BufferManager;
+		}
+		Minibase.DiskManager = disk;
+		Minibase.BufferManager = bufmgr;
+		return disk;
+	}
+
+	/**
+	 * Puts back the managers useManagers replaced
+	 */
+	protected void restoreManagers () {
+		if ( savedDisk != null ) {
+			Minibase.DiskManager = savedDisk;
+			Minibase.BufferManager = savedBuf;
+			savedDisk = null;
+			savedBuf = null;
+		}
+	}
+
+	/* Managers of the shared database while a test uses its own */
+	private DiskMgr savedDisk;
+	private BufMgr savedBuf;
+
 	/**
 	 * overrides the testName function in TestDriver
 	 *
@@ -0,0 +1,76 @@
+package tests;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+
+/**
+ * Measures what page checksums cost on the disk manager's page I/O.
+ * <br>
+ * The same pages are written and read back through write_page and
+ * read_page on a database without checksums and on one with them, so
+ * the difference is the CRC32C of each page plus, for writes, the
+ * checksum file update. Pages stay in the OS cache, which leaves the
+ * checksum as large a share of the cost as it can get.
+ * Run it with: java tests.ChecksumBench [pages]
+ */
+public class ChecksumBench implements GlobalConst {
+
+  /** Passes over the pages per measurement. */
+  private static final int PASSES = 20;
+
+  public static void main(String[] argv) throws Exception {
+
+    int numPages = (argv.length > 0) ? Integer.parseInt(argv[0]) : 10000;
+    String dbpath = "/tmp/checksumbench" + System.getProperty("user.name")
+      + ".minibase-db";
+
+    for (int pass = 0; pass < 2; pass++) {
+      // The first round warms the JIT up, the second is reported
+      run(dbpath, numPages, false, pass == 1);
+      run(dbpath, numPages, true, pass == 1);
+    }
+  }
+
+  private static void run(String dbpath, int numPages, boolean checksums,
+      boolean print) throws Exception {
+
+    DiskMgr disk = new DiskMgr();
+    Minibase.DiskManager = disk;
+    Minibase.BufferManager = new BufMgr(256, 0, "LRU");
+    disk.set_checksums(checksums);
+    disk.openDB(dbpath, numPages + 10);
+    PageId first = disk.allocate_page(numPages);
+    String label = checksums ? "with checksums" : "without checksums";
+
+    Page page = new Page();
+    PageId pid = new PageId();
+    long start = System.nanoTime();
+    for (int p = 0; p < PASSES; p++)
+      for (pid.pid = first.pid; pid.pid < first.pid + numPages; pid.pid++) {
+        page.getpage()[pid.pid % PAGE_SIZE] = (byte)p;
+        disk.write_page(pid, page);
+      }
+    if (print)
+      report("write_page " + label, PASSES * numPages, System.nanoTime() - start);
+
+    start = System.nanoTime();
+    for (int p = 0; p < PASSES; p++)
+      for (pid.pid = first.pid; pid.pid < first.pid + numPages; pid.pid++)
+        disk.read_page(pid, page);
+    if (print)
+      report("read_page " + label, PASSES * numPages, System.nanoTime() - start);
+
+    disk.DBDestroy();
+  }
+
+  private static void report(String what, int ops, long nanos) {
+    System.out.println(String.format("%-32s %12.0f ops/s %12.1f us/op", what,
+        ops / (nanos / 1e9), nanos / 1e3 / ops));
+  }
+
+} // public class ChecksumBench
@@ -9,6 +9,12 @@ import heap.HeapScan;
 import heap.Tuple;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import chainexception.ChainException;
 
@@ -606,85 +612,204 @@ class HFDriver extends TestDriver implements GlobalConst
 	//deal with variable size records.  it's probably easier to re-write
 	//one instead of using the ones from C++
 	protected boolean test5 () {
-		return true;
-	}
-
 
-	protected boolean test4 () {
-
-		System.out.println ("\n  Test 4: Test some error conditions\n");
+		System.out.println ("\n  Test 5: Update records to other lengths\n");
 		boolean status = OK;
-		HeapScan scan = null;
-		RID rid = new RID();
-		HeapFile f = null; 
+		HeapFile f = null;
+		RID[] rids = new RID[choice];
+		byte[][] recs = new byte[choice][];
 
+		System.out.println ("  - Create a heap file and add " + choice + " records\n");
 		try {
-			f = new HeapFile ("file_1");
+			f = new HeapFile("file_5");
+			for (int i = 0; i < choice; i++) {
+				recs[i] = lengthRecord(i, reclen);
+				rids[i] = f.insertRecord(recs[i]);
+			}
 		}
 		catch (Exception e) {
 			status = FAIL;
-			System.err.println ("*** Could not create heap file\n");
+			System.err.println ("*** Could not fill the heap file\n");
 			e.printStackTrace();
 		}
 
 		if ( status == OK ) {
-			System.out.println ("  - Try to change the size of a record\n");
+			System.out.println ("  - Add a record that starts like a forward\n");
 			try {
-				scan = f.openScan();
+				// "HFFWDR->", the tag of a forward
+				byte[] tagged = lengthRecord(-1, reclen);
+				byte[] tag = { 'H', 'F', 'F', 'W', 'D', 'R', '-', '>' };
+				System.arraycopy(tag, 0, tagged, 0, tag.length);
+				RID rid = f.insertRecord(tagged);
+				if ( !Arrays.equals(f.getRecord(rid).getTupleByteArray(), tagged) ) {
+					status = FAIL;
+					System.err.println ("*** The record was not read back as it was inserted\n");
+				}
+				f.deleteRecord(rid);
 			}
 			catch (Exception e) {
 				status = FAIL;
-				System.err.println ("*** Error opening scan\n");
 				e.printStackTrace();
 			}
 		}
 
-		//The following is to test whether tinkering with the size of
-		//the tuples will cause any problem.  
+		if ( status == OK ) {
+			System.out.println ("  - Grow, shrink, and grow then shrink records\n");
+			try {
+				for (int i = 0; i < choice; i++) {
+					if ( i % 4 == 1 || i % 4 == 3 ) {
+						recs[i] = lengthRecord(i, 3 * reclen);
+						f.updateRecord(rids[i], new Tuple(recs[i], 0, recs[i].length));
+					}
+					if ( i % 4 == 2 || i % 4 == 3 ) {
+						// the second update of 3 moves the moved copy again
+						recs[i] = lengthRecord(i, reclen / 2);
+						f.updateRecord(rids[i], new Tuple(recs[i], 0, recs[i].length));
+					}
+				}
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.println ("*** Error updating records\n");
+				e.printStackTrace();
+			}
+		}
 
 		if ( status == OK ) {
-			int len;
-			DummyRecord rec = null;
-			Tuple tuple = new Tuple();
+			System.out.println ("  - Read the records back by RID and by scan\n");
+			status = checkRecords(f, rids, recs);
+		}
 
+		if ( status == OK ) {
+			System.out.println ("  - Delete the records that moved\n");
 			try {
-				tuple = scan.getNext(rid);
-				if (tuple == null) {
-					status = FAIL;
+				for (int i = 0; i < choice; i++) {
+					if ( i % 4 != 0 ) {
+						f.deleteRecord(rids[i]);
+						recs[i] = null;
+					}
 				}
 			}
 			catch (Exception e) {
 				status = FAIL;
+				System.err.println ("*** Error deleting records\n");
 				e.printStackTrace();
 			}
-			if (status == FAIL) {
-				System.err.println ( "*** Error reading first record\n" );
-			}
+		}
 
-			if (status == OK) {
-				try {
-					rec = new DummyRecord(tuple);
-				}
-				catch (Exception e) {
-					System.err.println (""+e);
-					status = FAIL;
-				}
-				len = tuple.getLength();
-				Tuple newTuple = null;
-				try {
-					newTuple = new Tuple(rec.toByteArray(), 0, len-1);
+		if ( status == OK ) {
+			System.out.println ("  - Scan the remaining records\n");
+			status = checkRecords(f, rids, recs);
+		}
+
+		if ( status == OK && f.getRecCnt() != (choice + 3) / 4 ) {
+			status = FAIL;
+			System.err.println ("*** The file counts " + f.getRecCnt() + " records\n");
+		}
+
+		if ( status == OK && Minibase.BufferManager.getNumUnpinned()
+				!= Minibase.BufferManager.getNumBuffers() ) {
+			System.err.println ("*** Updates left a page pinned\n");
+			status = FAIL;
+		}
+
+		if ( status == OK )
+			System.out.println ("  Test 5 completed successfully.\n");
+		return status;
+	}
+
+	/* A record of length bytes, numbered i in its first 4 bytes */
+	private static byte[] lengthRecord (int i, int length) throws IOException {
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte) length);
+		Convert.setIntValue (i, 0, data);
+		return data;
+	}
+
+	/* Checks that getRecord and a scan both return recs, null for deleted
+	   records, and that the scan returns each record once */
+	private boolean checkRecords (HeapFile f, RID[] rids, byte[][] recs) {
+		try {
+			int live = 0;
+			for (int i = 0; i < rids.length; i++) {
+				if ( recs[i] == null )
+					continue;
+				live++;
+				if ( !Arrays.equals(f.getRecord(rids[i]).getTupleByteArray(), recs[i]) ) {
+					System.err.println ("*** Record " + i + " read back wrong by RID\n");
+					return FAIL;
 				}
-				catch (Exception e) {
-					System.err.println (""+e);
-					e.printStackTrace();
+			}
+
+			boolean[] seen = new boolean[rids.length];
+			int scanned = 0;
+			RID rid = new RID();
+			HeapScan scan = f.openScan();
+			for (Tuple t = scan.getNext(rid); t != null; t = scan.getNext(rid)) {
+				int i = Convert.getIntValue (0, t.getTupleByteArray());
+				if ( i < 0 || i >= rids.length || recs[i] == null || seen[i]
+						|| !rid.equals(rids[i])
+						|| !Arrays.equals(t.getTupleByteArray(), recs[i]) ) {
+					System.err.println ("*** The scan returned record " + i + " wrong\n");
+					scan.close();
+					return FAIL;
 				}
+				seen[i] = true;
+				scanned++;
+			}
+			scan.close();
+			if ( scanned != live ) {
+				System.err.println ("*** The scan returned " + scanned + " records out of " + live + "\n");
+				return FAIL;
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			return FAIL;
+		}
+		return OK;
+	}
+
+
+	protected boolean test4 () {
+
+		System.out.println ("\n  Test 4: Test some error conditions\n");
+		boolean status = OK;
+		RID rid = new RID();
+		HeapFile f = null; 
+
+		try {
+			f = new HeapFile ("file_1");
+		}
+		catch (Exception e) {
+			status = FAIL;
+			System.err.println ("*** Could not create heap file\n");
+			e.printStackTrace();
+		}
+
+		//Records can change their size now: they move, and leave a
+		//forward at their RID.  A record shorter than a forward cannot.
+
+		if ( status == OK ) {
+			System.out.println ("  - Try to change the size of a record too short to move\n");
+			try {
+				rid = f.insertRecord(new byte[8]);
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.println ("*** Could not insert a short record\n");
+				e.printStackTrace();
+			}
+
+			int[] lengths = { 7, 9 };
+			for (int i = 0; status == OK && i < lengths.length; i++) {
 				try {
-					status = f.updateRecord( rid, newTuple );
+					status = f.updateRecord( rid, new Tuple(new byte[lengths[i]], 0, lengths[i]) );
 				}
 				catch (ChainException e) { 
 					status = checkException (e, "heap.InvalidUpdateException");
 					if (status == FAIL) {
-						System.err.println( "**** Shortening a record" );
+						System.err.println( lengths[i] < 8 ? "**** Shortening a record" : "**** Lengthening a record" );
 						System.out.println ("  --> Failed as expected \n");
 					}
 				}
@@ -703,48 +828,16 @@ class HFDriver extends TestDriver implements GlobalConst
 
 			if (status == OK) {
 				try {
-					rec = new DummyRecord(tuple);
-				}
-				catch (Exception e) {
-					System.err.println (""+e);
-					e.printStackTrace();
-				}
-
-				len = tuple.getLength();
-				Tuple newTuple = null;
-				try {
-					newTuple = new Tuple(rec.toByteArray(), 0, len+1);
-				}
-				catch (Exception e) {
-					System.err.println( ""+e );
-					e.printStackTrace();
-				}
-				try {
-					status = f.updateRecord( rid, newTuple );
-				}
-				catch (ChainException e) {
-					status = checkException(e, "heap.InvalidUpdateException");
-					if (status == FAIL) {
-						System.err.println( "**** Lengthening a record" );
-						System.out.println ("  --> Failed as expected \n");
-					}
+					f.deleteRecord( rid );
 				}
 				catch (Exception e) {
+					status = FAIL;
+					System.err.println ("*** Could not delete the short record\n");
 					e.printStackTrace();
 				}
-
-				if (status == OK) { 
-					status = FAIL; 
-					System.err.println ("The expected exception was not thrown\n");
-				}
-				else { 
-					status = OK; 
-				}
 			}
 		}
 
-		scan = null;
-
 		if ( status == OK ) {
 			System.out.println ("  - Try to insert a record that's too long\n");
 			byte [] record = new byte [MAX_TUPSIZE+4];
@@ -778,7 +871,277 @@ class HFDriver extends TestDriver implements GlobalConst
 
 	protected boolean test6 () {
 
-		return OK; 
+		System.out.println ("\n  Test 6: Split a scan of the records\n");
+		boolean status = OK;
+		HeapFile f = null;
+		int numRecs = 4 * choice;
+
+		System.out.println ("  - Create a heap file and add " + numRecs + " records\n");
+		try {
+			f = new HeapFile("file_6");
+			for (int i = 0; i < numRecs; i++)
+				f.insertRecord(lengthRecord(i, reclen));
+		}
+		catch (Exception e) {
+			status = FAIL;
+			System.err.println ("*** Could not fill the heap file\n");
+			e.printStackTrace();
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Split the spliterator as far as it goes and read every split\n");
+			List<Spliterator<Tuple>> splits = new ArrayList<Spliterator<Tuple>>();
+			final int[] seen = new int[numRecs];
+			Consumer<Tuple> count = new Consumer<Tuple>() {
+				public void accept(Tuple t) {
+					try {
+						seen[Convert.getIntValue (0, t.getTupleByteArray())]++;
+					}
+					catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			try {
+				splits.add(f.spliterator());
+				for (int i = 0; i < splits.size(); ) {
+					Spliterator<Tuple> prefix = splits.get(i).trySplit();
+					if ( prefix != null )
+						splits.add(prefix);
+					else
+						i++;
+				}
+				for (int i = 0; i < splits.size(); i++) {
+					// read half of the splits a record at a time
+					if ( i % 2 == 0 ) 
+						while ( splits.get(i).tryAdvance(count) ) ;
+					else
+						splits.get(i).forEachRemaining(count);
+				}
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+			for (int i = 0; status == OK && i < numRecs; i++) {
+				if ( seen[i] != 1 ) {
+					status = FAIL;
+					System.err.println ("*** " + splits.size() + " splits returned record " 
+							+ i + " " + seen[i] + " times\n");
+				}
+			}
+		}
+
+		if ( status == OK && Minibase.BufferManager.getNumUnpinned()
+				!= Minibase.BufferManager.getNumBuffers() ) {
+			System.err.println ("*** The splits kept frames of the buffer pool\n");
+			status = FAIL;
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Count the records with a parallel stream\n");
+			long n = 0;
+			try {
+				Stream<Tuple> records = f.stream(true);
+				n = records.count();
+				records.close();
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+			if ( status == OK && n != numRecs ) {
+				status = FAIL;
+				System.err.println ("*** The stream returned " + n + " records\n");
+			}
+		}
+
+		if ( status == OK && Minibase.BufferManager.getNumUnpinned()
+				!= Minibase.BufferManager.getNumBuffers() ) {
+			System.err.println ("*** The stream kept frames of the buffer pool\n");
+			status = FAIL;
+		}
+
+		if ( status == OK )
+			System.out.println ("  Test 6 completed successfully.\n");
+		return status;
+	}
+
+	protected boolean test7 () {
+
+		System.out.println ("\n  Test 7: Update and delete records in batches\n");
+		boolean status = OK;
+		HeapFile f = null;
+		int numRecs = 4 * choice;
+		RID[] rids = new RID[numRecs];
+		byte[][] recs = new byte[numRecs][];
+
+		System.out.println ("  - Create a heap file and add " + numRecs + " records\n");
+		try {
+			f = new HeapFile("file_7");
+			for (int i = 0; i < numRecs; i++) {
+				recs[i] = lengthRecord(i, reclen);
+				rids[i] = f.insertRecord(recs[i]);
+			}
+		}
+		catch (Exception e) {
+			status = FAIL;
+			System.err.println ("*** Could not fill the heap file\n");
+			e.printStackTrace();
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Update a third of the records in one batch, some to other lengths\n");
+			List<RID> batch = new ArrayList<RID>();
+			List<byte[]> data = new ArrayList<byte[]>();
+			try {
+				// last to first, the batch sorts them by page
+				for (int i = numRecs - 1; i >= 0; i--) {
+					if ( i % 3 != 0 )
+						continue;
+					recs[i] = lengthRecord(i, i % 2 == 0 ? reclen : 2 * reclen);
+					recs[i][reclen - 1] = 'u';
+					batch.add(rids[i]);
+					data.add(recs[i]);
+				}
+				f.updateRecords(batch, data);
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.println ("*** Error updating records\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Read the records back by RID and by scan\n");
+			status = checkRecords(f, rids, recs);
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Delete the odd-numbered records in one batch\n");
+			List<RID> batch = new ArrayList<RID>();
+			for (int i = numRecs - 1; i >= 0; i--) {
+				if ( i % 2 == 1 ) {
+					batch.add(rids[i]);
+					recs[i] = null;
+				}
+			}
+			try {
+				int deleted = f.deleteRecords(batch);
+				if ( deleted != batch.size() ) {
+					status = FAIL;
+					System.err.println ("*** Deleted " + deleted + " records out of " + batch.size() + "\n");
+				}
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.println ("*** Error deleting records\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Try batches with a deleted record on their last page\n");
+			// records 0 and 2 are on the first page, the batch must not touch them
+			List<RID> batch = Arrays.asList(rids[0], rids[2], rids[numRecs - 1]);
+			List<byte[]> data = new ArrayList<byte[]>();
+			try {
+				for (int i = 0; i < batch.size(); i++)
+					data.add(lengthRecord(-1, reclen));
+				f.updateRecords(batch, data);
+				status = FAIL;
+				System.err.println ("*** The update batch was not refused\n");
+			}
+			catch (ChainException e) {
+				if ( checkException (e, "heap.InvalidUpdateException") ) {
+					status = FAIL;
+					System.err.println ("*** The update batch was refused with " + e + "\n");
+				}
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+
+			try {
+				if ( status == OK ) {
+					f.deleteRecords(batch);
+					status = FAIL;
+					System.err.println ("*** The delete batch was not refused\n");
+				}
+			}
+			catch (ChainException e) {
+				if ( checkException (e, "heap.HeapFileException") ) {
+					status = FAIL;
+					System.err.println ("*** The delete batch was refused with " + e + "\n");
+				}
+			}
+			catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Scan the remaining records\n");
+			status = checkRecords(f, rids, recs);
+		}
+
+		if ( status == OK && f.getRecCnt() != numRecs / 2 ) {
+			status = FAIL;
+			System.err.println ("*** The file counts " + f.getRecCnt() + " records\n");
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Empty the first data page in one batch and give it back\n");
+			try {
+				// the pages that held only moved copies of deleted records go first
+				f.reclaimEmptyPages();
+
+				List<RID> batch = new ArrayList<RID>();
+				for (int i = 0; i < numRecs; i++) {
+					if ( recs[i] != null && rids[i].pageno.pid == rids[0].pageno.pid ) {
+						batch.add(rids[i]);
+						recs[i] = null;
+					}
+				}
+				f.deleteRecords(batch);
+				int freed = f.reclaimEmptyPages();
+				if ( freed != 1 ) {
+					status = FAIL;
+					System.err.println ("*** " + freed + " pages were freed instead of 1\n");
+				}
+				else if ( f.getRecord(rids[0]) != null ) {
+					status = FAIL;
+					System.err.println ("*** The freed page is still in the file\n");
+				}
+				else if ( (freed = f.reclaimEmptyPages()) != 0 ) {
+					status = FAIL;
+					System.err.println ("*** " + freed + " more pages were freed\n");
+				}
+			}
+			catch (Exception e) {
+				status = FAIL;
+				System.err.println ("*** Error giving back the page\n");
+				e.printStackTrace();
+			}
+		}
+
+		if ( status == OK ) {
+			System.out.println ("  - Scan the remaining records\n");
+			status = checkRecords(f, rids, recs);
+		}
+
+		if ( status == OK && Minibase.BufferManager.getNumUnpinned()
+				!= Minibase.BufferManager.getNumBuffers() ) {
+			System.err.println ("*** The batches left a page pinned\n");
+			status = FAIL;
+		}
+
+		if ( status == OK )
+			System.out.println ("  Test 7 completed successfully.\n");
+		return status;
 	}
 
 	protected boolean runAllTests (){
@@ -791,6 +1154,7 @@ class HFDriver extends TestDriver implements GlobalConst
 		if (!test4()) { _passAll = FAIL; }
 		if (!test5()) { _passAll = FAIL; }
 		if (!test6()) { _passAll = FAIL; }
+		if (!test7()) { _passAll = FAIL; }
 
 		return _passAll;
 	}
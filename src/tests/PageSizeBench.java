@@ -0,0 +1,91 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+
+/**
+ * Measures insert and scan throughput for each supported page size.
+ * <br>
+ * The same number of fixed-size records is written and then scanned at
+ * every page size, with a buffer pool of the same total memory. Inserts
+ * pin and unpin the target page once per record, the way a heap file
+ * insert does; scans pin each page once and read all of its records.
+ * Run it with: java tests.PageSizeBench [records]
+ */
+public class PageSizeBench implements GlobalConst {
+
+  /** Bytes per record, a key followed by padding. */
+  private static final int RECORD_SIZE = 100;
+
+  /** Memory given to the buffer pool at every page size. */
+  private static final int POOL_BYTES = 1024 * 1024;
+
+  public static void main(String[] argv) throws Exception {
+
+    int numRecords = (argv.length > 0) ? Integer.parseInt(argv[0]) : 200000;
+    String dbpath = "/tmp/pagesizebench" + System.getProperty("user.name") 
+      + ".minibase-db";
+
+    System.out.println("records: " + numRecords + ", record size: " + RECORD_SIZE 
+        + " bytes, buffer pool: " + (POOL_BYTES / 1024) + " KB");
+    System.out.println("page size   insert rec/s     scan rec/s    pages");
+
+    for (int pageSize = PAGE_SIZE; pageSize <= DiskMgr.MAX_PAGE_SIZE; pageSize <<= 1) {
+      if (pageSize == 2 * PAGE_SIZE)
+        continue; // only the old default and 4 KB and up
+
+      int perPage = pageSize / RECORD_SIZE;
+      int numPages = (numRecords + perPage - 1) / perPage;
+      int numbufs = POOL_BYTES / pageSize;
+
+      Minibase.DiskManager = new DiskMgr();
+      Minibase.BufferManager = new BufMgr(numbufs, 0, "LRU");
+      Minibase.DiskManager.openDB(dbpath, numPages + 16, pageSize);
+
+      Page pg = new Page();
+      PageId first = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(first, false);
+
+      // Insert: one pin/unpin per record
+      PageId pid = new PageId();
+      long start = System.nanoTime();
+      for (int r = 0; r < numRecords; r++) {
+        pid.pid = first.pid + r / perPage;
+        Minibase.BufferManager.pinPage(pid, pg, false);
+        Convert.setIntValue(r, (r % perPage) * RECORD_SIZE, pg.getpage());
+        Minibase.BufferManager.unpinPage(pid, true);
+      }
+      Minibase.BufferManager.flushAllPages();
+      long insertNanos = System.nanoTime() - start;
+
+      // Scan: one pin/unpin per page
+      Minibase.BufferManager = new BufMgr(numbufs, 0, "LRU");
+      long checksum = 0;
+      start = System.nanoTime();
+      for (int p = 0; p < numPages; p++) {
+        pid.pid = first.pid + p;
+        Minibase.BufferManager.pinPage(pid, pg, false);
+        int records = Math.min(perPage, numRecords - p * perPage);
+        for (int i = 0; i < records; i++)
+          checksum += Convert.getIntValue(i * RECORD_SIZE, pg.getpage());
+        Minibase.BufferManager.unpinPage(pid, false);
+      }
+      long scanNanos = System.nanoTime() - start;
+
+      if (checksum != (long)numRecords * (numRecords - 1) / 2)
+        System.err.println("*** Scan at " + pageSize + " read back wrong records");
+
+      System.out.println(String.format("%6d KB %14.0f %14.0f %8d", pageSize / 1024,
+          numRecords / (insertNanos / 1e9), numRecords / (scanNanos / 1e9), numPages));
+
+      Minibase.DiskManager.DBDestroy();
+    }
+  }
+
+} // public class PageSizeBench
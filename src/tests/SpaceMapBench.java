@@ -0,0 +1,92 @@
+package tests;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+
+/**
+ * Measures page allocation and deallocation on a large database.
+ * <br>
+ * The database is first fragmented by allocating every page and freeing
+ * every other page of the first half. Then it times single-page
+ * allocate/deallocate pairs, runs of 64 pages, freeing one run that
+ * covers half the database (what dropping a big table costs) and
+ * rebuilding the free extent index when the database is opened again.
+ * Run it with: java tests.SpaceMapBench [pages]
+ */
+public class SpaceMapBench implements GlobalConst {
+
+  /** Operations timed per measurement. */
+  private static final int OPS = 100000;
+
+  /** Pages per run in the run measurement. */
+  private static final int RUN_SIZE = 64;
+
+  public static void main(String[] argv) throws Exception {
+
+    int numPages = (argv.length > 0) ? Integer.parseInt(argv[0]) : 1000000;
+    String dbpath = "/tmp/spacemapbench" + System.getProperty("user.name")
+      + ".minibase-db";
+
+    Minibase.DiskManager = new DiskMgr();
+    Minibase.BufferManager = new BufMgr(256, 0, "LRU");
+    Minibase.DiskManager.openDB(dbpath, numPages);
+    DiskMgr disk = Minibase.DiskManager;
+
+    // Fill the database, then free every other page of the first half
+    int half = numPages / 2;
+    PageId first = disk.allocate_page((int)disk.db_num_free_pages());
+    PageId pid = new PageId();
+    for (pid.pid = first.pid; pid.pid < half; pid.pid += 2)
+      disk.deallocate_page(pid);
+    System.out.println("pages: " + numPages + ", free after fragmenting: "
+        + disk.db_num_free_pages());
+
+    // Single pages, each allocation takes a hole and gives it back
+    long start = System.nanoTime();
+    for (int i = 0; i < OPS; i++) {
+      disk.allocate_page(pid);
+      disk.deallocate_page(pid);
+    }
+    report("allocate+free 1 page", OPS, System.nanoTime() - start);
+
+    // Runs, none of the holes fits so they come from the free tail
+    disk.deallocate_page(new PageId(numPages - 4 * RUN_SIZE), 4 * RUN_SIZE);
+    start = System.nanoTime();
+    for (int i = 0; i < OPS; i++) {
+      disk.allocate_page(pid, RUN_SIZE);
+      disk.deallocate_page(pid, RUN_SIZE);
+    }
+    report("allocate+free " + RUN_SIZE + " pages", OPS, System.nanoTime() - start);
+
+    // Drop a table the size of the second half of the database
+    PageId dropped = new PageId(half);
+    int dropSize = numPages - 4 * RUN_SIZE - half;
+    start = System.nanoTime();
+    disk.deallocate_page(dropped, dropSize);
+    report("free " + dropSize + " pages", 1, System.nanoTime() - start);
+
+    // Rebuild the free extent index from the space map
+    Minibase.BufferManager.flushAllPages();
+    Minibase.BufferManager = new BufMgr(256, 0, "LRU");
+    DiskMgr reopened = new DiskMgr();
+    start = System.nanoTime();
+    reopened.openDB(dbpath);
+    report("open and scan the space map", 1, System.nanoTime() - start);
+    if (reopened.db_num_free_pages() != disk.db_num_free_pages())
+      System.err.println("*** The reopened database has " + reopened.db_num_free_pages()
+          + " free pages instead of " + disk.db_num_free_pages());
+    reopened.closeDB();
+
+    disk.DBDestroy();
+  }
+
+  private static void report(String what, int ops, long nanos) {
+    System.out.println(String.format("%-32s %12.0f ops/s %12.1f us/op", what,
+        ops / (nanos / 1e9), nanos / 1e3 / ops));
+  }
+
+} // public class SpaceMapBench